@@ -0,0 +1,272 @@
+package org.msgpack;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 面向读取的小Map：键值交替存放在一个数组中，{@link #get(Object)}线性查找。几个字段的对象用它比{@link java.util.HashMap}省得多：没有Entry对象和哈希表，
+ * 保留解码时的键顺序。元素多了线性查找变慢，请用{@link OpenHashMap}。
+ *
+ * @author fangss
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ArrayMap<K, V> extends AbstractMap<K, V> {
+	/** 键值对个数不超过这个值时解码为{@link ArrayMap}，否则为{@link OpenHashMap} */
+	public static final int MAX_LINEAR_SIZE = 8;
+
+	/** 键在偶数位，值在其后 */
+	private Object[] kvs;
+	private int size;
+
+	private Set<Map.Entry<K, V>> entrySet;
+
+	public ArrayMap() {
+		this(4);
+	}
+
+	public ArrayMap(int expectedSize) {
+		kvs = new Object[expectedSize * 2];
+	}
+
+	/**
+	 * 直接使用键值交替的数组，不复制，调用者保证没有重复的键
+	 *
+	 * @param kvs
+	 * @param size
+	 *          键值对个数
+	 */
+	ArrayMap(Object[] kvs, int size) {
+		this.kvs = kvs;
+		this.size = size;
+	}
+
+	/**
+	 * 按大小选择解码的Map：小的用{@link ArrayMap}，直接使用键值交替的数组；大的用{@link OpenHashMap}
+	 *
+	 * @param kvs
+	 *          键值交替的数组，如{@link MUnpacker#unpack()}解码Map的结果，可能被新Map直接使用
+	 * @return
+	 */
+	public static Map<Object, Object> compactMapOf(Object[] kvs) {
+		int size = kvs.length >>> 1;
+		if (size <= MAX_LINEAR_SIZE) {
+			if (!hasDuplicateKeys(kvs, size)) {
+				return new ArrayMap<Object, Object>(kvs, size);
+			}
+			ArrayMap<Object, Object> map = new ArrayMap<Object, Object>(size);
+			for (int i = 0; i < kvs.length; i += 2) {
+				map.put(kvs[i], kvs[i + 1]);
+			}
+			return map;
+		}
+		OpenHashMap<Object, Object> map = new OpenHashMap<Object, Object>(size);
+		for (int i = 0; i < kvs.length; i += 2) {
+			map.put(kvs[i], kvs[i + 1]);
+		}
+		return map;
+	}
+
+	private static boolean hasDuplicateKeys(Object[] kvs, int size) {
+		for (int i = 1; i < size; i++) {
+			Object key = kvs[i << 1];
+			for (int j = 0; j < i; j++) {
+				if (eq(key, kvs[j << 1])) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean eq(Object a, Object b) {
+		return a == b || (null != a && a.equals(b));
+	}
+
+	/** @return 键的下标（偶数），不存在返回-1 */
+	private int indexOf(Object key) {
+		int end = size << 1;
+		if (null == key) {
+			for (int i = 0; i < end; i += 2) {
+				if (null == kvs[i]) {
+					return i;
+				}
+			}
+		} else {
+			for (int i = 0; i < end; i += 2) {
+				Object k = kvs[i];
+				if (key == k || key.equals(k)) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		int i = indexOf(key);
+		return i >= 0 ? (V) kvs[i + 1] : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V put(K key, V value) {
+		int i = indexOf(key);
+		if (i >= 0) {
+			Object old = kvs[i + 1];
+			kvs[i + 1] = value;
+			return (V) old;
+		}
+		i = size << 1;
+		if (i == kvs.length) {
+			kvs = Arrays.copyOf(kvs, Math.max(4, i << 1));
+		}
+		kvs[i] = key;
+		kvs[i + 1] = value;
+		size++;
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(Object key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		Object old = kvs[i + 1];
+		removeAt(i);
+		return (V) old;
+	}
+
+	private void removeAt(int i) {
+		int end = size << 1;
+		System.arraycopy(kvs, i + 2, kvs, i, end - i - 2);
+		kvs[end - 2] = null;
+		kvs[end - 1] = null;
+		size--;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(kvs, 0, size << 1, null);
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		Set<Map.Entry<K, V>> es = entrySet;
+		if (null == es) {
+			entrySet = es = new AbstractSet<Map.Entry<K, V>>() {
+				@Override
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return es;
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		/** 下一个键的下标 */
+		int next;
+		int last = -1;
+
+		@Override
+		public boolean hasNext() {
+			return next < size << 1;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next += 2;
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+	}
+
+	/** 读写直接落在数组上，数组元素移动后失效 */
+	private class Entry implements Map.Entry<K, V> {
+		final int index;
+
+		Entry(int index) {
+			this.index = index;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public K getKey() {
+			return (K) kvs[index];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V getValue() {
+			return (V) kvs[index + 1];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V setValue(V value) {
+			Object old = kvs[index + 1];
+			kvs[index + 1] = value;
+			return (V) old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return eq(getKey(), e.getKey()) && eq(getValue(), e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			Object k = getKey(), v = getValue();
+			return (null == k ? 0 : k.hashCode()) ^ (null == v ? 0 : v.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
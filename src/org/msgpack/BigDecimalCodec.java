@@ -0,0 +1,77 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * {@link BigDecimal}编码为扩展类型，负载为zigzag变长整数的scale，之后是最少字节的大端补码unscaled value。<br>
+ * unscaled value能用long表示时（绝大多数金额等）编解码都不经过字符串和字节数组，否则用{@link BigInteger#toByteArray()}。
+ *
+ * @author fangss
+ *
+ */
+public class BigDecimalCodec implements ExtensionCodec<BigDecimal> {
+	/** int的zigzag变长整数最多的字节数 */
+	private static final int MAX_SCALE_BYTES = 5;
+
+	private final byte type;
+
+	/**
+	 * @param type
+	 *          应用定义的扩展类型
+	 */
+	public BigDecimalCodec(byte type) {
+		this.type = type;
+	}
+
+	@Override
+	public byte getType() {
+		return type;
+	}
+
+	@Override
+	public Class<BigDecimal> getValueClass() {
+		return BigDecimal.class;
+	}
+
+	@Override
+	public BigDecimal read(MUnpacker unpacker, int length) throws IOException {
+		long zigzag = Varint.read(unpacker, Math.min(length, MAX_SCALE_BYTES));
+		if (zigzag > 0xffffffffL) {
+			throw new MPackFormatException("malformed BigDecimal scale");
+		}
+		int scale = (int) Varint.unzigzag(zigzag);
+		int magnitudeLength = length - Varint.sizeOf(zigzag);
+		if (magnitudeLength < 1) {
+			throw new MPackFormatException("malformed BigDecimal without unscaled value");
+		}
+		if (magnitudeLength <= 8) {
+			long unscaled = unpacker.readByte(); // 符号扩展
+			for (int i = 1; i < magnitudeLength; i++) {
+				unscaled = (unscaled << 8) | (unpacker.readByte() & 0xff);
+			}
+			return BigDecimal.valueOf(unscaled, scale);
+		}
+		return new BigDecimal(new BigInteger(unpacker.readPayload(magnitudeLength)), scale);
+	}
+
+	@Override
+	public void write(MPacker packer, BigDecimal value) throws IOException {
+		long zigzag = Varint.zigzag(value.scale());
+		int scaleLength = Varint.sizeOf(zigzag);
+		BigInteger unscaledValue = value.unscaledValue();
+		int bitLength = unscaledValue.bitLength();
+		if (bitLength <= 63) {
+			int magnitudeLength = bitLength / 8 + 1;
+			packer.packExtensionTypeHeader(type, scaleLength + magnitudeLength);
+			Varint.write(zigzag, packer);
+			packer.writeBytesOf(unscaledValue.longValue(), magnitudeLength);
+		} else {
+			byte[] magnitude = unscaledValue.toByteArray();
+			packer.packExtensionTypeHeader(type, scaleLength + magnitude.length);
+			Varint.write(zigzag, packer);
+			packer.write(magnitude);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.msgpack;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 以{@link ByteBuffer}为数据源的输入流，可用于堆内数组、直接缓冲区或者内存映射文件（{@link java.nio.MappedByteBuffer}）。<br>
+ * 与{@link java.io.ByteArrayInputStream}不同，{@link #skip(long)}总是跳够，且解包器可以取得内部缓冲区做零拷贝切片。
+ *
+ * @author fangss
+ *
+ */
+public class ByteBufferInputStream extends InputStream {
+	private final ByteBuffer buf;
+
+	/**
+	 * @param buffer
+	 *          从它的position读到limit，不改变它本身的position和limit
+	 */
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		buf = buffer.duplicate();
+	}
+
+	public ByteBufferInputStream(byte[] buf, int offset, int length) {
+		this.buf = ByteBuffer.wrap(buf, offset, length);
+	}
+
+	/**
+	 * 返回内部缓冲区，它的position即下一个要读取的字节
+	 *
+	 * @return
+	 */
+	public ByteBuffer buffer() {
+		return buf;
+	}
+
+	@Override
+	public int read() {
+		return buf.hasRemaining() ? buf.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int n = Math.min(len, buf.remaining());
+		if (n == 0) {
+			return -1;
+		}
+		buf.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		if (n <= 0) {
+			return 0;
+		}
+		int k = (int) Math.min(n, buf.remaining());
+		buf.position(buf.position() + k);
+		return k;
+	}
+
+	@Override
+	public int available() {
+		return buf.remaining();
+	}
+}
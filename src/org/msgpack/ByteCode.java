@@ -43,6 +43,9 @@ public class ByteCode {
 	public static final byte MAP16 = (byte) 0xde;
 	public static final byte MAP32 = (byte) 0xdf;
 
+	/** 预定义的扩展类型：时间戳，负载为4、8或12字节，见{@link MPacker#packTimestamp(long, int)} */
+	public static final byte EXT_TIMESTAMP = -1;
+
 	// Other Helper
 
 	/** @see {@link #isPosFixInt(byte)} */
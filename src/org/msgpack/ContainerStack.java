@@ -0,0 +1,135 @@
+package org.msgpack;
+
+import java.util.Arrays;
+
+/**
+ * 解码时的容器栈：元素完成后直接放入栈顶容器，容器填满即出栈并作为一个完成的元素放入下一层，不需要递归。头部给出的大小不可信，
+ * 容器最多预先分配{@link #MAX_INITIAL_CAPACITY}个元素，之后随元素到达增长到头部给出的大小。<br>
+ * Map在填满前以键值交替的<code>Object[]</code>保存，填满后按选项转换（见{@link MUnpacker#OPT_READ_MAP_AS_COMPACT_MAP}）。
+ *
+ * @author fangss
+ *
+ */
+class ContainerStack {
+	/** {@link #add(Object)}等方法的返回值，表示还没有完成的顶级值 */
+	static final Object INCOMPLETE = new Object();
+
+	private static final Object[] EMPTY_ARRAY = new Object[0];
+	/** 容器预先分配的最大元素个数 */
+	static final int MAX_INITIAL_CAPACITY = 1024;
+
+	private static final byte ARRAY = 0;
+	private static final byte MAP = 1;
+
+	private Object[][] containers = new Object[8][];
+	private int[] filled = new int[8];
+	/** 头部给出的元素个数，Map为键值对个数的两倍 */
+	private int[] expected = new int[8];
+	private byte[] kinds = new byte[8];
+	private int depth;
+
+	private int options;
+	private int maxDepth = Integer.MAX_VALUE;
+
+	ContainerStack(int options) {
+		this.options = options;
+	}
+
+	void setOptions(int options) {
+		this.options = options;
+	}
+
+	void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	int depth() {
+		return depth;
+	}
+
+	/** 丢弃所有未完成的容器 */
+	void clear() {
+		Arrays.fill(containers, 0, depth, null);
+		depth = 0;
+	}
+
+	/**
+	 * 开始一个数组
+	 *
+	 * @return 空数组直接完成，可能因此完成一个顶级值；否则返回{@link #INCOMPLETE}
+	 */
+	Object beginArray(int size) {
+		if (0 == size) {
+			return add(finish(ARRAY, EMPTY_ARRAY));
+		}
+		push(ARRAY, size);
+		return INCOMPLETE;
+	}
+
+	/**
+	 * 开始一个Map
+	 *
+	 * @return 空Map直接完成，可能因此完成一个顶级值；否则返回{@link #INCOMPLETE}
+	 */
+	Object beginMap(int size) {
+		if (0 == size) {
+			return add(finish(MAP, EMPTY_ARRAY));
+		}
+		if (size > Integer.MAX_VALUE / 2) {
+			throw new MPackSizeException(size);
+		}
+		push(MAP, size * 2);
+		return INCOMPLETE;
+	}
+
+	/**
+	 * 添加一个完成的元素（或者Map的键、值）到栈顶容器，逐层完成填满的容器
+	 *
+	 * @param value
+	 * @return 栈空时value本身就是完成的顶级值；容器因此逐层完成到栈空时返回完成的顶级值；否则返回{@link #INCOMPLETE}
+	 */
+	Object add(Object value) {
+		while (depth > 0) {
+			int top = depth - 1;
+			Object[] container = containers[top];
+			int n = filled[top];
+			if (n == container.length) {
+				// 容量不超过expected，填满时恰好是容器的大小
+				containers[top] = container = Arrays.copyOf(container, Math.min(expected[top], n << 1));
+			}
+			container[n++] = value;
+			filled[top] = n;
+			if (n < expected[top]) {
+				return INCOMPLETE;
+			}
+			value = finish(kinds[top], container);
+			containers[top] = null;
+			depth = top;
+		}
+		return value;
+	}
+
+	private void push(byte kind, int size) {
+		if (depth == maxDepth) {
+			throw new MPackException("nesting depth exceeds " + maxDepth);
+		}
+		if (depth == containers.length) {
+			containers = Arrays.copyOf(containers, depth << 1);
+			filled = Arrays.copyOf(filled, depth << 1);
+			expected = Arrays.copyOf(expected, depth << 1);
+			kinds = Arrays.copyOf(kinds, depth << 1);
+		}
+		containers[depth] = new Object[Math.min(size, MAX_INITIAL_CAPACITY)];
+		filled[depth] = 0;
+		expected[depth] = size;
+		kinds[depth] = kind;
+		depth++;
+	}
+
+	private Object finish(byte kind, Object[] container) {
+		if (ARRAY == kind) {
+			return (options & MUnpacker.OPT_READ_ARRAY_AS_LIST) > 0 ? Arrays.asList(container) : container;
+		}
+		return (options & MUnpacker.OPT_READ_MAP_AS_COMPACT_MAP) > 0 ? ArrayMap.compactMapOf(container) : container;
+	}
+}
@@ -0,0 +1,123 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 枚举编码为名字表中的序号：FIXEXT1（序号小于256），FIXEXT2或FIXEXT4。序号来自构造时给定的名字表而不是{@link Enum#ordinal()}，
+ * 枚举常量重新排序或增加不影响已编码的数据；表中有而枚举中已经删除的名字解码为null。
+ *
+ * @author fangss
+ *
+ * @param <E>
+ */
+public class EnumCodec<E extends Enum<E>> implements ExtensionCodec<E> {
+	private final byte type;
+	private final Class<E> enumClass;
+	/** 按名字表的序号 */
+	private final E[] constants;
+	/** 按{@link Enum#ordinal()}，不在名字表中为-1 */
+	private final int[] indexes;
+
+	/**
+	 * 名字表为枚举常量的声明顺序
+	 * 
+	 * @param type
+	 *          应用定义的扩展类型
+	 * @param enumClass
+	 */
+	public EnumCodec(byte type, Class<E> enumClass) {
+		this(type, enumClass, names(enumClass));
+	}
+
+	/**
+	 * @param type
+	 *          应用定义的扩展类型
+	 * @param enumClass
+	 * @param names
+	 *          名字表，下标即编码的序号
+	 */
+	public EnumCodec(byte type, Class<E> enumClass, String... names) {
+		this.type = type;
+		this.enumClass = enumClass;
+		E[] all = enumClass.getEnumConstants();
+		constants = Arrays.copyOf(all, names.length);
+		indexes = new int[all.length];
+		Arrays.fill(indexes, -1);
+		for (int i = 0; i < names.length; i++) {
+			E constant = null;
+			for (E e : all) {
+				if (e.name().equals(names[i])) {
+					constant = e;
+					break;
+				}
+			}
+			constants[i] = constant;
+			if (null != constant) {
+				if (indexes[constant.ordinal()] >= 0) {
+					throw new IllegalArgumentException("duplicate enum name: " + names[i]);
+				}
+				indexes[constant.ordinal()] = i;
+			}
+		}
+	}
+
+	private static String[] names(Class<? extends Enum<?>> enumClass) {
+		Enum<?>[] all = enumClass.getEnumConstants();
+		String[] names = new String[all.length];
+		for (int i = 0; i < all.length; i++) {
+			names[i] = all[i].name();
+		}
+		return names;
+	}
+
+	@Override
+	public byte getType() {
+		return type;
+	}
+
+	@Override
+	public Class<E> getValueClass() {
+		return enumClass;
+	}
+
+	@Override
+	public E read(MUnpacker unpacker, int length) throws IOException {
+		int index;
+		switch (length) {
+		case 1:
+			index = unpacker.readByte() & 0xff;
+			break;
+		case 2:
+			index = unpacker.readShort() & 0xffff;
+			break;
+		case 4:
+			index = unpacker.readInt();
+			break;
+		default:
+			throw new MPackFormatException("invalid enum length: " + length);
+		}
+		if (index < 0 || index >= constants.length) {
+			throw new MPackFormatException(String.format("unknown %s index: %d", enumClass.getName(), index));
+		}
+		return constants[index];
+	}
+
+	@Override
+	public void write(MPacker packer, E value) throws IOException {
+		int index = indexes[value.ordinal()];
+		if (index < 0) {
+			throw new IllegalArgumentException(value + " is not in the name table of " + enumClass.getName());
+		}
+		if (index < (1 << 8)) {
+			packer.packExtensionTypeHeader(type, 1);
+			packer.writeByte((byte) index);
+		} else if (index < (1 << 16)) {
+			packer.packExtensionTypeHeader(type, 2);
+			packer.writeShort((short) index);
+		} else {
+			packer.packExtensionTypeHeader(type, 4);
+			packer.writeInt(index);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.msgpack;
+
+import java.io.IOException;
+
+/**
+ * 扩展类型与Java对象之间的编解码，注册到{@link ExtensionRegistry}后由{@link MUnpacker#unpack()}和{@link MPacker#pack(Object)}自动调用。
+ * 直接从解包器读取负载、直接向打包器写入，不经过{@link ExtensionValue}的中间字节数组。
+ *
+ * @author fangss
+ *
+ * @param <T>
+ */
+public interface ExtensionCodec<T> {
+	/** 扩展类型，0到127由应用定义，-1到-128为MessagePack保留 */
+	public byte getType();
+
+	/** 打包时按这个类型（包括其子类）选中本编解码器 */
+	public Class<T> getValueClass();
+
+	/**
+	 * 读取负载，扩展头部已经读取
+	 * 
+	 * @param unpacker
+	 *          可用{@link MUnpacker#readInt()}，{@link MUnpacker#readPayload(byte[])}等读取负载
+	 * @param length
+	 *          负载的字节数，必须恰好读取这么多字节
+	 * @return
+	 * @throws IOException
+	 */
+	public T read(MUnpacker unpacker, int length) throws IOException;
+
+	/**
+	 * 写入扩展头部（{@link MPacker#packExtensionTypeHeader(byte, int)}）和负载
+	 * 
+	 * @param packer
+	 *          可用{@link MPacker#writeInt(int)}，{@link MPacker#write(byte[])}等写入负载
+	 * @param value
+	 * @throws IOException
+	 */
+	public void write(MPacker packer, T value) throws IOException;
+}
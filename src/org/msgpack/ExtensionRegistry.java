@@ -0,0 +1,111 @@
+package org.msgpack;
+
+import java.io.IOException;
+
+/**
+ * 扩展类型的编解码器表：解码按扩展类型字节直接索引256个槽位的数组，打包按值的类（缓存到{@link ClassValue}，子类也能找到）。<br>
+ * 设置给{@link MUnpacker#setExtensionRegistry(ExtensionRegistry)}和{@link MPacker#setExtensionRegistry(ExtensionRegistry)}后，
+ * 注册过的扩展类型解码为领域对象，而不是{@link ExtensionValue}。
+ * <p/>
+ * 注册应在使用之前完成，之后只读，可以在线程间共享。
+ *
+ * @author fangss
+ *
+ */
+public class ExtensionRegistry {
+	private final ExtensionCodec<?>[] byType = new ExtensionCodec<?>[256];
+	private volatile ClassValue<ExtensionCodec<?>> byClass = newClassLookup();
+
+	public ExtensionRegistry() {
+	}
+
+	/**
+	 * 创建一个注册了内置编解码器的表：时间戳（-1）与{@link java.time.Instant}
+	 * 
+	 * @return
+	 */
+	public static ExtensionRegistry withBuiltins() {
+		return new ExtensionRegistry().register(new TimestampCodec());
+	}
+
+	/**
+	 * 注册编解码器，同一扩展类型已有的会被替换
+	 * 
+	 * @param codec
+	 * @return this
+	 */
+	public ExtensionRegistry register(ExtensionCodec<?> codec) {
+		byType[codec.getType() & 0xff] = codec;
+		// 已缓存的按类查找结果可能过时
+		byClass = newClassLookup();
+		return this;
+	}
+
+	/** @return 扩展类型的编解码器，没有返回null */
+	public ExtensionCodec<?> get(byte type) {
+		return byType[type & 0xff];
+	}
+
+	/** @return 能打包这个类（或其父类、接口）的对象的编解码器，没有返回null */
+	public ExtensionCodec<?> get(Class<?> valueClass) {
+		return byClass.get(valueClass);
+	}
+
+	/**
+	 * 用注册的编解码器打包
+	 * 
+	 * @return 是否有对应的编解码器
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	boolean write(MPacker packer, Object value) throws IOException {
+		ExtensionCodec<Object> codec = (ExtensionCodec<Object>) byClass.get(value.getClass());
+		if (null == codec) {
+			return false;
+		}
+		codec.write(packer, value);
+		return true;
+	}
+
+	/**
+	 * 检查本库约定使用的扩展类型没有被注册为别的编解码器，否则两者会静默地互相遮盖
+	 * 
+	 * @param registry
+	 *          可以为null
+	 * @param type
+	 * @param allowedCodec
+	 *          允许注册的编解码器类（如{@link TypedArrayCodec}），可以为null
+	 * @param user
+	 *          用于错误信息
+	 * @throws IllegalStateException
+	 */
+	static void checkReserved(ExtensionRegistry registry, byte type, Class<?> allowedCodec, String user) {
+		ExtensionCodec<?> codec = null != registry ? registry.get(type) : null;
+		if (null != codec && (null == allowedCodec || !allowedCodec.isInstance(codec))) {
+			throw new IllegalStateException(String.format("extension type %d is used by %s but registered to %s", type,
+					user, codec.getClass().getName()));
+		}
+	}
+
+	private ClassValue<ExtensionCodec<?>> newClassLookup() {
+		return new ClassValue<ExtensionCodec<?>>() {
+			@Override
+			protected ExtensionCodec<?> computeValue(Class<?> type) {
+				// 精确匹配优先，其次是按扩展类型顺序第一个可赋值的类型
+				ExtensionCodec<?> found = null;
+				for (ExtensionCodec<?> codec : byType) {
+					if (null != codec) {
+						Class<?> c = codec.getValueClass();
+						if (c == type) {
+							return codec;
+						}
+						if (null == found && c.isAssignableFrom(type)) {
+							found = codec;
+						}
+					}
+				}
+				return found;
+			}
+		};
+	}
+}
@@ -0,0 +1,149 @@
+package org.msgpack;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * 已知字段名到序号的完美哈希：构造时为各字段名的UTF-8字节选取一个互不冲突的哈希种子，匹配时算一次哈希、比较一次字节，不创建String。
+ * 用于{@link MUnpacker#unpackField(FieldMatcher)}按序号解码固定结构的Map，代替逐个unpackString()再按String分支。
+ * 
+ * <pre>
+ * static final FieldMatcher FIELDS = new FieldMatcher(&quot;id&quot;, &quot;name&quot;, &quot;time&quot;);
+ * 
+ * int n = unpacker.unpackMapHeader();
+ * while (n-- &gt; 0) {
+ * 	switch (unpacker.unpackField(FIELDS)) {
+ * 	case 0:
+ * 		id = unpacker.unpackLong();
+ * 		break;
+ * 	case 1:
+ * 		...
+ * 	default:
+ * 		// 未知的键，值已经跳过
+ * 	}
+ * }
+ * </pre>
+ *
+ * @author fangss
+ *
+ */
+public final class FieldMatcher {
+	/** 不认识的字段 */
+	public static final int UNKNOWN = -1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final String[] names;
+	private final byte[][] keys;
+	/** 槽位中为序号+1，0为空 */
+	private final int[] slots;
+	private final int mask;
+	private final int seed;
+	private final int minLength;
+	private final int maxLength;
+
+	/**
+	 * @param names
+	 *          字段名，下标即序号，不能重复
+	 * @throws IllegalArgumentException
+	 *           字段名重复
+	 */
+	public FieldMatcher(String... names) {
+		this.names = names.clone();
+		keys = new byte[names.length][];
+		int min = Integer.MAX_VALUE, max = 0;
+		for (int i = 0; i < names.length; i++) {
+			byte[] key = names[i].getBytes(UTF_8);
+			for (int j = 0; j < i; j++) {
+				if (Arrays.equals(keys[j], key)) {
+					throw new IllegalArgumentException("duplicate field name: " + names[i]);
+				}
+			}
+			keys[i] = key;
+			min = Math.min(min, key.length);
+			max = Math.max(max, key.length);
+		}
+		minLength = min;
+		maxLength = max;
+
+		// 槽位至少是字段数的2倍，找不到不冲突的种子就加倍
+		int capacity = 2;
+		while (capacity < names.length * 2) {
+			capacity <<= 1;
+		}
+		for (;;) {
+			int[] table = new int[capacity];
+			for (int s = 1; s <= 64; s++) {
+				if (fill(table, capacity - 1, s)) {
+					slots = table;
+					mask = capacity - 1;
+					seed = s;
+					return;
+				}
+				Arrays.fill(table, 0);
+			}
+			capacity <<= 1;
+		}
+	}
+
+	private boolean fill(int[] table, int mask, int seed) {
+		for (int i = 0; i < keys.length; i++) {
+			byte[] key = keys[i];
+			int slot = hash(key, 0, key.length, seed) & mask;
+			if (0 != table[slot]) {
+				return false;
+			}
+			table[slot] = i + 1;
+		}
+		return true;
+	}
+
+	private static int hash(byte[] b, int off, int len, int seed) {
+		int h = seed * 0x9e3779b9 ^ len;
+		for (int i = off, end = off + len; i < end; i++) {
+			h = (h ^ b[i]) * 0x01000193;
+		}
+		return h ^ (h >>> 15);
+	}
+
+	/**
+	 * @return 字段名的UTF-8字节为b[off, off+len)的字段序号，没有返回{@link #UNKNOWN}
+	 */
+	public int match(byte[] b, int off, int len) {
+		if (len < minLength || len > maxLength) {
+			return UNKNOWN;
+		}
+		int ordinal = slots[hash(b, off, len, seed) & mask] - 1;
+		if (ordinal < 0) {
+			return UNKNOWN;
+		}
+		byte[] key = keys[ordinal];
+		if (key.length != len) {
+			return UNKNOWN;
+		}
+		for (int i = 0; i < len; i++) {
+			if (key[i] != b[off + i]) {
+				return UNKNOWN;
+			}
+		}
+		return ordinal;
+	}
+
+	public int match(CharSequence name) {
+		byte[] key = name.toString().getBytes(UTF_8);
+		return match(key, 0, key.length);
+	}
+
+	/** 最长字段名的UTF-8字节数，更长的键不用读取就知道不匹配 */
+	public int maxLength() {
+		return maxLength;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String nameOf(int ordinal) {
+		return names[ordinal];
+	}
+}
@@ -0,0 +1,64 @@
+package org.msgpack;
+
+/**
+ * float与半精度（IEEE 754 binary16）、bfloat16之间的转换，舍入到最近的偶数，保留无穷、NaN和-0.0
+ *
+ * @author fangss
+ *
+ */
+final class HalfFloats {
+	private HalfFloats() {
+	}
+
+	static float halfToFloat(short h) {
+		int bits = h & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exp = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if (exp == 0x1f) {
+			// 无穷或NaN
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		}
+		if (exp == 0) {
+			// 0或非规格化数：mantissa * 2^-24
+			float f = mantissa * 0x1p-24f;
+			return 0 == sign ? f : -f;
+		}
+		return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mantissa << 13));
+	}
+
+	static short floatToHalf(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int abs = bits & 0x7fffffff;
+		if (abs >= 0x7f800000) {
+			// 无穷或NaN，NaN保留一个非0的尾数
+			return (short) (sign | 0x7c00 | (abs > 0x7f800000 ? 0x200 | ((abs >>> 13) & 0x3ff) : 0));
+		}
+		if (abs >= 0x477ff000) {
+			// 舍入后超过65504
+			return (short) (sign | 0x7c00);
+		}
+		if (abs < 0x38800000) {
+			// 半精度的非规格化数或0：按2^-24为单位舍入
+			int half = Math.round(Float.intBitsToFloat(abs) * 0x1p24f);
+			if ((half & 1) != 0 && Float.intBitsToFloat(abs) * 0x1p24f - (half - 1) == 0.5f) {
+				// Math.round对.5向上舍入，改为偶数
+				half--;
+			}
+			return (short) (sign | half);
+		}
+		// 规格化数：去掉低13位，舍入到最近的偶数
+		int rounded = abs + 0xfff + ((abs >>> 13) & 1);
+		return (short) (sign | ((rounded - 0x38000000) >>> 13));
+	}
+
+	static short floatToBFloat16(float f) {
+		int bits = Float.floatToRawIntBits(f);
+		if ((bits & 0x7fffffff) > 0x7f800000) {
+			// NaN：保持为quiet NaN，避免舍入成无穷
+			return (short) ((bits >>> 16) | 0x40);
+		}
+		return (short) ((bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16);
+	}
+}
@@ -0,0 +1,489 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.msgpack.ByteCode.FamilyType;
+
+/**
+ * 非阻塞的增量解码器，用于NIO的事件循环：数据到达时{@link #feed(ByteBuffer)}，然后{@link #poll()}取得已完成的顶级值，数据不够时返回
+ * {@link #NEED_INPUT}而不是像{@link MUnpacker}那样阻塞或抛出{@link java.io.EOFException}。<br>
+ * 读了一半的头部和负载都保存在解码器中，下次喂入数据后接着读，不会从头重新解析；喂入的缓冲区不复制，只引用，读完即丢弃。
+ * <p/>
+ * 一般用法：
+ *
+ * <pre>
+ * <code>
+ *     MFeedUnpacker unpacker = new MFeedUnpacker();
+ *     // 每次channel可读时
+ *     buffer.clear();
+ *     channel.read(buffer);
+ *     buffer.flip();
+ *     unpacker.feed(buffer);
+ *     Object value;
+ *     while ((value = unpacker.poll()) != MFeedUnpacker.NEED_INPUT) {
+ *         // ...
+ *     }
+ *     // buffer已被读完，可以重用
+ * </code>
+ * </pre>
+ *
+ * 也可以用{@link #nextToken()}逐个取得标量和容器头部（拉取事件），自己组装容器。同一个解码器上两种方式不能混用。
+ *
+ * @author fangss
+ *
+ */
+public class MFeedUnpacker {
+	/** {@link #poll()}的返回值，表示需要更多数据 */
+	public static final Object NEED_INPUT = new Object();
+
+	/** 需要更多数据 */
+	public static final int TOKEN_NEED_INPUT = 0;
+	/** 一个完成的标量值，见{@link #getValue()} */
+	public static final int TOKEN_VALUE = 1;
+	/** 数组头部，元素个数见{@link #getLength()}，之后是这么多个元素 */
+	public static final int TOKEN_ARRAY = 2;
+	/** Map头部，键值对个数见{@link #getLength()}，之后是两倍这么多个元素 */
+	public static final int TOKEN_MAP = 3;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] EMPTY_BYTES = new byte[0];
+	/** 默认的字符串、二进制和扩展类型负载的最大长度 */
+	public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024;
+	/** 负载还没到齐时缓冲区的初始大小，之后随到达的数据增长 */
+	private static final int INITIAL_PAYLOAD_CAPACITY = 8192;
+
+	/** 喂入但还没读完的缓冲区 */
+	private final ArrayDeque<ByteBuffer> inputs = new ArrayDeque<ByteBuffer>();
+	private long bufferedBytes;
+
+	private int options;
+	private ExtensionRegistry extensionRegistry;
+
+	// 当前正在读的值的状态
+
+	/** 是否已经读了值的第一个字节 */
+	private boolean inValue;
+	private MPackFormat format;
+	private byte code;
+	/** 第一个字节之后的定长部分：数值本身，或者长度（加上扩展类型） */
+	private final ByteBuffer header = ByteBuffer.allocate(9);
+	private int headerLength;
+	private byte[] payload;
+	private int payloadFilled;
+	/** 头部给出的负载长度，payload按到达的数据增长到这个大小 */
+	private int payloadLength;
+	private int maxPayloadLength = DEFAULT_MAX_PAYLOAD_LENGTH;
+
+	/** 最近一个标记的结果 */
+	private Object value;
+	private int length;
+
+	private final ContainerStack stack = new ContainerStack(0);
+
+	public MFeedUnpacker() {
+	}
+
+	public int getOptions() {
+		return options;
+	}
+
+	/**
+	 * @param options
+	 *          同{@link MUnpacker#setOptions(int)}
+	 * @return
+	 */
+	public MFeedUnpacker setOptions(int options) {
+		this.options = options;
+		stack.setOptions(options);
+		return this;
+	}
+
+	public int getMaxPayloadLength() {
+		return maxPayloadLength;
+	}
+
+	/**
+	 * 限制字符串、二进制和扩展类型的负载长度。负载的缓冲区随数据到达才增长，不会按头部声明的长度预先分配，但收齐之前仍要保存，这个限制决定了一个连接最多占用多少内存
+	 * 
+	 * @param maxPayloadLength
+	 *          默认{@link #DEFAULT_MAX_PAYLOAD_LENGTH}
+	 * @return
+	 */
+	public MFeedUnpacker setMaxPayloadLength(int maxPayloadLength) {
+		if (maxPayloadLength < 0) {
+			throw new IllegalArgumentException("max payload length must be >= 0: " + maxPayloadLength);
+		}
+		this.maxPayloadLength = maxPayloadLength;
+		return this;
+	}
+
+	/**
+	 * 限制数组和Map的最大嵌套深度，同{@link MUnpacker#setMaxDepth(int)}
+	 * 
+	 * @param maxDepth
+	 * @return
+	 */
+	public MFeedUnpacker setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) {
+			throw new IllegalArgumentException("max depth must be >= 1: " + maxDepth);
+		}
+		stack.setMaxDepth(maxDepth);
+		return this;
+	}
+
+	/**
+	 * 同{@link MUnpacker#setExtensionRegistry(ExtensionRegistry)}，编解码器从已经收齐的负载中读取
+	 * 
+	 * @param registry
+	 * @return
+	 */
+	public MFeedUnpacker setExtensionRegistry(ExtensionRegistry registry) {
+		extensionRegistry = registry;
+		return this;
+	}
+
+	/**
+	 * 喂入数据，从position到limit。解码器只保存引用而不复制，在{@link #getBufferedBytes()}表明它被读完之前调用者不能修改它
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	public MFeedUnpacker feed(ByteBuffer buffer) {
+		if (buffer.hasRemaining()) {
+			inputs.addLast(buffer);
+			bufferedBytes += buffer.remaining();
+		}
+		return this;
+	}
+
+	public MFeedUnpacker feed(byte[] buf, int off, int len) {
+		return feed(ByteBuffer.wrap(buf, off, len));
+	}
+
+	/** 已喂入但尚未读取的字节数，为0时喂入的缓冲区都已读完，可以重用 */
+	public long getBufferedBytes() {
+		return bufferedBytes;
+	}
+
+	/** 是否正处在一个值（包括未完成的容器）的中间 */
+	public boolean isInsideValue() {
+		return inValue || stack.depth() > 0;
+	}
+
+	/** 丢弃所有喂入的数据和读了一半的状态，如连接重置时 */
+	public void reset() {
+		inputs.clear();
+		bufferedBytes = 0;
+		inValue = false;
+		payload = null;
+		value = null;
+		stack.clear();
+	}
+
+	/**
+	 * 取得下一个完成的顶级值，映射规则同{@link MUnpacker#unpack()}
+	 *
+	 * @return 数据不够时返回{@link #NEED_INPUT}
+	 * @throws MPackFormatException
+	 */
+	public Object poll() {
+		for (;;) {
+			Object result;
+			switch (nextToken()) {
+			case TOKEN_VALUE:
+				result = stack.add(value);
+				value = null;
+				break;
+			case TOKEN_ARRAY:
+				result = stack.beginArray(length);
+				break;
+			case TOKEN_MAP:
+				result = stack.beginMap(length);
+				break;
+			default:
+				return NEED_INPUT;
+			}
+			if (ContainerStack.INCOMPLETE != result) {
+				return result;
+			}
+		}
+	}
+
+	/**
+	 * 读取下一个标记：一个标量值或者一个容器的头部
+	 *
+	 * @return {@link #TOKEN_NEED_INPUT}, {@link #TOKEN_VALUE}, {@link #TOKEN_ARRAY}或者{@link #TOKEN_MAP}
+	 * @throws MPackFormatException
+	 * @throws MPackSizeException
+	 *           负载长度超过{@link #setMaxPayloadLength(int)}，此后应{@link #reset()}或者关闭连接
+	 */
+	public int nextToken() {
+		if (!inValue) {
+			if (0 == bufferedBytes) {
+				return TOKEN_NEED_INPUT;
+			}
+			code = readByte();
+			format = MPackFormat.valueOf(code);
+			headerLength = headerLengthOf(format);
+			header.clear().limit(headerLength);
+			payload = null;
+			inValue = true;
+		}
+		if (header.hasRemaining()) {
+			if (!fill(header)) {
+				return TOKEN_NEED_INPUT;
+			}
+		}
+		if (null == payload) {
+			payloadLength = payloadLengthOf();
+			if (payloadLength < 0) {
+				inValue = false;
+				return scalarOrHeader();
+			}
+			if (payloadLength > maxPayloadLength) {
+				throw new MPackSizeException(payloadLength);
+			}
+			// 不按头部声明的长度预先分配，只分配已经到达的部分
+			payload = payloadLength > 0 ? new byte[(int) Math.min(payloadLength,
+					Math.max(bufferedBytes, INITIAL_PAYLOAD_CAPACITY))] : EMPTY_BYTES;
+			payloadFilled = 0;
+		}
+		while (payloadFilled < payloadLength) {
+			ByteBuffer in = inputs.peekFirst();
+			if (null == in) {
+				return TOKEN_NEED_INPUT;
+			}
+			int n = Math.min(in.remaining(), payloadLength - payloadFilled);
+			if (payloadFilled + n > payload.length) {
+				// 容量不超过payloadLength，收齐时恰好是负载的大小
+				payload = Arrays.copyOf(payload, Math.min(payloadLength, Math.max(payloadFilled + n, payload.length << 1)));
+			}
+			in.get(payload, payloadFilled, n);
+			payloadFilled += n;
+			consumed(in, n);
+		}
+		inValue = false;
+		value = payloadValue();
+		payload = null;
+		return TOKEN_VALUE;
+	}
+
+	/** 最近一个{@link #TOKEN_VALUE}的值 */
+	public Object getValue() {
+		return value;
+	}
+
+	/** 最近一个{@link #TOKEN_ARRAY}的元素个数或者{@link #TOKEN_MAP}的键值对个数 */
+	public int getLength() {
+		return length;
+	}
+
+	private byte readByte() {
+		ByteBuffer in = inputs.peekFirst();
+		byte b = in.get();
+		consumed(in, 1);
+		return b;
+	}
+
+	/** 从喂入的数据填充dst直到填满 */
+	private boolean fill(ByteBuffer dst) {
+		while (dst.hasRemaining()) {
+			ByteBuffer in = inputs.peekFirst();
+			if (null == in) {
+				return false;
+			}
+			int n = Math.min(in.remaining(), dst.remaining());
+			int limit = in.limit();
+			in.limit(in.position() + n);
+			dst.put(in);
+			in.limit(limit);
+			consumed(in, n);
+		}
+		return true;
+	}
+
+	private void consumed(ByteBuffer in, int n) {
+		bufferedBytes -= n;
+		if (!in.hasRemaining()) {
+			inputs.pollFirst();
+		}
+	}
+
+	private int headerLengthOf(MPackFormat format) {
+		switch (format) {
+		case INT8:
+		case UINT8:
+		case BIN8:
+		case STR8:
+		case FIXEXT1:
+		case FIXEXT2:
+		case FIXEXT4:
+		case FIXEXT8:
+		case FIXEXT16:
+			return 1;
+		case INT16:
+		case UINT16:
+		case BIN16:
+		case STR16:
+		case ARRAY16:
+		case MAP16:
+		case EXT8:
+			return 2;
+		case EXT16:
+			return 3;
+		case INT32:
+		case UINT32:
+		case FLOAT32:
+		case BIN32:
+		case STR32:
+		case ARRAY32:
+		case MAP32:
+			return 4;
+		case EXT32:
+			return 5;
+		case INT64:
+		case UINT64:
+		case FLOAT64:
+			return 8;
+		case NEVER_USED:
+			throw new MPackFormatException(String.format("unknown code: %02x is found", code));
+		default:
+			return 0;
+		}
+	}
+
+	/** @return 负载长度，没有负载的值返回-1 */
+	private int payloadLengthOf() {
+		switch (format) {
+		case FIXSTR:
+			return code & 0x1f;
+		case STR8:
+		case BIN8:
+			return header.get(0) & 0xff;
+		case STR16:
+		case BIN16:
+			return header.getShort(0) & 0xffff;
+		case STR32:
+		case BIN32:
+			return length32(header.getInt(0));
+		case FIXEXT1:
+			return 1;
+		case FIXEXT2:
+			return 2;
+		case FIXEXT4:
+			return 4;
+		case FIXEXT8:
+			return 8;
+		case FIXEXT16:
+			return 16;
+		case EXT8:
+			return header.get(0) & 0xff;
+		case EXT16:
+			return header.getShort(0) & 0xffff;
+		case EXT32:
+			return length32(header.getInt(0));
+		default:
+			return -1;
+		}
+	}
+
+	private static int length32(int u32) {
+		if (u32 < 0) {
+			throw new MPackSizeException(MUnpacker.toUnsignedLong(u32));
+		}
+		return u32;
+	}
+
+	/** 没有负载的值：整数、浮点数、空、布尔值，以及容器头部 */
+	private int scalarOrHeader() {
+		switch (format) {
+		case POSFIXINT:
+		case NEGFIXINT:
+			value = NumberBoxing.boxInteger(format, code, options);
+			return TOKEN_VALUE;
+		case NIL:
+			value = null;
+			return TOKEN_VALUE;
+		case BOOLEAN:
+			value = ByteCode.TRUE == code;
+			return TOKEN_VALUE;
+		case UINT8:
+			value = NumberBoxing.boxInteger(format, header.get(0) & 0xff, options);
+			return TOKEN_VALUE;
+		case UINT16:
+			value = NumberBoxing.boxInteger(format, header.getShort(0) & 0xffff, options);
+			return TOKEN_VALUE;
+		case UINT32:
+			value = NumberBoxing.boxInteger(format, MUnpacker.toUnsignedLong(header.getInt(0)), options);
+			return TOKEN_VALUE;
+		case INT8:
+			value = NumberBoxing.boxInteger(format, header.get(0), options);
+			return TOKEN_VALUE;
+		case INT16:
+			value = NumberBoxing.boxInteger(format, header.getShort(0), options);
+			return TOKEN_VALUE;
+		case INT32:
+			value = NumberBoxing.boxInteger(format, header.getInt(0), options);
+			return TOKEN_VALUE;
+		case UINT64:
+		case INT64:
+			value = NumberBoxing.boxInteger(format, header.getLong(0), options);
+			return TOKEN_VALUE;
+		case FLOAT32:
+			value = NumberBoxing.boxFloat(format, header.getFloat(0), options);
+			return TOKEN_VALUE;
+		case FLOAT64:
+			value = NumberBoxing.boxFloat(format, header.getDouble(0), options);
+			return TOKEN_VALUE;
+		case FIXARRAY:
+			length = code & 0x0f;
+			return TOKEN_ARRAY;
+		case ARRAY16:
+			length = header.getShort(0) & 0xffff;
+			return TOKEN_ARRAY;
+		case ARRAY32:
+			length = length32(header.getInt(0));
+			return TOKEN_ARRAY;
+		case FIXMAP:
+			length = code & 0x0f;
+			return TOKEN_MAP;
+		case MAP16:
+			length = header.getShort(0) & 0xffff;
+			return TOKEN_MAP;
+		case MAP32:
+			length = length32(header.getInt(0));
+			return TOKEN_MAP;
+		default:
+			throw new MPackFormatException("Unknown format: " + format);
+		}
+	}
+
+	/** 带负载的值：字符串、二进制和扩展类型 */
+	private Object payloadValue() {
+		switch (format.getFamily()) {
+		case FamilyType.STRING:
+			if ((options & MUnpacker.OPT_READ_STR_AS_BIN) > 0) {
+				return payload;
+			}
+			return (options & MUnpacker.OPT_READ_STR_AS_UTF8) > 0 ? new Utf8String(payload) : new String(payload, UTF_8);
+		case FamilyType.BINARY:
+			return (options & MUnpacker.OPT_READ_BIN_AS_STR) > 0 ? new String(payload, UTF_8) : payload;
+		default:
+			// 扩展类型：定长的类型在头部第一个字节，变长的类型在长度之后
+			byte type = header.get(headerLength - 1);
+			ExtensionCodec<?> codec = null != extensionRegistry ? extensionRegistry.get(type) : null;
+			if (null != codec) {
+				try {
+					return codec.read(MPack.newMUnpacker(payload), payload.length);
+				} catch (IOException e) {
+					throw new MPackException("malformed extension payload of type " + type, e);
+				}
+			}
+			return new ExtensionValueImpl(type, payload);
+		}
+	}
+}
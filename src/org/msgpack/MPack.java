@@ -4,6 +4,7 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class MPack {
 	private static final int EOF = -1;
@@ -20,6 +21,19 @@ public class MPack {
 		return new MPacker(new BufferedOutputStream(out));
 	}
 
+	public static MUnpacker newMUnpacker(byte[] buf) {
+		return new MUnpacker(new ByteBufferInputStream(buf, 0, buf.length));
+	}
+
+	public static MUnpacker newMUnpacker(byte[] buf, int offset, int length) {
+		return new MUnpacker(new ByteBufferInputStream(buf, offset, length));
+	}
+
+	/** 从缓冲区的position读到limit，不改变缓冲区本身的position，支持零拷贝和{@link MPackParallel}的切片解码 */
+	public static MUnpacker newMUnpacker(ByteBuffer buffer) {
+		return new MUnpacker(new ByteBufferInputStream(buffer));
+	}
+
 	/**
 	 * Copy some or all bytes from a large (over 2GB) <code>InputStream</code> to an
 	 * <code>OutputStream</code>.
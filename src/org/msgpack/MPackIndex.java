@@ -0,0 +1,361 @@
+package org.msgpack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 顶级值偏移索引，记录一个由多个顶级值串联而成的流（通常是数据文件）中每个顶级值的起始偏移，用于直接跳到第N个值，而不必从头{@link MUnpacker#skipValue()}。
+ * <p/>
+ * 偏移按块压缩存储：每{@value #BLOCK_SIZE}个值为一块，块内第一个值记录绝对偏移，其余值记录与前一个值的差（变长无符号整数，7位一组，高位为延续标志）。
+ * 定位第N个值最多解码{@value #BLOCK_SIZE}-1个差值，按偏移查找则先对块做二分查找。
+ * <p/>
+ * 索引可以保存在数据文件旁边（文件名加{@value #INDEX_FILE_SUFFIX}后缀），本身也以MessagePack格式存储。一般用法：
+ *
+ * <pre>
+ * <code>
+ *     MPackIndex index = MPackIndex.load(dataFile); // 或者 MPackIndex.build(dataFile).save(dataFile);
+ *     MUnpacker unpacker = index.newUnpacker(dataFile, 1000000);
+ *     while(unpacker.hasNext()) {
+ *         Object record = unpacker.unpack();
+ *         // ...
+ *     }
+ * </code>
+ * </pre>
+ *
+ * 保存时在索引中记录数据指纹（已索引数据开头和末尾各{@value #FINGERPRINT_BLOCK}字节的CRC32），加载时校验，
+ * 数据文件被改写（即使长度不变）会被发现；在已索引的数据之后追加写入不影响指纹，可以加载后继续{@link #append(MUnpacker)}。
+ *
+ * @author fangss
+ *
+ */
+public class MPackIndex {
+	/** 索引文件名后缀 */
+	public static final String INDEX_FILE_SUFFIX = ".idx";
+
+	private static final int FORMAT_VERSION = 1;
+
+	/** 指纹覆盖的数据开头和末尾的字节数 */
+	public static final int FINGERPRINT_BLOCK = 4096;
+	/** 没有指纹，如索引不是由{@link #save(File)}保存的 */
+	private static final long NO_FINGERPRINT = -1;
+
+	private static final int BLOCK_SHIFT = 6;
+	/** 每块包含的值个数 */
+	public static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	/** 顶级值个数 */
+	private long valueCount;
+	/** 最后一个值的结束偏移，即已被索引的数据长度 */
+	private long endOffset;
+	/** 最后一个被索引的值的起始偏移 */
+	private long lastOffset;
+	/** 已索引数据的指纹，见{@link #fingerprintOf(File, long)} */
+	private long fingerprint = NO_FINGERPRINT;
+
+	/** 每块第一个值的绝对偏移 */
+	private long[] blockOffsets;
+	/** 每块的差值在{@link #deltas}中的起始位置 */
+	private int[] blockPositions;
+	/** 变长编码的差值 */
+	private byte[] deltas;
+	private int deltaLength;
+
+	public MPackIndex() {
+		blockOffsets = new long[16];
+		blockPositions = new int[16];
+		deltas = new byte[256];
+	}
+
+	/** 索引从流的当前位置开始的所有顶级值，直到流尾 */
+	public static MPackIndex build(MUnpacker unpacker) throws IOException {
+		MPackIndex index = new MPackIndex();
+		index.append(unpacker);
+		return index;
+	}
+
+	public static MPackIndex build(File dataFile) throws IOException {
+		MUnpacker unpacker = new MUnpacker(new BufferedInputStream(new FileInputStream(dataFile), 64 * 1024));
+		try {
+			return build(unpacker);
+		} finally {
+			unpacker.close();
+		}
+	}
+
+	/** 数据文件对应的索引文件 */
+	public static File indexFileOf(File dataFile) {
+		return new File(dataFile.getPath() + INDEX_FILE_SUFFIX);
+	}
+
+	/**
+	 * 加载数据文件旁边的索引
+	 *
+	 * @throws MPackException
+	 *           数据文件比索引记录的长度短，或者已索引部分的指纹不符，索引已经过期
+	 */
+	public static MPackIndex load(File dataFile) throws IOException {
+		MUnpacker unpacker = new MUnpacker(new BufferedInputStream(new FileInputStream(indexFileOf(dataFile))));
+		MPackIndex index;
+		try {
+			index = readFrom(unpacker);
+		} finally {
+			unpacker.close();
+		}
+		if (dataFile.length() < index.endOffset) {
+			throw new MPackException(String.format("stale index: data length %,d is less than the indexed length %,d",
+					dataFile.length(), index.endOffset));
+		}
+		if (index.fingerprint != NO_FINGERPRINT && index.fingerprint != fingerprintOf(dataFile, index.endOffset)) {
+			throw new MPackException(String.format("stale index: the first %,d bytes of data have been rewritten",
+					index.endOffset));
+		}
+		return index;
+	}
+
+	/** 保存到数据文件旁边，同时记录已索引数据的指纹 */
+	public MPackIndex save(File dataFile) throws IOException {
+		fingerprint = fingerprintOf(dataFile, endOffset);
+		MPacker packer = new MPacker(new BufferedOutputStream(new FileOutputStream(indexFileOf(dataFile))));
+		try {
+			writeTo(packer);
+		} finally {
+			packer.close();
+		}
+		return this;
+	}
+
+	/**
+	 * 数据前length字节的指纹：长度不超过2*{@value #FINGERPRINT_BLOCK}时是全部字节的CRC32，否则是开头和末尾各{@value #FINGERPRINT_BLOCK}字节的CRC32
+	 */
+	static long fingerprintOf(File dataFile, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+		try {
+			byte[] buf = new byte[(int) Math.min(length, FINGERPRINT_BLOCK * 2)];
+			if (length <= FINGERPRINT_BLOCK * 2) {
+				file.readFully(buf);
+			} else {
+				file.readFully(buf, 0, FINGERPRINT_BLOCK);
+				file.seek(length - FINGERPRINT_BLOCK);
+				file.readFully(buf, FINGERPRINT_BLOCK, FINGERPRINT_BLOCK);
+			}
+			crc.update(buf, 0, buf.length);
+		} finally {
+			file.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * 追加索引从流的当前位置开始的所有顶级值，流的读取偏移需与已索引的数据衔接，如数据文件追加写入后，从{@link #getEndOffset()}处继续索引
+	 */
+	public MPackIndex append(MUnpacker unpacker) throws IOException {
+		while (unpacker.hasNext()) {
+			add(unpacker.getReadPosition());
+			unpacker.skipValue();
+		}
+		endOffset = Math.max(endOffset, unpacker.getReadPosition());
+		return this;
+	}
+
+	/**
+	 * 添加下一个顶级值的起始偏移
+	 *
+	 * @param offset
+	 *          必须大于上一个值的偏移
+	 */
+	public void add(long offset) {
+		if (valueCount > 0 && offset <= lastOffset) {
+			throw new IllegalArgumentException(String.format("offset must be increasing: %,d after %,d", offset,
+					lastOffset));
+		}
+		if ((valueCount & BLOCK_MASK) == 0) {
+			int block = (int) (valueCount >>> BLOCK_SHIFT);
+			if (block == blockOffsets.length) {
+				blockOffsets = Arrays.copyOf(blockOffsets, block << 1);
+				blockPositions = Arrays.copyOf(blockPositions, block << 1);
+			}
+			blockOffsets[block] = offset;
+			blockPositions[block] = deltaLength;
+		} else {
+			writeDelta(offset - lastOffset);
+		}
+		lastOffset = offset;
+		valueCount++;
+	}
+
+	private void writeDelta(long delta) {
+		if (deltaLength + Varint.MAX_BYTES > deltas.length) {
+			deltas = Arrays.copyOf(deltas, Math.max(deltas.length << 1, deltaLength + Varint.MAX_BYTES));
+		}
+		deltaLength = Varint.write(delta, deltas, deltaLength);
+	}
+
+	/** 顶级值个数 */
+	public long size() {
+		return valueCount;
+	}
+
+	/** 已被索引的数据长度 */
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	/**
+	 * 第n个顶级值（从0开始）的起始偏移
+	 *
+	 * @throws IndexOutOfBoundsException
+	 */
+	public long offsetOf(long n) {
+		if (n < 0 || n >= valueCount) {
+			throw new IndexOutOfBoundsException("value index: " + n + ", size: " + valueCount);
+		}
+		int block = (int) (n >>> BLOCK_SHIFT);
+		long offset = blockOffsets[block];
+		ByteBuffer buf = ByteBuffer.wrap(deltas, blockPositions[block], deltaLength - blockPositions[block]);
+		for (int k = (int) (n & BLOCK_MASK); k > 0; k--) {
+			offset += Varint.read(buf);
+		}
+		return offset;
+	}
+
+	/**
+	 * 二分查找包含给定偏移的顶级值，即起始偏移不大于offset的最后一个值
+	 *
+	 * @return 值的序号，offset在第一个值之前返回-1
+	 */
+	public long indexOf(long offset) {
+		if (valueCount == 0 || offset < blockOffsets[0]) {
+			return -1;
+		}
+		int low = 0, high = (int) ((valueCount - 1) >>> BLOCK_SHIFT);
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (blockOffsets[mid] <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		long n = (long) low << BLOCK_SHIFT;
+		long last = Math.min(n + BLOCK_SIZE, valueCount);
+		long current = blockOffsets[low];
+		ByteBuffer buf = ByteBuffer.wrap(deltas, blockPositions[low], deltaLength - blockPositions[low]);
+		while (n + 1 < last) {
+			long delta = Varint.read(buf);
+			if (current + delta > offset)
+				break;
+			current += delta;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * 将解包器向前移动到第n个顶级值的起始处，解包器需位于值的边界且尚未越过目标值
+	 *
+	 * @throws IllegalArgumentException
+	 *           目标值在解包器当前位置之前，流无法后退，请使用{@link #newUnpacker(File, long)}
+	 */
+	public MUnpacker seek(MUnpacker unpacker, long n) throws IOException {
+		long target = offsetOf(n);
+		long current = unpacker.getReadPosition();
+		if (target < current) {
+			throw new IllegalArgumentException(String.format("cannot seek backward from %,d to %,d", current, target));
+		}
+		unpacker.skipFully(target - current);
+		return unpacker;
+	}
+
+	/**
+	 * 打开数据文件并直接定位到第n个顶级值，返回的解包器由调用者关闭
+	 */
+	public MUnpacker newUnpacker(File dataFile, long n) throws IOException {
+		long offset = offsetOf(n);
+		FileInputStream in = new FileInputStream(dataFile);
+		try {
+			in.getChannel().position(offset);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		return new MUnpacker(new BufferedInputStream(in, 64 * 1024), offset);
+	}
+
+	/**
+	 * 格式：[version, valueCount, endOffset, [blockOffset...], deltas(bin), fingerprint?]，块在差值中的起始位置在读取时重新计算，
+	 * 没有指纹时省略最后一项
+	 */
+	public void writeTo(MPacker packer) throws IOException {
+		int blockCount = (int) ((valueCount + BLOCK_MASK) >>> BLOCK_SHIFT);
+		packer.packArrayHeader(fingerprint == NO_FINGERPRINT ? 5 : 6);
+		packer.packInt(FORMAT_VERSION);
+		packer.packLong(valueCount);
+		packer.packLong(endOffset);
+		packer.packArrayHeader(blockCount);
+		for (int i = 0; i < blockCount; i++) {
+			packer.packLong(blockOffsets[i]);
+		}
+		packer.packBinaryHeader(deltaLength);
+		packer.write(deltas, 0, deltaLength);
+		if (fingerprint != NO_FINGERPRINT) {
+			packer.packLong(fingerprint);
+		}
+	}
+
+	public static MPackIndex readFrom(MUnpacker unpacker) throws IOException {
+		int fieldCount = unpacker.unpackArrayHeader();
+		int version = unpacker.unpackInt();
+		if (fieldCount < 5 || version != FORMAT_VERSION) {
+			throw new MPackFormatException("unsupported index format version: " + version);
+		}
+		MPackIndex index = new MPackIndex();
+		index.valueCount = unpacker.unpackLong();
+		index.endOffset = unpacker.unpackLong();
+		int blockCount = unpacker.unpackArrayHeader();
+		index.blockOffsets = new long[Math.max(blockCount, 1)];
+		index.blockPositions = new int[Math.max(blockCount, 1)];
+		for (int i = 0; i < blockCount; i++) {
+			index.blockOffsets[i] = unpacker.unpackLong();
+		}
+		index.deltaLength = unpacker.unpackBinaryHeader();
+		index.deltas = unpacker.readPayload(index.deltaLength);
+		if (blockCount != (int) ((index.valueCount + BLOCK_MASK) >>> BLOCK_SHIFT)) {
+			throw new MPackFormatException("corrupted index: " + blockCount + " blocks for " + index.valueCount + " values");
+		}
+		// 每个完整的块有BLOCK_SIZE-1个差值，最后一块的末尾即最后一个值的偏移
+		ByteBuffer buf = ByteBuffer.wrap(index.deltas);
+		try {
+			for (int i = 0; i < blockCount; i++) {
+				index.blockPositions[i] = buf.position();
+				long offset = index.blockOffsets[i];
+				long last = Math.min(((long) i << BLOCK_SHIFT) + BLOCK_SIZE, index.valueCount);
+				for (long n = ((long) i << BLOCK_SHIFT) + 1; n < last; n++) {
+					offset += Varint.read(buf);
+				}
+				index.lastOffset = offset;
+			}
+		} catch (BufferUnderflowException e) {
+			throw new MPackFormatException("corrupted index: deltas truncated at " + buf.position());
+		}
+		fieldCount -= 5;
+		if (fieldCount > 0) {
+			index.fingerprint = unpacker.unpackLong();
+			fieldCount--;
+		}
+		if (fieldCount > 0) {
+			unpacker.skipValue(fieldCount);
+		}
+		return index;
+	}
+}
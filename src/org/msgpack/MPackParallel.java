@@ -0,0 +1,272 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于{@link ForkJoinPool}的并行编解码。MessagePack的值首尾相接、互不依赖，大数组的元素可以分段独立处理。
+ * <p/>
+ * 解码：先用{@link MUnpacker#skipValue()}只跳不解地扫描一遍得到每个元素的边界，再把元素区间分给多个任务，每个任务用自己的解包器解码缓冲区的一个切片，
+ * 结果按序写入同一个数组。只适用于内存中的缓冲区（堆内数组、直接缓冲区或内存映射文件），流无法切片。
+ * <p/>
+ * 编码：元素分块，每块由一个任务用{@link MPacker#pack(Object)}编码到池化的缓冲区，调用线程按块的顺序把缓冲区写入目标打包器。
+ * 同时在编码的块数有上限，已经写出的缓冲区归还到池中，内存占用与并行度而不是数组大小成正比。
+ *
+ * @author fangss
+ *
+ */
+public class MPackParallel {
+	/** 数组总字节数小于这个值时直接在当前线程解码，拆分的开销不值得 */
+	private static final int MIN_PARALLEL_BYTES = 64 * 1024;
+	/** 每个线程大约分到的任务数，多分一些以平衡元素大小不均 */
+	private static final int TASKS_PER_THREAD = 4;
+	/** 元素个数小于这个值时直接在当前线程编码 */
+	private static final int MIN_PARALLEL_ELEMENTS = 1024;
+	/** 超过这个容量的缓冲区用完即丢弃，不放回池中 */
+	private static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 64;
+
+	private static final ConcurrentLinkedQueue<BytesOutputStream> bufferPool = new ConcurrentLinkedQueue<BytesOutputStream>();
+	private static final AtomicInteger pooledBufferCount = new AtomicInteger();
+
+	/**
+	 * 并行解码缓冲区中的下一个数组，结束后缓冲区的position位于数组之后
+	 *
+	 * @param buffer
+	 * @param options
+	 *          {@link MUnpacker#setOptions(int)}
+	 * @return
+	 * @throws IOException
+	 */
+	public static Object[] unpackArray(ByteBuffer buffer, int options) throws IOException {
+		return unpackArray(buffer, options, ForkJoinPool.commonPool());
+	}
+
+	public static Object[] unpackArray(ByteBuffer buffer, int options, ForkJoinPool pool) throws IOException {
+		MUnpacker unpacker = new MUnpacker(new ByteBufferInputStream(buffer)).setOptions(options);
+		Object[] array = unpackArray(unpacker, pool);
+		buffer.position(buffer.position() + (int) unpacker.getReadPosition());
+		return array;
+	}
+
+	/**
+	 * 并行解码解包器的下一个数组。解包器的数据源不是{@link ByteBufferInputStream}或者设置了{@link StringDictionary}时退化为{@link MUnpacker#unpackArray()}。
+	 *
+	 * @param unpacker
+	 *          各任务的解包器使用它的设置
+	 * @param pool
+	 * @return
+	 * @throws IOException
+	 */
+	public static Object[] unpackArray(MUnpacker unpacker, ForkJoinPool pool) throws IOException {
+		if (!(unpacker.getInput() instanceof ByteBufferInputStream) || null != unpacker.getStringDictionary()) {
+			return unpacker.unpackArray();
+		}
+		ByteBuffer source = ((ByteBufferInputStream) unpacker.getInput()).buffer();
+		int size = unpacker.unpackArrayHeader();
+		if (size > source.remaining()) {
+			// 每个元素至少一个字节，头部给出的大小不可信，不能按它分配边界数组
+			throw new MPackFormatException(String.format("array of %d elements in %d remaining bytes", size,
+					source.remaining()));
+		}
+		// 头部已消耗，没有缓存的字节，缓冲区位置与读取偏移一一对应
+		long base = source.position() - unpacker.getReadPosition();
+		int[] bounds = new int[size + 1];
+		for (int i = 0; i < size; i++) {
+			bounds[i] = (int) (unpacker.getReadPosition() + base);
+			unpacker.skipValue();
+		}
+		bounds[size] = (int) (unpacker.getReadPosition() + base);
+
+		Object[] array = new Object[size];
+		DecodeTask task = new DecodeTask(unpacker, source, bounds, array, 0, size, Math.max(1, size
+				/ (pool.getParallelism() * TASKS_PER_THREAD)));
+		try {
+			if (bounds[size] - bounds[0] < MIN_PARALLEL_BYTES) {
+				task.decode();
+			} else {
+				pool.invoke(task);
+			}
+		} catch (MPackException e) {
+			throw ioExceptionOf(e);
+		}
+		return array;
+	}
+
+	/**
+	 * 任务中的IOException被包装成MPackException抛出。{@link java.util.concurrent.ForkJoinTask#invoke()}重新抛出其他线程中的异常时会再包装一层同类型的异常，
+	 * 所以沿cause链找回原始的IOException，找不到时抛出e
+	 */
+	private static IOException ioExceptionOf(MPackException e) {
+		for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException) {
+				return (IOException) cause;
+			}
+		}
+		throw e;
+	}
+
+	public static MPacker packArray(MPacker packer, Object[] elements) throws IOException {
+		return packArray(packer, Arrays.asList(elements), ForkJoinPool.commonPool());
+	}
+
+	public static MPacker packArray(MPacker packer, List<?> elements) throws IOException {
+		return packArray(packer, elements, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * 并行编码一个数组：先写数组头，再按序写出各块元素编码后的字节，结果与逐个{@link MPacker#pack(Object)}相同
+	 *
+	 * @param packer
+	 *          目标打包器，只在调用线程中写入；各块用{@link MPacker#fork(java.io.OutputStream)}得到相同设置的打包器，设置了字符串字典时逐个打包
+	 * @param elements
+	 *          编码期间不能被修改，非{@link RandomAccess}的列表先复制为数组
+	 * @param pool
+	 * @return
+	 * @throws IOException
+	 */
+	public static MPacker packArray(MPacker packer, List<?> elements, ForkJoinPool pool) throws IOException {
+		if (!(elements instanceof RandomAccess)) {
+			elements = Arrays.asList(elements.toArray());
+		}
+		int size = elements.size();
+		packer.packArrayHeader(size);
+		int parallelism = pool.getParallelism();
+		// 字典的编号依赖打包的先后顺序，分块并行会让各块的字符串都不在字典中
+		if (size < MIN_PARALLEL_ELEMENTS || parallelism <= 1 || null != packer.getStringDictionary()) {
+			for (int i = 0; i < size; i++) {
+				packer.pack(elements.get(i));
+			}
+			return packer;
+		}
+		int chunkSize = (size + parallelism * TASKS_PER_THREAD - 1) / (parallelism * TASKS_PER_THREAD);
+		int chunkCount = (size + chunkSize - 1) / chunkSize;
+		int window = parallelism * 2;
+		List<ForkJoinTask<BytesOutputStream>> tasks = new ArrayList<ForkJoinTask<BytesOutputStream>>(chunkCount);
+		int submitted = 0;
+		try {
+			for (int c = 0; c < chunkCount; c++) {
+				for (; submitted < chunkCount && submitted <= c + window; submitted++) {
+					int from = submitted * chunkSize;
+					tasks.add(pool.submit(new EncodeTask(packer, elements, from, Math.min(from + chunkSize, size))));
+				}
+				BytesOutputStream chunk = tasks.get(c).join();
+				tasks.set(c, null);
+				chunk.writeTo(packer);
+				releaseBuffer(chunk);
+			}
+		} catch (MPackException e) {
+			throw ioExceptionOf(e);
+		} finally {
+			for (ForkJoinTask<BytesOutputStream> task : tasks) {
+				if (null != task) {
+					task.cancel(false);
+				}
+			}
+		}
+		return packer;
+	}
+
+	private static BytesOutputStream acquireBuffer() {
+		BytesOutputStream buffer = bufferPool.poll();
+		if (null != buffer) {
+			pooledBufferCount.decrementAndGet();
+			return buffer;
+		}
+		return new BytesOutputStream(8192);
+	}
+
+	private static void releaseBuffer(BytesOutputStream buffer) {
+		if (buffer.buffer().length <= MAX_POOLED_BUFFER_SIZE && pooledBufferCount.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			buffer.reset();
+			bufferPool.offer(buffer);
+		} else {
+			pooledBufferCount.decrementAndGet();
+		}
+	}
+
+	/** 编码元素区间[from, to)到一个池化的缓冲区 */
+	@SuppressWarnings("serial")
+	private static class EncodeTask extends RecursiveTask<BytesOutputStream> {
+		/** 只用于{@link MPacker#fork(java.io.OutputStream)}出相同设置的打包器 */
+		final MPacker template;
+		final List<?> elements;
+		final int from, to;
+
+		EncodeTask(MPacker template, List<?> elements, int from, int to) {
+			this.template = template;
+			this.elements = elements;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected BytesOutputStream compute() {
+			BytesOutputStream buffer = acquireBuffer();
+			MPacker packer = template.fork(buffer);
+			try {
+				for (int i = from; i < to; i++) {
+					packer.pack(elements.get(i));
+				}
+			} catch (IOException e) {
+				throw new MPackException(e);
+			}
+			return buffer;
+		}
+	}
+
+	/** 解码元素区间[from, to)，结果写入array的对应位置 */
+	@SuppressWarnings("serial")
+	private static class DecodeTask extends RecursiveAction {
+		/** 只用于{@link MUnpacker#fork(java.io.InputStream)}出相同设置的解包器 */
+		final MUnpacker template;
+		final ByteBuffer source;
+		final int[] bounds;
+		final Object[] array;
+		final int from, to, threshold;
+
+		DecodeTask(MUnpacker template, ByteBuffer source, int[] bounds, Object[] array, int from, int to, int threshold) {
+			this.template = template;
+			this.source = source;
+			this.bounds = bounds;
+			this.array = array;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				try {
+					decode();
+				} catch (IOException e) {
+					throw new MPackException(e);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new DecodeTask(template, source, bounds, array, from, mid, threshold), new DecodeTask(template,
+						source, bounds, array, mid, to, threshold));
+			}
+		}
+
+		void decode() throws IOException {
+			ByteBuffer slice = source.duplicate();
+			slice.limit(bounds[to]).position(bounds[from]);
+			MUnpacker unpacker = template.fork(new ByteBufferInputStream(slice));
+			for (int i = from; i < to; i++) {
+				array[i] = unpacker.unpack();
+			}
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把首尾相接的MessagePack值（流或通道）发布为{@link Flow.Publisher}，支持背压：只解码订阅者请求了的那么多个值，内存占用取决于请求量而不是输入大小。
+ * <p/>
+ * 输入只能读一遍，所以只接受一个订阅者，之后的订阅者收到{@link IllegalStateException}。解码（阻塞读取）在给定的{@link Executor}上进行，
+ * 同一时刻只有一个线程在解码和调用订阅者。读取会阻塞线程，不要用{@link java.util.concurrent.ForkJoinPool#commonPool()}这类计算用的线程池。结束、出错或取消时关闭解包器。
+ *
+ * <pre>
+ * new MPackPublisher(new FileInputStream(file), Executors.newSingleThreadExecutor()).subscribe(subscriber);
+ * </pre>
+ *
+ * @author fangss
+ *
+ */
+public class MPackPublisher implements Flow.Publisher<Object> {
+	private final MUnpacker unpacker;
+	private final Executor executor;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	public MPackPublisher(InputStream in, Executor executor) {
+		this(new MUnpacker(in), executor);
+	}
+
+	public MPackPublisher(ReadableByteChannel channel, Executor executor) {
+		this(new MUnpacker(Channels.newInputStream(channel)), executor);
+	}
+
+	/**
+	 * @param unpacker
+	 *          值用{@link MUnpacker#unpack()}解码，按它的设置（选项等）
+	 * @param executor
+	 *          解码和通知订阅者的线程，会阻塞在读取上
+	 */
+	public MPackPublisher(MUnpacker unpacker, Executor executor) {
+		this.unpacker = unpacker;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Object> subscriber) {
+		if (null == subscriber) {
+			throw new NullPointerException("subscriber");
+		}
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("the input can be subscribed only once"));
+			return;
+		}
+		new ValueSubscription(subscriber).start();
+	}
+
+	private class ValueSubscription implements Flow.Subscription, Runnable {
+		private final Flow.Subscriber<? super Object> subscriber;
+		/** 还没有满足的请求数，饱和于Long.MAX_VALUE */
+		private final AtomicLong demand = new AtomicLong();
+		/** 排队的drain次数，大于0表示已经有线程在drain */
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean cancelled;
+		/** request的参数不合法（n <= 0，包括0），在drain中通知 */
+		private volatile IllegalArgumentException badRequest;
+		private boolean done;
+
+		ValueSubscription(Flow.Subscriber<? super Object> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		void start() {
+			try {
+				subscriber.onSubscribe(this);
+			} catch (Throwable e) {
+				cancelled = true;
+				closeQuietly();
+				subscriber.onError(e);
+			}
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				badRequest = new IllegalArgumentException("non-positive request: " + n);
+			} else {
+				long current, next;
+				do {
+					current = demand.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!demand.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+
+		private void schedule() {
+			if (0 == wip.getAndIncrement()) {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while (0 != missed);
+		}
+
+		private void drain() {
+			if (done) {
+				return;
+			}
+			if (cancelled) {
+				finish();
+				return;
+			}
+			if (null != badRequest) {
+				finish();
+				subscriber.onError(badRequest);
+				return;
+			}
+			try {
+				while (demand.get() > 0 && !cancelled) {
+					if (!unpacker.hasNext()) {
+						finish();
+						subscriber.onComplete();
+						return;
+					}
+					Object value = unpacker.unpack();
+					if (Long.MAX_VALUE != demand.get()) {
+						demand.decrementAndGet();
+					}
+					subscriber.onNext(value);
+				}
+			} catch (Throwable e) {
+				finish();
+				subscriber.onError(e);
+				return;
+			}
+			if (cancelled) {
+				finish();
+			}
+		}
+
+		private void finish() {
+			done = true;
+			closeQuietly();
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			unpacker.close();
+		} catch (IOException e) {
+			// 已经结束，忽略
+		}
+	}
+}
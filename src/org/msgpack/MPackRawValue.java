@@ -0,0 +1,115 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 一个编码后的值的原始字节，可变，可以反复指向不同的值以避免逐个值分配对象，见{@link MUnpacker#rawValues()}。
+ * 写入打包器时原样输出，不重新编码。
+ *
+ * @author fangss
+ *
+ */
+public class MPackRawValue implements MPackValue {
+	/** position到limit之间为值的字节 */
+	private ByteBuffer view;
+	/** 解码时复制它的设置，null为默认设置 */
+	private MUnpacker template;
+	/** 反复用于解码的解包器及其数据源，view换成另一个缓冲区时重建 */
+	private MUnpacker decoder;
+	private ByteBufferInputStream decoderInput;
+
+	public MPackRawValue() {
+	}
+
+	public MPackRawValue(byte[] encoded) {
+		view = ByteBuffer.wrap(encoded);
+	}
+
+	/** 指向给定缓冲区从position到limit的字节，不复制 */
+	public MPackRawValue set(ByteBuffer encoded) {
+		view = encoded;
+		decoder = null;
+		return this;
+	}
+
+	/**
+	 * 解码时使用给定解包器的设置（选项等），见{@link MUnpacker#fork(java.io.InputStream)}。{@link MUnpacker#rawValues()}给出的值已设置为源解包器
+	 *
+	 * @param template
+	 *          可以为null，表示默认设置
+	 * @return
+	 */
+	public MPackRawValue setTemplate(MUnpacker template) {
+		this.template = template;
+		decoder = null;
+		return this;
+	}
+
+	/**
+	 * 值的字节，position到limit之间，调用者不应修改
+	 *
+	 * @return
+	 */
+	public ByteBuffer buffer() {
+		return view;
+	}
+
+	/** 编码后的字节数 */
+	public int size() {
+		return view.remaining();
+	}
+
+	public MPackFormat getFormat() {
+		return MPackFormat.valueOf(view.get(view.position()));
+	}
+
+	/** 按{@link #setTemplate(MUnpacker)}的设置但换成给定选项解码，见{@link MUnpacker#setOptions(int)} */
+	public Object unpack(int options) throws IOException {
+		return newUnpacker(new ByteBufferInputStream(view)).setOptions(options).unpack();
+	}
+
+	/**
+	 * 按{@link #setTemplate(MUnpacker)}的设置解码，反复指向不同的值时重用同一个解包器
+	 * 
+	 * @throws IllegalStateException
+	 *           源解包器设置了{@link StringDictionary}，单独的值不能还原字典的引用
+	 */
+	public Object unpack() throws IOException {
+		if (null == decoder) {
+			decoderInput = new ByteBufferInputStream(view);
+			decoder = newUnpacker(decoderInput);
+		}
+		decoderInput.buffer().limit(view.limit()).position(view.position());
+		boolean done = false;
+		try {
+			Object value = decoder.unpack();
+			done = true;
+			return value;
+		} finally {
+			if (!done) {
+				// 解码失败时解包器可能停在值的中间
+				decoder = null;
+			}
+		}
+	}
+
+	private MUnpacker newUnpacker(ByteBufferInputStream in) {
+		return null == template ? new MUnpacker(in) : template.fork(in);
+	}
+
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[view.remaining()];
+		view.duplicate().get(bytes);
+		return bytes;
+	}
+
+	@Override
+	public void writeTo(MPacker packer) throws IOException {
+		if (view.hasArray()) {
+			packer.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+		} else {
+			packer.write(toByteArray());
+		}
+	}
+}
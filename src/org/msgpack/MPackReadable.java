@@ -0,0 +1,12 @@
+package org.msgpack;
+
+/**
+ * 可以从解包器原地重新填充的可变对象，与{@link MPackValue}对应，见{@link MUnpacker#unpackInto(MPackReadable)}。<br>
+ * 实现读取下一个值（通常是一个数组或Map）填充自身，这个值中没有出现的字段必须重置为默认值，以便同一个实例反复用于多个消息而不残留上一个消息的内容。
+ *
+ * @author fangss
+ *
+ */
+public interface MPackReadable {
+	public void readFrom(MUnpacker unpacker) throws java.io.IOException;
+}
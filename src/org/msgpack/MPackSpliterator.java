@@ -0,0 +1,154 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * 逐个返回解包器剩余的顶级值，见{@link MUnpacker#values()}和{@link MUnpacker#rawValues()}。
+ * <p/>
+ * 数据源为{@link ByteBufferInputStream}时支持{@link #trySplit()}：MessagePack没有同步标记，只能从当前位置用{@link MUnpacker#skipValue()}
+ * 扫描到剩余字节的中点附近找到值的边界，前一半交给新的拆分器（用{@link MUnpacker#fork(InputStream)}得到相同设置的解包器），自己跳到边界继续。
+ * 扫描只跳不解，比解码快得多。普通流和设置了{@link StringDictionary}的解包器（引用依赖之前的字符串）不可拆分。
+ *
+ * @author fangss
+ *
+ * @param <T>
+ *          {@link Object}或者{@link MPackRawValue}
+ */
+public class MPackSpliterator<T> implements Spliterator<T> {
+	/** 剩余字节少于这个值时不再拆分 */
+	private static final int MIN_SPLIT_BYTES = 16 * 1024;
+
+	private final MUnpacker unpacker;
+	/** 非空表示返回原始字节而不解码，每次都是这同一个实例 */
+	private final MPackRawValue holder;
+	/** 流作为数据源时保存值的原始字节 */
+	private BytesOutputStream holderBytes;
+
+	/** 缓冲区数据源，null表示不可拆分 */
+	private final ByteBuffer source;
+	/** 缓冲区位置 = 内部流读取偏移 + base */
+	private final long base;
+	private final int end;
+
+	private MPackSpliterator(MUnpacker unpacker, boolean raw) {
+		this.unpacker = unpacker;
+		InputStream in = unpacker.getInput();
+		if (in instanceof ByteBufferInputStream) {
+			source = ((ByteBufferInputStream) in).buffer();
+			base = source.position() - unpacker.getStreamPosition();
+			end = source.limit();
+		} else {
+			source = null;
+			base = 0;
+			end = 0;
+		}
+		if (raw) {
+			holder = new MPackRawValue().setTemplate(unpacker);
+			if (null != source) {
+				holder.set(source.duplicate());
+			} else {
+				holderBytes = new BytesOutputStream(256);
+			}
+		} else {
+			holder = null;
+		}
+	}
+
+	/** 每个值由{@link MUnpacker#unpack()}得到 */
+	public static Spliterator<Object> values(MUnpacker unpacker) {
+		return new MPackSpliterator<Object>(unpacker, false);
+	}
+
+	/** 每个值是同一个{@link MPackRawValue}实例，只在处理当前元素期间有效 */
+	public static Spliterator<MPackRawValue> rawValues(MUnpacker unpacker) {
+		return new MPackSpliterator<MPackRawValue>(unpacker, true);
+	}
+
+	/** 下一个值在缓冲区中的位置 */
+	private int position() {
+		return (int) (unpacker.getReadPosition() + base);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		try {
+			if (!unpacker.hasNext()) {
+				return false;
+			}
+			if (null == holder) {
+				action.accept((T) unpacker.unpack());
+				return true;
+			}
+			if (null != source) {
+				int start = position();
+				unpacker.skipValue();
+				ByteBuffer view = holder.buffer();
+				view.limit(position());
+				view.position(start);
+			} else {
+				holderBytes.reset();
+				unpacker.copyValue(holderBytes);
+				ByteBuffer view = holder.buffer();
+				if (null == view || view.array() != holderBytes.buffer()) {
+					holder.set(view = ByteBuffer.wrap(holderBytes.buffer()));
+				}
+				view.limit(holderBytes.size());
+				view.position(0);
+			}
+			action.accept((T) holder);
+			return true;
+		} catch (IOException e) {
+			throw new MPackException(e);
+		}
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		if (null == source || null != unpacker.getStringDictionary()) {
+			return null;
+		}
+		int start = position();
+		if (end - start < MIN_SPLIT_BYTES) {
+			return null;
+		}
+		int mid = start + ((end - start) >>> 1);
+		ByteBuffer scan = source.duplicate();
+		scan.limit(end).position(start);
+		MUnpacker scanner = new MUnpacker(new ByteBufferInputStream(scan), start);
+		int boundary = start;
+		try {
+			while (boundary < mid) {
+				scanner.skipValue();
+				boundary = (int) scanner.getReadPosition();
+			}
+			if (boundary >= end) {
+				return null;
+			}
+			ByteBuffer prefix = source.duplicate();
+			prefix.limit(boundary).position(start);
+			MPackSpliterator<T> split = new MPackSpliterator<T>(unpacker.fork(new ByteBufferInputStream(prefix)),
+					null != holder);
+			unpacker.skipFully(boundary - start);
+			return split;
+		} catch (IOException e) {
+			// 截断或损坏的数据留给tryAdvance报告
+			return null;
+		}
+	}
+
+	/** 缓冲区数据源时为剩余字节数，每个值至少一个字节，是值个数的上限 */
+	@Override
+	public long estimateSize() {
+		return null != source ? end - position() : Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return null != holder ? ORDERED | NONNULL : ORDERED;
+	}
+}
@@ -0,0 +1,99 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * 把收到的对象用{@link MPacker#pack(Object)}逐个打包的{@link Flow.Subscriber}。每次请求一批，一批打包完才{@link MPacker#flush()}
+ * 并请求下一批，而不是每个对象都冲刷一次；上游因此也不会快于写出的速度。
+ * <p/>
+ * 上游完成时冲刷，{@link #getCompletion()}给出打包的对象个数；上游出错或者打包出错（此时取消订阅）时它以该异常完成。打包器由调用者关闭。
+ *
+ * @author fangss
+ *
+ */
+public class MPackSubscriber implements Flow.Subscriber<Object> {
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private final MPacker packer;
+	private final int batchSize;
+	private final CompletableFuture<Long> completion = new CompletableFuture<Long>();
+
+	private Flow.Subscription subscription;
+	/** 本批还没有收到的个数 */
+	private int pending;
+	private long count;
+
+	public MPackSubscriber(MPacker packer) {
+		this(packer, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param packer
+	 * @param batchSize
+	 *          每批请求的个数，也是冲刷的间隔
+	 */
+	public MPackSubscriber(MPacker packer, int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("batch size must be > 0: " + batchSize);
+		}
+		this.packer = packer;
+		this.batchSize = batchSize;
+	}
+
+	/** 上游完成后以打包的对象个数完成 */
+	public CompletableFuture<Long> getCompletion() {
+		return completion;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (null != this.subscription) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		pending = batchSize;
+		subscription.request(batchSize);
+	}
+
+	@Override
+	public void onNext(Object item) {
+		if (completion.isDone()) {
+			return;
+		}
+		try {
+			packer.pack(item);
+			count++;
+			if (0 == --pending) {
+				packer.flush();
+				pending = batchSize;
+				subscription.request(batchSize);
+			}
+		} catch (IOException e) {
+			subscription.cancel();
+			completion.completeExceptionally(e);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		try {
+			packer.flush();
+		} catch (IOException e) {
+			throwable.addSuppressed(e);
+		}
+		completion.completeExceptionally(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		try {
+			packer.flush();
+			completion.complete(count);
+		} catch (IOException e) {
+			completion.completeExceptionally(e);
+		}
+	}
+}
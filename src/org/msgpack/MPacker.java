@@ -1,12 +1,24 @@
 package org.msgpack;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.security.DigestOutputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 只是对写入（pack开头的方法）的数据进行中间编码控制，类似于{@link DigestOutputStream}；<br>
@@ -46,6 +58,21 @@ import java.security.DigestOutputStream;
  * @see <a href="https://github.com/msgpack/msgpack-java">msgpack-java</a>
  */
 public class MPacker extends FilterOutputStream {
+	/**
+	 * 浮点数用能无损表示它的最小格式：整数值（-0.0除外）用整数格式，float能精确表示的用FLOAT32，否则FLOAT64。解包时整数格式的值仍可用
+	 * {@link MUnpacker#unpackDouble()}读取，但{@link MUnpacker#unpack()}得到的是整数
+	 */
+	public static final int OPT_COMPACT_FLOAT = 0x00000001;
+	/**
+	 * 规范编码：逻辑上相等的值总是得到相同的字节，可以直接对编码结果做哈希去重或缓存。{@link #pack(Object)}中Map的键和Set的元素按编码后的字节（无符号）排序，
+	 * 编码后相同的键是错误；NaN都写为同一个NaN。整数和各种长度总是用最小的格式（这在任何模式下都成立）。浮点数的宽度可再由{@link #OPT_COMPACT_FLOAT}或
+	 * {@link #OPT_FLOAT_AS_DOUBLE}统一。不能与{@link #setStringDictionary(StringDictionary)}同时使用
+	 */
+	public static final int OPT_CANONICAL = 0x00000002;
+	/** float也写为FLOAT64，使同一个值的Float和Double编码相同 */
+	public static final int OPT_FLOAT_AS_DOUBLE = 0x00000004;
+
+	private static final int SCRATCH_SIZE = 8192;
 
 	/**
 	 * 对于已知不超过10字节大小数据写入的缓冲区，如整数，布尔值串等，以便一次写入内部流
@@ -55,6 +82,15 @@ public class MPacker extends FilterOutputStream {
 	protected ByteBuffer byteBuffer;
 	/** 统计已经编码的顶级值数量 */
 	protected int valueCount;
+	private int options;
+	private ExtensionRegistry extensionRegistry;
+	private StringDictionary stringDictionary;
+	private byte typedArrayType = TypedArray.DEFAULT_EXT_TYPE;
+	/** 分段编码字符串、基本类型数组的缓冲区，第一次用到时才分配，见{@link #packString(CharSequence)} */
+	private byte[] scratch;
+	/** 规范编码时预先编码的Map键或Set元素，按嵌套深度各一个，反复使用 */
+	private SortedEncodings[] sortBuffers;
+	private int sortDepth;
 	/** 初始和最后打包完，应该为0，否则嵌套错误 */
 	protected int childCount;
 	protected int binarySize;
@@ -68,10 +104,110 @@ public class MPacker extends FilterOutputStream {
 		return out;
 	}
 
+	public int getOptions() {
+		return options;
+	}
+
+	/**
+	 * @param options
+	 *          如{@link #OPT_COMPACT_FLOAT}
+	 * @return
+	 */
+	public MPacker setOptions(int options) {
+		this.options = options;
+		return this;
+	}
+
+	/**
+	 * 以相同的设置（选项和扩展类型的编解码器）创建写入另一个流的打包器，如并行编码的各个分块。字符串字典是流的状态，不复制
+	 * 
+	 * @param out
+	 * @return
+	 * @throws IllegalStateException
+	 *           设置了{@link StringDictionary}，编号依赖打包顺序，不能分流
+	 */
+	public MPacker fork(OutputStream out) {
+		if (null != stringDictionary) {
+			throw new IllegalStateException("cannot fork a packer with a string dictionary");
+		}
+		MPacker packer = new MPacker(out);
+		packer.options = options;
+		packer.extensionRegistry = extensionRegistry;
+		packer.typedArrayType = typedArrayType;
+		return packer;
+	}
+
+	/**
+	 * 设置扩展类型的编解码器，{@link #pack(Object)}把注册过的类的对象打包为对应的扩展类型
+	 * 
+	 * @param registry
+	 *          可以为null
+	 * @return
+	 * @throws IllegalStateException
+	 *           注册的类型与字符串字典的扩展类型冲突
+	 */
+	public MPacker setExtensionRegistry(ExtensionRegistry registry) {
+		StringDictionary.checkTypes(stringDictionary, registry, typedArrayType);
+		extensionRegistry = registry;
+		return this;
+	}
+
+	public ExtensionRegistry getExtensionRegistry() {
+		return extensionRegistry;
+	}
+
+	/**
+	 * 设置后重复的字符串打包为字典中的编号，解码方必须设置同样配置的字典，见{@link StringDictionary}
+	 * 
+	 * @param dictionary
+	 *          可以为null，编码方独用
+	 * @return
+	 * @throws IllegalStateException
+	 *           字典的扩展类型已经注册了编解码器，或者与{@link #setTypedArrayType(byte)}相同
+	 */
+	public MPacker setStringDictionary(StringDictionary dictionary) {
+		StringDictionary.checkTypes(dictionary, extensionRegistry, typedArrayType);
+		stringDictionary = dictionary;
+		return this;
+	}
+
+	public StringDictionary getStringDictionary() {
+		return stringDictionary;
+	}
+
+	public byte getTypedArrayType() {
+		return typedArrayType;
+	}
+
+	/**
+	 * 基本类型数组（{@link TypedArray}）打包使用的扩展类型
+	 * 
+	 * @param type
+	 *          默认{@link TypedArray#DEFAULT_EXT_TYPE}，与应用的扩展类型冲突时改为别的值，解码方要设置同样的值
+	 * @return
+	 */
+	public MPacker setTypedArrayType(byte type) {
+		StringDictionary.checkTypes(stringDictionary, extensionRegistry, type);
+		typedArrayType = type;
+		return this;
+	}
+
+	/** 打包基本类型数组时检查扩展类型没有被注册为别的编解码器 */
+	byte typedArrayType() {
+		ExtensionRegistry.checkReserved(extensionRegistry, typedArrayType, TypedArrayCodec.class, "typed arrays");
+		return typedArrayType;
+	}
+
 	public void write(ByteBuffer byteBuffer) throws IOException {
 		write(byteBuffer.array(), 0, byteBuffer.limit());
 	}
 
+	/** {@link FilterOutputStream}默认逐字节写入内部流，这里整块写入 */
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+
 	/**
 	 * <h1>what can a single byte represent?</h1>
 	 * <ul>
@@ -124,6 +260,42 @@ public class MPacker extends FilterOutputStream {
 		write(b);
 	}
 
+	/** 写入大端的2字节，与{@link #writeByte(byte)}等一样用于写入扩展类型等的负载，见{@link ExtensionCodec} */
+	public void writeShort(short v) throws IOException {
+		byteBuffer.limit(2);
+		write(byteBuffer.putShort(0, v));
+	}
+
+	public void writeInt(int v) throws IOException {
+		byteBuffer.limit(4);
+		write(byteBuffer.putInt(0, v));
+	}
+
+	public void writeLong(long v) throws IOException {
+		byteBuffer.limit(8);
+		write(byteBuffer.putLong(0, v));
+	}
+
+	/**
+	 * 写入v的低n个字节，大端
+	 * 
+	 * @param n
+	 *          1到8
+	 */
+	public void writeBytesOf(long v, int n) throws IOException {
+		byteBuffer.limit(8);
+		byteBuffer.putLong(0, v << ((8 - n) << 3)).limit(n);
+		write(byteBuffer);
+	}
+
+	public void writeFloat(float v) throws IOException {
+		writeInt(Float.floatToRawIntBits(v));
+	}
+
+	public void writeDouble(double v) throws IOException {
+		writeLong(Double.doubleToRawLongBits(v));
+	}
+
 	// Number family: code+value; String, Binary, Array, Map family: code+length
 
 	private void writeByteAndByte(byte b, byte v) throws IOException {
@@ -218,6 +390,9 @@ public class MPacker extends FilterOutputStream {
 	 * @throws IOException
 	 */
 	public MPacker packString(String s) throws IOException {
+		if (null != stringDictionary) {
+			return packDictionaryString(stringDictionary, s);
+		}
 		if (s.length() > 0) {
 			// TODO encoding error?
 			byte[] bs = s.getBytes("UTF-8");
@@ -228,6 +403,235 @@ public class MPacker extends FilterOutputStream {
 		return packRawStringHeader(0);
 	}
 
+	/**
+	 * 直接从字符序列（如{@link StringBuilder}，{@link java.nio.CharBuffer}）编码，经过一个反复使用的缓冲区分段写入，不创建String和临时字节数组
+	 * 
+	 * @param s
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packString(CharSequence s) throws IOException {
+		return packString(s, 0, s.length());
+	}
+
+	public MPacker packString(CharSequence s, int off, int len) throws IOException {
+		if (null != stringDictionary) {
+			return packDictionaryString(stringDictionary, s.subSequence(off, off + len).toString());
+		}
+		return encodeString(s, null, off, off + len);
+	}
+
+	public MPacker packString(char[] chars, int off, int len) throws IOException {
+		if (null != stringDictionary) {
+			return packDictionaryString(stringDictionary, new String(chars, off, len));
+		}
+		return encodeString(null, chars, off, off + len);
+	}
+
+	private MPacker packDictionaryString(StringDictionary dictionary, String s) throws IOException {
+		int id = dictionary.lookup(s);
+		if (id >= 0) {
+			if (id < (1 << 8)) {
+				packExtensionTypeHeader(dictionary.getRefType(), 1);
+				writeByte((byte) id);
+			} else {
+				packExtensionTypeHeader(dictionary.getRefType(), 2);
+				writeShort((short) id);
+			}
+			return this;
+		}
+		byte[] bs = s.getBytes("UTF-8");
+		if (dictionary.accepts(bs.length)) {
+			if (dictionary.resetBeforeDefine()) {
+				dictionary.define(s, true);
+				packExtensionTypeHeader(dictionary.getResetType(), bs.length);
+				write(bs, 0, bs.length);
+				return this;
+			}
+			dictionary.define(s, true);
+		}
+		packRawStringHeader(bs.length);
+		write(bs, 0, bs.length);
+		return this;
+	}
+
+	private MPacker encodeString(CharSequence s, char[] a, int off, int end) throws IOException {
+		packRawStringHeader(Utf8.encodedLength(s, a, off, end));
+		byte[] buf = scratch();
+		int maxChars = buf.length / Utf8.MAX_BYTES_PER_CHAR;
+		while (off < end) {
+			int chunkEnd = Math.min(end, off + maxChars);
+			// 不拆开代理对
+			if (chunkEnd < end && Character.isHighSurrogate(null != a ? a[chunkEnd - 1] : s.charAt(chunkEnd - 1))) {
+				chunkEnd--;
+			}
+			write(buf, 0, Utf8.encode(s, a, off, chunkEnd, buf, 0));
+			off = chunkEnd;
+		}
+		return this;
+	}
+
+	/**
+	 * 规范编码一个Map或Set：键（元素）先编码到这一层的缓冲区，按字节排序后整块写出，值按键的顺序打包
+	 */
+	private void packSorted(Map<?, ?> map, Set<?> set) throws IOException {
+		if (null != stringDictionary) {
+			throw new IllegalStateException("canonical encoding cannot use a string dictionary");
+		}
+		SortedEncodings sorted = pushSortBuffer();
+		try {
+			if (null != map) {
+				for (Map.Entry<?, ?> entry : map.entrySet()) {
+					sorted.packer.pack(entry.getKey());
+					sorted.mark(entry.getValue());
+				}
+			} else {
+				for (Object element : set) {
+					sorted.packer.pack(element);
+					sorted.mark(null);
+				}
+			}
+			sorted.sort();
+			int n = sorted.count;
+			if (null != map) {
+				packMapHeader(n);
+			} else {
+				packArrayHeader(n);
+			}
+			byte[] buf = sorted.buffer();
+			for (int i = 0; i < n; i++) {
+				int k = sorted.order[i];
+				int start = sorted.start(k);
+				write(buf, start, sorted.ends[k] - start);
+				if (null != map) {
+					pack(sorted.values[k]);
+				}
+			}
+		} finally {
+			sortDepth--;
+			sorted.clear();
+		}
+	}
+
+	private SortedEncodings pushSortBuffer() {
+		if (null == sortBuffers) {
+			sortBuffers = new SortedEncodings[4];
+		} else if (sortDepth == sortBuffers.length) {
+			sortBuffers = Arrays.copyOf(sortBuffers, sortDepth << 1);
+		}
+		SortedEncodings sorted = sortBuffers[sortDepth];
+		if (null == sorted) {
+			sortBuffers[sortDepth] = sorted = new SortedEncodings();
+		}
+		sorted.packer.options = options;
+		sorted.packer.extensionRegistry = extensionRegistry;
+		sorted.packer.typedArrayType = typedArrayType;
+		sortDepth++;
+		return sorted;
+	}
+
+	/** 连续存放的一组编码结果及其对应的值，按编码的字节排序 */
+	private static final class SortedEncodings extends ByteArrayOutputStream {
+		final MPacker packer = new MPacker(this);
+		/** 第i个编码结束的位置，下一个从这里开始 */
+		int[] ends = new int[16];
+		Object[] values = new Object[16];
+		/** 排序后的下标 */
+		int[] order = new int[16];
+		private int[] tmp;
+		int count;
+
+		SortedEncodings() {
+			super(256);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+
+		int start(int i) {
+			return 0 == i ? 0 : ends[i - 1];
+		}
+
+		/** 一个键（元素）编码完了 */
+		void mark(Object value) {
+			if (count == ends.length) {
+				ends = Arrays.copyOf(ends, count << 1);
+				values = Arrays.copyOf(values, count << 1);
+				order = new int[count << 1];
+			}
+			ends[count] = size();
+			values[count++] = value;
+		}
+
+		void sort() {
+			for (int i = 0; i < count; i++) {
+				order[i] = i;
+			}
+			if (count > 1) {
+				if (null == tmp || tmp.length < count) {
+					tmp = new int[order.length];
+				}
+				mergeSort(order, tmp, 0, count);
+				for (int i = 1; i < count; i++) {
+					if (0 == compare(order[i - 1], order[i])) {
+						throw new MPackException("duplicate key in canonical encoding at index " + order[i]);
+					}
+				}
+			}
+		}
+
+		private void mergeSort(int[] a, int[] t, int from, int to) {
+			if (to - from <= 8) {
+				for (int i = from + 1; i < to; i++) {
+					int x = a[i], j = i;
+					for (; j > from && compare(a[j - 1], x) > 0; j--) {
+						a[j] = a[j - 1];
+					}
+					a[j] = x;
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			mergeSort(a, t, from, mid);
+			mergeSort(a, t, mid, to);
+			if (compare(a[mid - 1], a[mid]) <= 0) {
+				return;
+			}
+			System.arraycopy(a, from, t, from, to - from);
+			for (int i = from, l = from, r = mid; i < to; i++) {
+				a[i] = r >= to || (l < mid && compare(t[l], t[r]) <= 0) ? t[l++] : t[r++];
+			}
+		}
+
+		/** 无符号逐字节比较，前缀较小 */
+		private int compare(int x, int y) {
+			int i = start(x), xe = ends[x];
+			int j = start(y), ye = ends[y];
+			for (; i < xe && j < ye; i++, j++) {
+				int d = (buf[i] & 0xff) - (buf[j] & 0xff);
+				if (0 != d) {
+					return d;
+				}
+			}
+			return (xe - i) - (ye - j);
+		}
+
+		void clear() {
+			Arrays.fill(values, 0, count, null);
+			count = 0;
+			reset();
+		}
+	}
+
+	private byte[] scratch() {
+		byte[] buf = scratch;
+		if (null == buf) {
+			scratch = buf = new byte[SCRATCH_SIZE];
+		}
+		return buf;
+	}
+
 	/**
 	 * Pack the input String in UTF-8 encoding, Allowing Of <code>null</code>
 	 * 
@@ -254,8 +658,8 @@ public class MPacker extends FilterOutputStream {
 	}
 
 	/**
-	 * 打包如下类型：null - packNil, CharSequence - packString, Float - packFloat, Double - packDouble, BigInteger - packBigInteger,
-	 * Number - packLong
+	 * 打包如下类型：null - packNil, MPackValue - writeTo, {@link #setExtensionRegistry(ExtensionRegistry)}中注册过的类 - 扩展类型, Boolean - packBoolean, CharSequence - packString, Float - packFloat,
+	 * Double - packDouble, BigInteger - packBigInteger, Number - packLong, byte[] - Binary, Map - Map, Collection和数组 - Array
 	 * 
 	 * @param obj
 	 * @throws IOException
@@ -263,6 +667,15 @@ public class MPacker extends FilterOutputStream {
 	public MPacker pack(Object obj) throws IOException {
 		if (null == obj) {
 			packNil();
+		} else if (null != stringDictionary && obj instanceof CharSequence) {
+			// Utf8String等自己写入原始字节，会绕过字典
+			packString(obj.toString());
+		} else if (obj instanceof MPackValue) {
+			((MPackValue) obj).writeTo(this);
+		} else if (null != extensionRegistry && extensionRegistry.write(this, obj)) {
+			// 注册过的扩展类型
+		} else if (obj instanceof Boolean) {
+			packBoolean(((Boolean) obj).booleanValue());
 		} else if (obj instanceof Float) {
 			packFloat(((Float) obj).floatValue());
 		} else if (obj instanceof Double) {
@@ -274,13 +687,34 @@ public class MPacker extends FilterOutputStream {
 		} else if (obj instanceof byte[]) {
 			packBinaryHeader(((byte[]) obj).length);
 			write((byte[]) obj);
+		} else if (obj instanceof Map && (options & OPT_CANONICAL) > 0) {
+			packSorted((Map<?, ?>) obj, null);
+		} else if (obj instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) obj;
+			packMapHeader(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				pack(entry.getKey());
+				pack(entry.getValue());
+			}
+		} else if (obj instanceof Set && (options & OPT_CANONICAL) > 0) {
+			packSorted(null, (Set<?>) obj);
+		} else if (obj instanceof Collection) {
+			Collection<?> collection = (Collection<?>) obj;
+			packArrayHeader(collection.size());
+			for (Object element : collection) {
+				pack(element);
+			}
 		} else if (obj.getClass().isArray()) {
 			int arrayLength = Array.getLength(obj);
 			packArrayHeader(arrayLength);
 			for (int i = 0; i < arrayLength; i++) {
 				pack(Array.get(obj, i));
 			}
-		} else { // if (obj instanceof CharSequence)
+		} else if (obj instanceof String) {
+			packString((String) obj);
+		} else if (obj instanceof CharSequence) {
+			packString((CharSequence) obj);
+		} else {
 			packString(obj.toString());
 		}
 		return this;
@@ -374,6 +808,23 @@ public class MPacker extends FilterOutputStream {
 		return this;
 	}
 
+	/**
+	 * 打包无符号64位整数，最高位为1时（大于{@link Long#MAX_VALUE}）总是使用UINT64，否则同{@link #packLong(long)}
+	 * 
+	 * @param u64
+	 *          无符号64位的原始值
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packUnsignedLong(long u64) throws IOException {
+		if (u64 < 0L) {
+			writeByteAndLong(ByteCode.UINT64, u64);
+		} else {
+			packLong(u64);
+		}
+		return this;
+	}
+
 	public MPacker packBigInteger(BigInteger bi) throws IOException {
 		if (bi.bitLength() <= 63) {
 			packLong(bi.longValue());
@@ -385,12 +836,394 @@ public class MPacker extends FilterOutputStream {
 		return this;
 	}
 
+	/**
+	 * 打包时间戳扩展类型（-1），选择最小的形式：秒数在[0, 2^32)且纳秒为0时用4字节的timestamp 32，秒数在[0, 2^34)时用8字节的timestamp 64，
+	 * 否则用12字节的timestamp 96
+	 * 
+	 * @param epochSeconds
+	 *          距1970-01-01T00:00:00Z的秒数
+	 * @param nanos
+	 *          0到999999999
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packTimestamp(long epochSeconds, int nanos) throws IOException {
+		if (nanos < 0 || nanos > 999999999) {
+			throw new IllegalArgumentException("nanoseconds out of range: " + nanos);
+		}
+		if (epochSeconds >>> 34 == 0) {
+			long data64 = ((long) nanos << 34) | epochSeconds;
+			if (data64 >>> 32 == 0) {
+				// timestamp 32
+				byteBuffer.limit(6);
+				write(byteBuffer.put(0, ByteCode.FIXEXT4).put(1, ByteCode.EXT_TIMESTAMP).putInt(2, (int) data64));
+			} else {
+				// timestamp 64
+				byteBuffer.limit(10);
+				write(byteBuffer.put(0, ByteCode.FIXEXT8).put(1, ByteCode.EXT_TIMESTAMP).putLong(2, data64));
+			}
+		} else {
+			// timestamp 96
+			byteBuffer.limit(7);
+			write(byteBuffer.put(0, ByteCode.EXT8).put(1, (byte) 12).put(2, ByteCode.EXT_TIMESTAMP).putInt(3, nanos));
+			writeLong(epochSeconds);
+		}
+		return this;
+	}
+
+	public MPacker packTimestamp(Instant instant) throws IOException {
+		return packTimestamp(instant.getEpochSecond(), instant.getNano());
+	}
+
+	/**
+	 * 按结构描述把对象打包为数组：字段按{@link Schema}中的位置排列，不写字段名，末尾为null的可选字段省略。读取方见
+	 * {@link MUnpacker#unpackStruct(StructCodec)}
+	 * 
+	 * @param codec
+	 * @param value
+	 *          null时打包为NIL
+	 * @return
+	 * @throws IOException
+	 */
+	public <T> MPacker packStruct(StructCodec<T> codec, T value) throws IOException {
+		if (null == value) {
+			return packNil();
+		}
+		codec.write(this, value);
+		return this;
+	}
+
+	/**
+	 * 打包一条记录与上一条的差别，见{@link RecordDelta}，读取方见{@link MUnpacker#unpackRecord(RecordDelta, Map)}
+	 * 
+	 * @param delta
+	 *          这个流的编码状态
+	 * @param record
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packRecord(RecordDelta delta, Map<?, ?> record) throws IOException {
+		delta.write(this, record);
+		return this;
+	}
+
+	/**
+	 * 打包为基本类型数组扩展（{@link TypedArray}），元素小端原样排列，整块写入
+	 * 
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packTypedArray(byte[] values) throws IOException {
+		beginTypedArray(TypedArray.INT8, values.length, 1);
+		write(values, 0, values.length);
+		return this;
+	}
+
+	public MPacker packTypedArray(short[] values) throws IOException {
+		beginTypedArray(TypedArray.INT16, values.length, 2);
+		ByteBuffer chunk = ByteBuffer.wrap(scratch()).order(ByteOrder.LITTLE_ENDIAN);
+		ShortBuffer view = chunk.asShortBuffer();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, view.capacity());
+			view.clear();
+			view.put(values, off, n);
+			write(chunk.array(), 0, n << 1);
+			off += n;
+		}
+		return this;
+	}
+
+	public MPacker packTypedArray(int[] values) throws IOException {
+		beginTypedArray(TypedArray.INT32, values.length, 4);
+		ByteBuffer chunk = ByteBuffer.wrap(scratch()).order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer view = chunk.asIntBuffer();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, view.capacity());
+			view.clear();
+			view.put(values, off, n);
+			write(chunk.array(), 0, n << 2);
+			off += n;
+		}
+		return this;
+	}
+
+	public MPacker packTypedArray(long[] values) throws IOException {
+		beginTypedArray(TypedArray.INT64, values.length, 8);
+		ByteBuffer chunk = ByteBuffer.wrap(scratch()).order(ByteOrder.LITTLE_ENDIAN);
+		LongBuffer view = chunk.asLongBuffer();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, view.capacity());
+			view.clear();
+			view.put(values, off, n);
+			write(chunk.array(), 0, n << 3);
+			off += n;
+		}
+		return this;
+	}
+
+	public MPacker packTypedArray(float[] values) throws IOException {
+		beginTypedArray(TypedArray.FLOAT32, values.length, 4);
+		ByteBuffer chunk = ByteBuffer.wrap(scratch()).order(ByteOrder.LITTLE_ENDIAN);
+		FloatBuffer view = chunk.asFloatBuffer();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, view.capacity());
+			view.clear();
+			view.put(values, off, n);
+			write(chunk.array(), 0, n << 2);
+			off += n;
+		}
+		return this;
+	}
+
+	public MPacker packTypedArray(double[] values) throws IOException {
+		beginTypedArray(TypedArray.FLOAT64, values.length, 8);
+		ByteBuffer chunk = ByteBuffer.wrap(scratch()).order(ByteOrder.LITTLE_ENDIAN);
+		DoubleBuffer view = chunk.asDoubleBuffer();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, view.capacity());
+			view.clear();
+			view.put(values, off, n);
+			write(chunk.array(), 0, n << 3);
+			off += n;
+		}
+		return this;
+	}
+
+	/** 按位打包，低位在前 */
+	public MPacker packTypedArray(boolean[] values) throws IOException {
+		int nBytes = (values.length + 7) >>> 3;
+		if (nBytes > Integer.MAX_VALUE - 2) {
+			throw new MPackSizeException(values.length);
+		}
+		packExtensionTypeHeader(typedArrayType(), nBytes + 2);
+		writeByte(TypedArray.BOOLEAN);
+		writeByte((byte) ((nBytes << 3) - values.length));
+		byte[] buf = scratch();
+		for (int i = 0; i < values.length;) {
+			int end = Math.min(values.length, i + (buf.length << 3));
+			int n = 0;
+			for (; i < end; i += 8) {
+				int bits = 0;
+				for (int j = 0, m = Math.min(8, end - i); j < m; j++) {
+					if (values[i + j]) {
+						bits |= 1 << j;
+					}
+				}
+				buf[n++] = (byte) bits;
+			}
+			write(buf, 0, n);
+		}
+		return this;
+	}
+
+	/**
+	 * 打包为半精度浮点向量（{@link TypedArray#FLOAT16}），大小为float32的一半，有效数字约3位，范围±65504
+	 * 
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packFloat16Array(float[] values) throws IOException {
+		beginTypedArray(TypedArray.FLOAT16, values.length, 2);
+		byte[] buf = scratch();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, buf.length >>> 1);
+			for (int i = 0, p = 0; i < n; i++, p += 2) {
+				short h = HalfFloats.floatToHalf(values[off + i]);
+				buf[p] = (byte) h;
+				buf[p + 1] = (byte) (h >>> 8);
+			}
+			write(buf, 0, n << 1);
+			off += n;
+		}
+		return this;
+	}
+
+	/**
+	 * 打包为bfloat16向量（{@link TypedArray#BFLOAT16}），大小为float32的一半，范围与float32相同，有效数字约2位
+	 * 
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packBFloat16Array(float[] values) throws IOException {
+		beginTypedArray(TypedArray.BFLOAT16, values.length, 2);
+		byte[] buf = scratch();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, buf.length >>> 1);
+			for (int i = 0, p = 0; i < n; i++, p += 2) {
+				short h = HalfFloats.floatToBFloat16(values[off + i]);
+				buf[p] = (byte) h;
+				buf[p + 1] = (byte) (h >>> 8);
+			}
+			write(buf, 0, n << 1);
+			off += n;
+		}
+		return this;
+	}
+
+	/**
+	 * 按最小值和最大值量化为int8向量（{@link TypedArray#QINT8}），大小为float32的1/4，误差不超过(max - min) / 510
+	 * 
+	 * @param values
+	 *          有限值
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packQuantizedArray(float[] values) throws IOException {
+		float min = 0f, max = 0f;
+		for (float v : values) {
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+		float scale = max > min ? (max - min) / 255f : 1f;
+		int zeroPoint = Math.round(-128f - min / scale);
+		return packQuantizedArray(values, scale, Math.max(-128, Math.min(127, zeroPoint)));
+	}
+
+	/**
+	 * 按给定的scale和zero point量化为int8向量，q = round(v / scale) + zeroPoint，超出[-128, 127]的截断
+	 * 
+	 * @param values
+	 * @param scale
+	 *          大于0
+	 * @param zeroPoint
+	 *          -128到127
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packQuantizedArray(float[] values, float scale, int zeroPoint) throws IOException {
+		if (!(scale > 0f) || zeroPoint < -128 || zeroPoint > 127) {
+			throw new IllegalArgumentException("invalid quantization: scale " + scale + ", zero point " + zeroPoint);
+		}
+		if (values.length > Integer.MAX_VALUE - 6) {
+			throw new MPackSizeException(values.length);
+		}
+		packExtensionTypeHeader(typedArrayType(), values.length + 6);
+		writeByte(TypedArray.QINT8);
+		writeInt(Integer.reverseBytes(Float.floatToRawIntBits(scale)));
+		writeByte((byte) zeroPoint);
+		float inverse = 1f / scale;
+		byte[] buf = scratch();
+		for (int off = 0; off < values.length;) {
+			int n = Math.min(values.length - off, buf.length);
+			for (int i = 0; i < n; i++) {
+				int q = Math.round(values[off + i] * inverse) + zeroPoint;
+				buf[i] = (byte) (q < -128 ? -128 : q > 127 ? 127 : q);
+			}
+			write(buf, 0, n);
+			off += n;
+		}
+		return this;
+	}
+
+	/**
+	 * 打包为差分编码的long序列（{@link TypedArray#DELTA_INT64}）：第一个值和相邻值的差，都是zigzag变长整数。单调的计数器等每个值通常只要1到2字节
+	 * 
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packDeltaArray(long[] values) throws IOException {
+		return packDeltas(values, TypedArray.DELTA_INT64);
+	}
+
+	/**
+	 * 打包为二阶差分编码的long序列（{@link TypedArray#DELTA2_INT64}）：第一个值、第一个差，之后是差的差。等间隔的时间戳每个值只要1字节
+	 * 
+	 * @param values
+	 * @return
+	 * @throws IOException
+	 */
+	public MPacker packDeltaOfDeltaArray(long[] values) throws IOException {
+		return packDeltas(values, TypedArray.DELTA2_INT64);
+	}
+
+	/** 先算出总字节数写入头部，再分段编码到缓冲区写出 */
+	private MPacker packDeltas(long[] values, byte kind) throws IOException {
+		boolean secondOrder = TypedArray.DELTA2_INT64 == kind;
+		long size = 1L + Varint.sizeOf(values.length);
+		long prev = 0, prevDelta = 0;
+		for (int i = 0; i < values.length; i++) {
+			long delta = values[i] - prev;
+			size += Varint.sizeOf(Varint.zigzag(secondOrder && i >= 2 ? delta - prevDelta : delta));
+			prev = values[i];
+			prevDelta = delta;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new MPackSizeException(size);
+		}
+		packExtensionTypeHeader(typedArrayType(), (int) size);
+		writeByte(kind);
+		byte[] buf = scratch();
+		int p = Varint.write(values.length, buf, 0);
+		prev = 0;
+		prevDelta = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (p > buf.length - Varint.MAX_BYTES) {
+				write(buf, 0, p);
+				p = 0;
+			}
+			long delta = values[i] - prev;
+			p = Varint.write(Varint.zigzag(secondOrder && i >= 2 ? delta - prevDelta : delta), buf, p);
+			prev = values[i];
+			prevDelta = delta;
+		}
+		write(buf, 0, p);
+		return this;
+	}
+
+	private void beginTypedArray(byte kind, int length, int elementSize) throws IOException {
+		long nBytes = (long) length * elementSize;
+		if (nBytes > Integer.MAX_VALUE - 1) {
+			throw new MPackSizeException(nBytes);
+		}
+		packExtensionTypeHeader(typedArrayType(), (int) nBytes + 1);
+		writeByte(kind);
+	}
+
 	public MPacker packFloat(float v) throws IOException {
+		if ((options & OPT_FLOAT_AS_DOUBLE) > 0) {
+			return packDouble(v);
+		}
+		if (v != v && (options & OPT_CANONICAL) > 0) {
+			v = Float.NaN;
+		}
+		if ((options & OPT_COMPACT_FLOAT) > 0) {
+			long l = (long) v;
+			// 整数值，且不是-0.0（-0.0 == 0）；与packDouble相同，(long)对2^63及以上饱和，需要排除
+			if (l == v && v < 0x1p63f && (0L != l || Float.floatToRawIntBits(v) == 0)) {
+				return packLong(l);
+			}
+		}
 		writeByteAndFloat(ByteCode.FLOAT32, v);
 		return this;
 	}
 
 	public MPacker packDouble(double v) throws IOException {
+		if (v != v && (options & OPT_CANONICAL) > 0) {
+			// 不同负载的NaN统一，最小格式时用FLOAT32
+			if ((options & OPT_COMPACT_FLOAT) > 0) {
+				writeByteAndFloat(ByteCode.FLOAT32, Float.NaN);
+			} else {
+				writeByteAndDouble(ByteCode.FLOAT64, Double.NaN);
+			}
+			return this;
+		}
+		if ((options & OPT_COMPACT_FLOAT) > 0) {
+			long l = (long) v;
+			// 整数值，且不是-0.0；(long)对2^63及以上饱和为Long.MAX_VALUE，转回double又等于2^63，需要排除
+			if (l == v && v < 0x1p63 && (0L != l || Double.doubleToRawLongBits(v) == 0L)) {
+				return packLong(l);
+			}
+			float f = (float) v;
+			// NaN不等于自身，保留FLOAT64以免丢失NaN的负载
+			if (f == v) {
+				writeByteAndFloat(ByteCode.FLOAT32, f);
+				return this;
+			}
+		}
 		writeByteAndDouble(ByteCode.FLOAT64, v);
 		return this;
 	}
@@ -555,6 +1388,8 @@ public class MPacker extends FilterOutputStream {
 	public MPacker packExtensionTypeHeader(byte extType, int payloadLen) throws IOException {
 		byte byteCode;
 		int sizeOfNonFixExtPayloadLen;
+		// 下面先按下标写入再设置limit，上一次写入留下的limit可能太小
+		byteBuffer.clear();
 		if (payloadLen < (1 << 8)) {
 			if (payloadLen > 0 && (payloadLen & (payloadLen - 1)) == 0) { // check whether dataLen == 2^x
 				if (payloadLen == 1) {
@@ -4,13 +4,20 @@ import java.io.EOFException;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.msgpack.ByteCode.FamilyType;
 
@@ -50,6 +57,8 @@ public class MUnpacker extends FilterInputStream {
 	private final static int NEXT_DIRTY = -1;
 
 	private static final String EMPTY_STRING = "";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int TEXT_BUFFER_SIZE = 4096;
 	private static final Object[] EMPTY_ARRAY = new Object[0];
 
 	/** 二进制格式读为字符串，对象类型为{@link String}，默认编码为UTF-8 */
@@ -62,10 +71,34 @@ public class MUnpacker extends FilterInputStream {
 	public static final int OPT_MATCHED_INTEGER = 0x00000008;
 	/** 整数类型按字节大小与Java浮点数类型做最适合匹配：FLOAT32 -> Float, FLOAT64 -> Double；否则一律Double */
 	public static final int OPT_MATCHED_FLOAT = 0x00000010;
+	/**
+	 * Map格式按大小解码为面向读取的紧凑Map：不超过{@link ArrayMap#MAX_LINEAR_SIZE}个键值对用{@link ArrayMap}，否则用{@link OpenHashMap}；
+	 * 否则{@link #unpack()}输出键值交替的<code>Object[]</code>，{@link #unpackMap()}输出{@link HashMap}
+	 */
+	public static final int OPT_READ_MAP_AS_COMPACT_MAP = 0x00000020;
+	/**
+	 * 整数按值的大小而不是格式装箱：能用int表示的用Integer，否则Long，只有大于{@link Long#MAX_VALUE}的UINT64用BigInteger。与
+	 * {@link #OPT_MATCHED_INTEGER}同时设置时以本选项为准
+	 */
+	public static final int OPT_NARROW_INTEGER = 0x00000040;
+	/** 常用的小整数（-1024到16383）装箱为共享的Integer或Long实例，而不是每个值各自分配 */
+	public static final int OPT_SHARED_INTEGER = 0x00000080;
+	/** UINT64解码为{@link UnsignedLong}，而不是BigInteger或Long，优先于其他整数选项 */
+	public static final int OPT_UINT64_AS_UNSIGNED_LONG = 0x00000100;
+	/** 字符串解码为{@link Utf8String}，延迟到使用时才解码，见{@link #unpackUtf8String()}。与{@link #OPT_READ_STR_AS_BIN}同时设置时以后者为准 */
+	public static final int OPT_READ_STR_AS_UTF8 = 0x00000200;
+
+	/** 低内存解码：整数按值收窄并共享小整数实例，FLOAT32解码为Float */
+	public static final int PROFILE_LOW_MEMORY = OPT_NARROW_INTEGER | OPT_SHARED_INTEGER | OPT_MATCHED_FLOAT;
 
 	/** 用于{@link #unpack()}的全局选项 */
 	private int options;
 
+	/** {@link #unpack()}的容器栈，复用以避免每个值都分配 */
+	private ContainerStack containerStack;
+	/** 数组和Map的最大嵌套深度 */
+	private int maxDepth = Integer.MAX_VALUE;
+
 	/** Length threshold */
 	private final int readStringMaxSize = Integer.MAX_VALUE, readBinaryMaxSize = Integer.MAX_VALUE;
 
@@ -77,20 +110,172 @@ public class MUnpacker extends FilterInputStream {
 	 * */
 	private int nextByte = NEXT_DIRTY;
 
+	/** 已从内部流读取（含跳过）的字节数，加上构造时给定的起始偏移 */
+	private long readPosition;
+
+	/** 非空时，从内部流读取或跳过的字节都复制到这里，见{@link #copyValue(OutputStream)} */
+	private OutputStream recorder;
+	private ExtensionRegistry extensionRegistry;
+	private StringDictionary stringDictionary;
+	private byte typedArrayType = TypedArray.DEFAULT_EXT_TYPE;
+	/** 最近一次读取的时间戳的纳秒部分，见{@link #unpackTimestampSeconds()} */
+	private int timestampNanos;
+	/** 逐段解码字符串的缓冲区，第一次用到时才分配，见{@link #unpackString(StringBuilder)} */
+	private byte[] textBuffer;
+	private byte[] recordBuffer;
+
 	/** 缓冲区，用于字节转整数 */
 	protected ByteBuffer byteBuffer;
 
 	// byte[] buf = new byte[8];
 
 	public MUnpacker(InputStream in) {
+		this(in, 0L);
+	}
+
+	/**
+	 * @param in
+	 * @param startPosition
+	 *          内部流当前所在的绝对偏移，比如已经定位到文件中间的流，使{@link #getReadPosition()}返回绝对偏移
+	 */
+	public MUnpacker(InputStream in, long startPosition) {
 		super(in);
 		byteBuffer = ByteBuffer.wrap(new byte[8]);
+		readPosition = startPosition;
+	}
+
+	/**
+	 * 设置扩展类型的编解码器，{@link #unpack()}把注册过的扩展类型解码为编解码器给出的对象
+	 * 
+	 * @param registry
+	 *          可以为null，此时扩展类型都解码为{@link ExtensionValue}
+	 * @return
+	 * @throws IllegalStateException
+	 *           注册的类型与字符串字典的扩展类型冲突
+	 */
+	public MUnpacker setExtensionRegistry(ExtensionRegistry registry) {
+		StringDictionary.checkTypes(stringDictionary, registry, typedArrayType);
+		extensionRegistry = registry;
+		return this;
+	}
+
+	public ExtensionRegistry getExtensionRegistry() {
+		return extensionRegistry;
+	}
+
+	/**
+	 * 设置后按编码方的{@link StringDictionary}还原字符串的引用。字典是流的状态，设置后不能{@link #fork(InputStream)}，只能顺序解码。<br>
+	 * 字典模式下字符串都解码为String（{@link #OPT_READ_STR_AS_BIN}和{@link #OPT_READ_STR_AS_UTF8}不起作用），{@link #skipValue()}也要解码字符串以维护字典
+	 * 
+	 * @param dictionary
+	 *          可以为null，解码方独用，配置必须与编码方的相同
+	 * @return
+	 * @throws IllegalStateException
+	 *           字典的扩展类型已经注册了编解码器，或者与{@link #setTypedArrayType(byte)}相同
+	 */
+	public MUnpacker setStringDictionary(StringDictionary dictionary) {
+		StringDictionary.checkTypes(dictionary, extensionRegistry, typedArrayType);
+		stringDictionary = dictionary;
+		return this;
+	}
+
+	public StringDictionary getStringDictionary() {
+		return stringDictionary;
+	}
+
+	public byte getTypedArrayType() {
+		return typedArrayType;
+	}
+
+	/**
+	 * 基本类型数组（{@link TypedArray}）的扩展类型，见{@link MPacker#setTypedArrayType(byte)}
+	 * 
+	 * @param type
+	 * @return
+	 */
+	public MUnpacker setTypedArrayType(byte type) {
+		StringDictionary.checkTypes(stringDictionary, extensionRegistry, type);
+		typedArrayType = type;
+		return this;
+	}
+
+	public InputStream getInput() {
+		return in;
+	}
+
+	/**
+	 * 以相同的设置（选项等）创建读取另一个流的解包器，如解码同一缓冲区的不同切片
+	 * 
+	 * @param in
+	 * @return
+	 * @throws IllegalStateException
+	 *           设置了{@link StringDictionary}，切片中的引用依赖之前的所有字符串，不能分开解码
+	 */
+	public MUnpacker fork(InputStream in) {
+		if (null != stringDictionary) {
+			throw new IllegalStateException("cannot fork an unpacker with a string dictionary");
+		}
+		MUnpacker unpacker = new MUnpacker(in);
+		unpacker.options = options;
+		unpacker.maxDepth = maxDepth;
+		unpacker.extensionRegistry = extensionRegistry;
+		unpacker.typedArrayType = typedArrayType;
+		return unpacker;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int ch = in.read();
+		if (ch >= 0) {
+			readPosition++;
+			if (null != recorder) {
+				recorder.write(ch);
+			}
+		}
+		return ch;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0) {
+			readPosition += n;
+			if (null != recorder) {
+				recorder.write(b, off, n);
+			}
+		}
+		return n;
 	}
 
 	@Override
 	public long skip(long n) throws IOException {
 		nextByte = NEXT_DIRTY;
-		return super.skip(n);
+		if (null != recorder) {
+			// 需要复制的字节不能跳过
+			if (null == recordBuffer) {
+				recordBuffer = new byte[4096];
+			}
+			return Math.max(0, read(recordBuffer, 0, (int) Math.min(n, recordBuffer.length)));
+		}
+		long skipped = in.skip(n);
+		if (skipped > 0) {
+			readPosition += skipped;
+		}
+		return skipped;
+	}
+
+	/**
+	 * 返回下一个未消耗字节的偏移，即下一个值的起始偏移（在值的边界上调用时）。{@link #hasNext()}或{@link #getNextCode()}缓存的字节不算已消耗。
+	 * 
+	 * @return 相对于构造时给定起始偏移的绝对偏移
+	 */
+	public long getReadPosition() {
+		return NEXT_DIRTY != nextByte ? readPosition - 1 : readPosition;
+	}
+
+	/** 内部流的读取偏移，与{@link #getReadPosition()}不同，包含了{@link #hasNext()}缓存的字节 */
+	long getStreamPosition() {
+		return readPosition;
 	}
 
 	/**
@@ -117,6 +302,30 @@ public class MUnpacker extends FilterInputStream {
 
 	public MUnpacker setOptions(int options) {
 		this.options = options;
+		if (null != containerStack) {
+			containerStack.setOptions(options);
+		}
+		return this;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * 限制{@link #unpack()}时数组和Map的最大嵌套深度，超过时抛出{@link MPackException}，用于拒绝恶意的深层嵌套输入。默认不限制
+	 * 
+	 * @param maxDepth
+	 * @return
+	 */
+	public MUnpacker setMaxDepth(int maxDepth) {
+		if (maxDepth < 1) {
+			throw new IllegalArgumentException("max depth must be >= 1: " + maxDepth);
+		}
+		this.maxDepth = maxDepth;
+		if (null != containerStack) {
+			containerStack.setMaxDepth(maxDepth);
+		}
 		return this;
 	}
 
@@ -132,7 +341,7 @@ public class MUnpacker extends FilterInputStream {
 	 *              error occurs.
 	 * @see java.io.FilterInputStream#in
 	 */
-	private final byte readByte() throws IOException {
+	public final byte readByte() throws IOException {
 		int ch;
 		if (NEXT_DIRTY != nextByte) {
 			ch = nextByte;
@@ -145,23 +354,24 @@ public class MUnpacker extends FilterInputStream {
 		return (byte) (ch);
 	}
 
-	private short readShort() throws IOException {
+	/** 读取大端的2字节，与{@link #readByte()}等一样用于读取扩展类型等的负载，见{@link ExtensionCodec} */
+	public short readShort() throws IOException {
 		return consume(2).getShort(0);
 	}
 
-	private int readInt() throws IOException {
+	public int readInt() throws IOException {
 		return consume(4).getInt(0);
 	}
 
-	private long readLong() throws IOException {
+	public long readLong() throws IOException {
 		return consume(8).getLong(0);
 	}
 
-	private double readDouble() throws IOException {
+	public double readDouble() throws IOException {
 		return Double.longBitsToDouble(readLong());
 	}
 
-	private float readFloat() throws IOException {
+	public float readFloat() throws IOException {
 		return Float.intBitsToFloat(readInt());
 	}
 
@@ -221,15 +431,55 @@ public class MUnpacker extends FilterInputStream {
 	 */
 	private ByteBuffer consume(int nBytes) throws IOException {
 		nextByte = NEXT_DIRTY;
-		int nReadedBytes = read(byteBuffer.array(), 0, nBytes);
+		int nReadedBytes = readFully(byteBuffer.array(), 0, nBytes);
 		if (nReadedBytes < nBytes) {
-			// nReadedBytes : -1-eof, 0-no bytes, < nBytes, not enough.
+			// nReadedBytes : eof, not enough.
 			throw new EOFException("insufficient data length for reading the value of " + nBytes);
 		}
 		byteBuffer.limit(nBytes);
 		return byteBuffer;
 	}
 
+	/**
+	 * 内部流一次read可能读不满（如缓冲流的边界处），循环直到读满或到达流尾
+	 * 
+	 * @return 实际读取的字节数，小于len表示到达流尾
+	 */
+	private int readFully(byte[] b, int off, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int count = read(b, off + n, len - n);
+			if (count < 0)
+				break;
+			n += count;
+		}
+		return n;
+	}
+
+	/**
+	 * 跳过恰好n个字节。内部流的skip可能少跳（如{@link java.io.BufferedInputStream}只跳过缓冲区中的部分），跳不动时退回逐字节读取
+	 * 
+	 * @param n
+	 * @throws EOFException
+	 *           到达流尾仍未跳够
+	 */
+	void skipFully(long n) throws IOException {
+		if (NEXT_DIRTY != nextByte) {
+			// 缓存的字节算作跳过的第一个字节
+			nextByte = NEXT_DIRTY;
+			n--;
+		}
+		while (n > 0) {
+			long skipped = skip(n);
+			if (skipped <= 0) {
+				if (read() < 0)
+					throw new EOFException();
+				skipped = 1;
+			}
+			n -= skipped;
+		}
+	}
+
 	/**
 	 * 读取下一个字节，这个字节会被缓存起来，以后都返回缓存值，除非调用read开头的方法或skip方法，会让缓存的字节无效化。<br>
 	 * 即有缓存就读取缓存值，无缓存直接从内部流读取并设置到缓存变量中，最后缓存总是有效的
@@ -330,6 +580,7 @@ public class MUnpacker extends FilterInputStream {
 			if (i64 < Integer.MIN_VALUE || i64 > Integer.MAX_VALUE) {
 				throw overflowI(i64);
 			}
+			return (int) i64;
 		}
 		throw unexpected("Integer", b);
 	}
@@ -384,6 +635,149 @@ public class MUnpacker extends FilterInputStream {
 		throw unexpected("Integer", b);
 	}
 
+	/**
+	 * 读取无符号64位整数，不分配BigInteger
+	 * 
+	 * @return 原始的64位，大于{@link Long#MAX_VALUE}的UINT64为负数，可用{@link Long#toUnsignedString(long)}，
+	 *         {@link Long#compareUnsigned(long, long)}等处理
+	 * @throws IOException
+	 * @throws RuntimeException
+	 *           负数的溢出异常
+	 * @throws RuntimeException
+	 *           类型不是整数的异常
+	 */
+	public long unpackUnsignedLong() throws IOException {
+		byte b = readByte();
+		long bits = readIntegerBits(b);
+		if (bits < 0L && ByteCode.UINT64 != b) {
+			throw overflowI(bits);
+		}
+		return bits;
+	}
+
+	/**
+	 * 读取整数族的值，UINT64按原始的64位返回（大于{@link Long#MAX_VALUE}时为负数）
+	 * 
+	 * @param b
+	 *          已经读取的格式字节
+	 * @return
+	 * @throws IOException
+	 */
+	private long readIntegerBits(byte b) throws IOException {
+		if (ByteCode.isFixInt(b)) {
+			return b;
+		}
+		switch (b) {
+		case ByteCode.UINT8:
+			return readByte() & 0xff;
+		case ByteCode.UINT16:
+			return readShort() & 0xffff;
+		case ByteCode.UINT32:
+			return readInt() & 0xffffffffL;
+		case ByteCode.UINT64:
+		case ByteCode.INT64:
+			return readLong();
+		case ByteCode.INT8:
+			return readByte();
+		case ByteCode.INT16:
+			return readShort();
+		case ByteCode.INT32:
+			return readInt();
+		}
+		throw unexpected("Integer", b);
+	}
+
+	/**
+	 * 读取基本类型数组扩展（{@link #setTypedArrayType(byte)}），数据源为{@link ByteBufferInputStream}时不复制元素，可以直接取得
+	 * {@link TypedArray#asDoubleBuffer()}等视图
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public TypedArray unpackTypedArray() throws IOException {
+		byte b = getNextCode();
+		ExtensionTypeHeader header = unpackExtensionTypeHeader();
+		ExtensionRegistry.checkReserved(extensionRegistry, typedArrayType, TypedArrayCodec.class, "typed arrays");
+		if (typedArrayType != header.getType()) {
+			throw unexpected("TypedArray", b);
+		}
+		return TypedArray.read(this, header.getLength());
+	}
+
+	/**
+	 * 读取long序列：{@link TypedArray#INT64}，或者差分编码的{@link TypedArray#DELTA_INT64}，{@link TypedArray#DELTA2_INT64}
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public long[] unpackLongArray() throws IOException {
+		return unpackTypedArray().toLongArray();
+	}
+
+	/**
+	 * 读取时间戳扩展类型（-1）的秒数，直接从头部读取，不创建{@link ExtensionTypeHeader}和{@link ExtensionValue}。纳秒部分见
+	 * {@link #getTimestampNanos()}
+	 * 
+	 * @return 距1970-01-01T00:00:00Z的秒数
+	 * @throws IOException
+	 * @throws RuntimeException
+	 *           类型不是时间戳的异常
+	 */
+	public long unpackTimestampSeconds() throws IOException {
+		byte b = readByte();
+		switch (b) {
+		case ByteCode.FIXEXT4:
+			if (ByteCode.EXT_TIMESTAMP == readByte()) {
+				timestampNanos = 0;
+				return toUnsignedLong(readInt());
+			}
+			break;
+		case ByteCode.FIXEXT8:
+			if (ByteCode.EXT_TIMESTAMP == readByte()) {
+				long data64 = readLong();
+				timestampNanos = (int) (data64 >>> 34);
+				return data64 & 0x00000003ffffffffL;
+			}
+			break;
+		case ByteCode.EXT8:
+			if (12 == readUnsignedByte() && ByteCode.EXT_TIMESTAMP == readByte()) {
+				timestampNanos = readInt();
+				return readLong();
+			}
+			break;
+		}
+		throw unexpected("Timestamp", b);
+	}
+
+	/** 最近一次{@link #unpackTimestampSeconds()}读取的时间戳的纳秒部分，0到999999999 */
+	public int getTimestampNanos() {
+		return timestampNanos;
+	}
+
+	/**
+	 * 读取时间戳扩展类型（-1），换算为距纪元的总纳秒数。不要与{@link #getTimestampNanos()}混淆，后者只是秒以下的纳秒部分
+	 * 
+	 * @return 距1970-01-01T00:00:00Z的纳秒数
+	 * @throws IOException
+	 * @throws RuntimeException
+	 *           超出long能表示的纳秒数（约1677年到2262年之外）的溢出异常
+	 */
+	public long unpackTimestampEpochNanos() throws IOException {
+		long seconds = unpackTimestampSeconds();
+		try {
+			return Math.addExact(Math.multiplyExact(seconds, 1000000000L), timestampNanos);
+		} catch (ArithmeticException e) {
+			BigInteger nanos = BigInteger.valueOf(seconds).multiply(BigInteger.valueOf(1000000000L));
+			throw new MPackIntegerOverflowException(nanos.add(BigInteger.valueOf(timestampNanos)));
+		}
+	}
+
+	public Instant unpackTimestamp() throws IOException {
+		long seconds = unpackTimestampSeconds();
+		return Instant.ofEpochSecond(seconds, timestampNanos);
+	}
+
+	/** 也接受整数格式，见{@link MPacker#OPT_COMPACT_FLOAT} */
 	public float unpackFloat() throws IOException {
 		byte b = readByte();
 		switch (b) {
@@ -394,9 +788,13 @@ public class MUnpacker extends FilterInputStream {
 			double dv = readDouble();
 			return (float) dv;
 		}
+		if (FamilyType.INTEGER == MPackFormat.valueOf(b).getFamily()) {
+			return (float) integerToDouble(b);
+		}
 		throw unexpected("Float", b);
 	}
 
+	/** 也接受整数格式，见{@link MPacker#OPT_COMPACT_FLOAT} */
 	public double unpackDouble() throws IOException {
 		byte b = readByte();
 		switch (b) {
@@ -407,9 +805,17 @@ public class MUnpacker extends FilterInputStream {
 			double dv = readDouble();
 			return dv;
 		}
+		if (FamilyType.INTEGER == MPackFormat.valueOf(b).getFamily()) {
+			return integerToDouble(b);
+		}
 		throw unexpected("Float", b);
 	}
 
+	private double integerToDouble(byte b) throws IOException {
+		long bits = readIntegerBits(b);
+		return ByteCode.UINT64 == b ? NumberBoxing.unsignedToDouble(bits) : bits;
+	}
+
 	public BigInteger unpackBigInteger() throws IOException {
 		byte b = readByte();
 		if (ByteCode.isFixInt(b)) {
@@ -464,7 +870,7 @@ public class MUnpacker extends FilterInputStream {
 		if (numBytes < 0) {
 			throw new IllegalArgumentException("skip length must be >= 0: " + numBytes);
 		}
-		skip(numBytes);
+		skipFully(numBytes);
 	}
 
 	/**
@@ -485,6 +891,10 @@ public class MUnpacker extends FilterInputStream {
 	public MUnpacker skipValue(int valueCount) throws IOException {
 		int remainingValues = valueCount;
 		while (remainingValues > 0) {
+			if (null != stringDictionary && skipDictionaryValue(stringDictionary)) {
+				remainingValues--;
+				continue;
+			}
 			byte byteCode = readByte();
 			MPackFormat format = MPackFormat.valueOf(byteCode);
 			switch (format) {
@@ -582,15 +992,131 @@ public class MUnpacker extends FilterInputStream {
 		return this;
 	}
 
+	/**
+	 * 字典模式下跳过字符串和扩展类型时仍然要维护字典
+	 * 
+	 * @return 下一个值是字符串或扩展类型，已经跳过
+	 */
+	private boolean skipDictionaryValue(StringDictionary dictionary) throws IOException {
+		switch (getNextFormat().getFamily()) {
+		case FamilyType.STRING:
+			readDictionaryString(dictionary, Integer.MAX_VALUE);
+			return true;
+		case FamilyType.EXTENSION: {
+			ExtensionTypeHeader extHeader = unpackExtensionTypeHeader();
+			if (null == readDictionaryExtension(dictionary, extHeader)) {
+				skipFully(extHeader.getLength());
+			}
+			return true;
+		}
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * 字典模式下读取字符串：普通字符串按长度规则定义到字典中，或者是字典的引用和重置
+	 */
+	private String readDictionaryString(StringDictionary dictionary, int maxUnpackStringSize) throws IOException {
+		if (FamilyType.EXTENSION == getNextFormat().getFamily()) {
+			ExtensionTypeHeader extHeader = unpackExtensionTypeHeader();
+			String s = readDictionaryExtension(dictionary, extHeader);
+			if (null == s) {
+				throw new MPackFormatException(String.format("Expected String, but got extension type %d",
+						extHeader.getType()));
+			}
+			return s;
+		}
+		int strLen = unpackRawStringHeader();
+		if (strLen > maxUnpackStringSize) {
+			throw new MPackException(String.format("cannot unpack a String of size larger than %,d: %,d",
+					maxUnpackStringSize, strLen));
+		}
+		String s = strLen > 0 ? new String(readPayload(strLen), UTF_8) : EMPTY_STRING;
+		if (dictionary.accepts(strLen)) {
+			dictionary.define(s, false);
+		}
+		return s;
+	}
+
+	/**
+	 * @return 扩展头部已经读取，不是字典的扩展类型返回null，此时负载还没有读取
+	 */
+	private String readDictionaryExtension(StringDictionary dictionary, ExtensionTypeHeader extHeader)
+			throws IOException {
+		byte type = extHeader.getType();
+		if (dictionary.getRefType() == type) {
+			switch (extHeader.getLength()) {
+			case 1:
+				return dictionary.get(readUnsignedByte());
+			case 2:
+				return dictionary.get(readUnsignedShort());
+			default:
+				throw new MPackFormatException("string reference of length " + extHeader.getLength());
+			}
+		} else if (dictionary.getResetType() == type) {
+			int length = extHeader.getLength();
+			String s = length > 0 ? new String(readPayload(length), UTF_8) : EMPTY_STRING;
+			dictionary.clear();
+			dictionary.define(s, false);
+			return s;
+		}
+		return null;
+	}
+
+	/**
+	 * 把下一个值的原始字节原样复制到out，然后移动到值的末尾，用于转发或者截取值而不解码
+	 * 
+	 * @param out
+	 * @return
+	 * @throws IOException
+	 */
+	public MUnpacker copyValue(OutputStream out) throws IOException {
+		if (NEXT_DIRTY != nextByte) {
+			out.write(nextByte);
+		}
+		recorder = out;
+		try {
+			skipValue();
+		} finally {
+			recorder = null;
+		}
+		return this;
+	}
+
+	/**
+	 * 以{@link Stream}的形式逐个解码剩余的顶级值，每个值由{@link #unpack()}得到。数据源为{@link ByteBufferInputStream}时可以拆分并行处理，如
+	 * <code>unpacker.values().parallel().filter(...).count()</code>
+	 * 
+	 * @return
+	 * @see MPackSpliterator
+	 */
+	public Stream<Object> values() {
+		return StreamSupport.stream(MPackSpliterator.values(this), false);
+	}
+
+	/**
+	 * 以{@link Stream}的形式逐个返回剩余顶级值的原始字节而不解码。同一个拆分出的子流中所有元素是同一个可变的{@link MPackRawValue}实例，逐个值不分配对象，
+	 * 只在处理当前元素期间有效，需要保留时请调用{@link MPackRawValue#toByteArray()}。{@link MPackRawValue#unpack()}按本解包器的设置解码
+	 * 
+	 * @return
+	 */
+	public Stream<MPackRawValue> rawValues() {
+		return StreamSupport.stream(MPackSpliterator.rawValues(this), false);
+	}
+
 	public String unpackString() throws IOException {
 		return unpackString(Integer.MAX_VALUE);
 	}
 
 	public String unpackString(int maxUnpackStringSize) throws IOException {
+		if (null != stringDictionary) {
+			return readDictionaryString(stringDictionary, maxUnpackStringSize);
+		}
 		int strLen = unpackRawStringHeader();
 		if (strLen > 0) {
 			if (strLen <= maxUnpackStringSize) {
-				return new String(readPayload(strLen));
+				return new String(readPayload(strLen), UTF_8);
 			}
 			throw new MPackException(String.format("cannot unpack a String of size larger than %,d: %,d",
 					maxUnpackStringSize, strLen));
@@ -598,6 +1124,155 @@ public class MUnpacker extends FilterInputStream {
 		return EMPTY_STRING;
 	}
 
+	/**
+	 * 解码字符串追加到target，不创建String，target可以反复使用
+	 * 
+	 * @param target
+	 * @return target
+	 * @throws IOException
+	 */
+	public StringBuilder unpackString(StringBuilder target) throws IOException {
+		if (null != stringDictionary) {
+			return target.append(unpackString());
+		}
+		decodeString(unpackRawStringHeader(), target);
+		return target;
+	}
+
+	/**
+	 * 解码字符串放入target，从它的position开始，不创建String
+	 * 
+	 * @param target
+	 * @return target
+	 * @throws IOException
+	 * @throws java.nio.BufferOverflowException
+	 *           target剩余空间不够，此时字符串只读取了一部分
+	 */
+	public CharBuffer unpackString(CharBuffer target) throws IOException {
+		if (null != stringDictionary) {
+			return target.put(unpackString());
+		}
+		decodeString(unpackRawStringHeader(), target);
+		return target;
+	}
+
+	private void decodeString(int length, Appendable target) throws IOException {
+		if (in instanceof ByteBufferInputStream) {
+			ByteBuffer buf = ((ByteBufferInputStream) in).buffer();
+			if (buf.hasArray()) {
+				if (buf.remaining() < length) {
+					throw new EOFException("insufficient data length for reading the value of " + length);
+				}
+				int off = buf.arrayOffset() + buf.position();
+				Utf8.decode(buf.array(), off, off + length, target, true);
+				skipFully(length);
+				return;
+			}
+		}
+		byte[] buf = textBuffer;
+		if (null == buf) {
+			textBuffer = buf = new byte[TEXT_BUFFER_SIZE];
+		}
+		// 上一段末尾不完整的字节序列移到开头，与下一段一起解码
+		int carry = 0;
+		while (length > 0) {
+			int n = Math.min(buf.length - carry, length);
+			readPayload(buf, carry, n);
+			length -= n;
+			int end = carry + n;
+			int decoded = Utf8.decode(buf, 0, end, target, 0 == length);
+			carry = end - decoded;
+			System.arraycopy(buf, decoded, buf, 0, carry);
+		}
+	}
+
+	/**
+	 * 读取字符串但不解码。数据源为{@link ByteBufferInputStream}时不复制，直接引用其中的字节（因此会让整个缓冲区保持可达），否则复制负载
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public Utf8String unpackUtf8String() throws IOException {
+		if (null != stringDictionary) {
+			return Utf8String.valueOf(unpackString());
+		}
+		return readUtf8String(unpackRawStringHeader());
+	}
+
+	private Utf8String readUtf8String(int length) throws IOException {
+		return new Utf8String(readPayloadBuffer(length));
+	}
+
+	/**
+	 * 读取Map的一个键并按字段名匹配，键的字节直接与{@link FieldMatcher}中的字段名比较，不创建String。不认识的键（包括不是字符串的键）连同其值一起跳过
+	 * 
+	 * @param matcher
+	 * @return 字段序号，下一个值即该字段的值；不认识的键返回{@link FieldMatcher#UNKNOWN}，此时值已经跳过
+	 * @throws IOException
+	 */
+	public int unpackField(FieldMatcher matcher) throws IOException {
+		if (null != stringDictionary && FamilyType.STRING == getNextFormat().getFamily()) {
+			// 字典模式下键总要解码以维护字典，引用的键直接是字典中的String
+			int ordinal = matcher.match(unpackString());
+			if (ordinal < 0) {
+				skipValue();
+			}
+			return ordinal;
+		}
+		if (null != stringDictionary && FamilyType.EXTENSION == getNextFormat().getFamily()) {
+			ExtensionTypeHeader extHeader = unpackExtensionTypeHeader();
+			String key = readDictionaryExtension(stringDictionary, extHeader);
+			int ordinal = null != key ? matcher.match(key) : FieldMatcher.UNKNOWN;
+			if (null == key) {
+				skipFully(extHeader.getLength());
+			}
+			if (ordinal < 0) {
+				skipValue();
+			}
+			return ordinal;
+		}
+		if (FamilyType.STRING != MPackFormat.valueOf(getNextCode()).getFamily()) {
+			skipValue(2);
+			return FieldMatcher.UNKNOWN;
+		}
+		int length = unpackRawStringHeader();
+		int ordinal = FieldMatcher.UNKNOWN;
+		if (length <= matcher.maxLength()) {
+			ByteBuffer buf;
+			if (in instanceof ByteBufferInputStream && (buf = ((ByteBufferInputStream) in).buffer()).hasArray()
+					&& buf.remaining() >= length) {
+				ordinal = matcher.match(buf.array(), buf.arrayOffset() + buf.position(), length);
+				skipFully(length);
+			} else {
+				byte[] key = textBuffer;
+				if (null == key || key.length < length) {
+					textBuffer = key = new byte[Math.max(TEXT_BUFFER_SIZE, length)];
+				}
+				readPayload(key, 0, length);
+				ordinal = matcher.match(key, 0, length);
+			}
+		} else {
+			skipFully(length);
+		}
+		if (ordinal < 0) {
+			skipValue();
+		}
+		return ordinal;
+	}
+
+	/**
+	 * 清空target后填入下一个Map的键值对
+	 * 
+	 * @param target
+	 * @return target
+	 * @throws IOException
+	 */
+	public <O extends Map<Object, Object>> O unpackMap(O target) throws IOException {
+		int mapSize = unpackMapHeader();
+		target.clear();
+		return unpackMap(target, mapSize);
+	}
+
 	public <O extends Map<Object, Object>> O unpackMap(O mapToUpdate, int count) throws IOException {
 		for (int i = 0; i < count; i++) {
 			Object key = unpack();
@@ -616,83 +1291,254 @@ public class MUnpacker extends FilterInputStream {
 	 * @return 返回调用者期待的类型的键值对，如果不明确类型不要做，因为是unchecked
 	 * @throws IOException
 	 */
-	@SafeVarargs
 	public Map<?, ?> unpackMap() throws IOException {
 		int mapSize = unpackMapHeader();
+		if ((options & OPT_READ_MAP_AS_COMPACT_MAP) > 0) {
+			if (mapSize > Integer.MAX_VALUE / 2) {
+				throw new MPackSizeException(mapSize);
+			}
+			int length = mapSize * 2;
+			Object[] kvs = new Object[Math.min(length, ContainerStack.MAX_INITIAL_CAPACITY)];
+			for (int i = 0; i < length; i++) {
+				if (i == kvs.length) {
+					kvs = Arrays.copyOf(kvs, Math.min(length, i << 1));
+				}
+				kvs[i] = unpack();
+			}
+			return ArrayMap.compactMapOf(kvs);
+		}
 		if (mapSize > 0) {
-			HashMap<Object, Object> map = new HashMap<Object, Object>(mapSize);
+			// 头部给出的大小不可信，不按它预先分配
+			HashMap<Object, Object> map = new HashMap<Object, Object>(Math.min(mapSize, ContainerStack.MAX_INITIAL_CAPACITY));
 			return unpackMap(map, mapSize);
 		}
 		return Collections.emptyMap();
 	}
 
 	public Object[] unpackArray() throws IOException {
-		int arraySize = unpackArrayHeader();
-		if (arraySize > 0) {
-			Object[] array = new Object[arraySize];
-			for (int i = 0; i < arraySize; i++) {
-				array[i] = unpack();
+		return readArrayElements(unpackArrayHeader());
+	}
+
+	/** 头部给出的大小不可信，数组随元素到达增长到这个大小 */
+	private Object[] readArrayElements(int arraySize) throws IOException {
+		if (0 == arraySize) {
+			return EMPTY_ARRAY;
+		}
+		Object[] array = new Object[Math.min(arraySize, ContainerStack.MAX_INITIAL_CAPACITY)];
+		for (int i = 0; i < arraySize; i++) {
+			if (i == array.length) {
+				array = Arrays.copyOf(array, Math.min(arraySize, i << 1));
 			}
-			return array;
+			array[i] = unpack();
 		}
-		return EMPTY_ARRAY;
+		return array;
 	}
 
 	public List<Object> unpackList() throws IOException {
 		return Arrays.asList(unpackArray());
 	}
 
+	/**
+	 * 读取下一个值填充到调用者的对象中，不创建新对象
+	 * 
+	 * @param target
+	 * @return target
+	 * @throws IOException
+	 */
+	public <T extends MPackReadable> T unpackInto(T target) throws IOException {
+		target.readFrom(this);
+		return target;
+	}
+
+	/**
+	 * 数组大小与reuse的长度相同时原地填入reuse，否则同{@link #unpackArray()}
+	 * 
+	 * @param reuse
+	 *          可以为null
+	 * @return
+	 * @throws IOException
+	 */
+	public Object[] unpackArray(Object[] reuse) throws IOException {
+		int arraySize = unpackArrayHeader();
+		if (null == reuse || reuse.length != arraySize) {
+			return readArrayElements(arraySize);
+		}
+		for (int i = 0; i < arraySize; i++) {
+			reuse[i] = unpack();
+		}
+		return reuse;
+	}
+
+	/**
+	 * 清空target后填入数组的元素，target（如{@link java.util.ArrayList}）的容量可以反复使用
+	 * 
+	 * @param target
+	 * @return target
+	 * @throws IOException
+	 */
+	public <L extends List<Object>> L unpackList(L target) throws IOException {
+		int arraySize = unpackArrayHeader();
+		target.clear();
+		for (int i = 0; i < arraySize; i++) {
+			target.add(unpack());
+		}
+		return target;
+	}
+
+	/**
+	 * 数组的元素逐个{@link #unpackInto(MPackReadable)}到target已有的元素中，不够的由factory创建，多出的元素删除
+	 * 
+	 * @param target
+	 * @param factory
+	 *          创建新元素
+	 * @return target
+	 * @throws IOException
+	 */
+	public <T extends MPackReadable, L extends List<T>> L unpackList(L target, Supplier<? extends T> factory)
+			throws IOException {
+		int arraySize = unpackArrayHeader();
+		int reused = Math.min(arraySize, target.size());
+		for (int i = 0; i < reused; i++) {
+			target.get(i).readFrom(this);
+		}
+		for (int i = reused; i < arraySize; i++) {
+			T element = factory.get();
+			element.readFrom(this);
+			target.add(element);
+		}
+		if (target.size() > arraySize) {
+			target.subList(arraySize, target.size()).clear();
+		}
+		return target;
+	}
+
+	/**
+	 * 读取{@link MPacker#packRecord(RecordDelta, Map)}打包的一条记录，在target上原地重建：不变的字段不解码，只有变化和新增的字段创建对象
+	 * 
+	 * @param delta
+	 *          这个流的解码状态
+	 * @param target
+	 *          可以反复使用，两次读取之间不能修改
+	 * @return target
+	 * @throws IOException
+	 */
+	public <M extends Map<Object, Object>> M unpackRecord(RecordDelta delta, M target) throws IOException {
+		return delta.read(this, target);
+	}
+
+	/**
+	 * 按结构描述读取以数组按位置编码的对象，见{@link MPacker#packStruct(StructCodec, Object)}
+	 * 
+	 * @param codec
+	 * @return NIL时为null
+	 * @throws IOException
+	 */
+	public <T> T unpackStruct(StructCodec<T> codec) throws IOException {
+		return unpackStruct(codec, null);
+	}
+
+	/**
+	 * 同{@link #unpackStruct(StructCodec)}，字段读入reuse，不创建新对象
+	 * 
+	 * @param codec
+	 * @param reuse
+	 *          可以为null
+	 * @return NIL时为null
+	 * @throws IOException
+	 */
+	public <T> T unpackStruct(StructCodec<T> codec, T reuse) throws IOException {
+		if (MPackFormat.NIL == getNextFormat()) {
+			return unpackNil();
+		}
+		return codec.read(this, reuse);
+	}
+
 	/**
 	 * 默认映射规则：NIL->null, BOOLEAN->Boolean, INTEGER->Number(UINT64->BigInteger, Other->Long), FLOAT->Double, STRING->String,
-	 * BINARY->byte[], ARRAY->Object[], MAP->Object[], EXTENSION->
+	 * BINARY->byte[], ARRAY->Object[], MAP->Object[]（{@link #OPT_READ_MAP_AS_COMPACT_MAP}时为{@link ArrayMap}或{@link OpenHashMap}），
+	 * EXTENSION->ExtensionValue（{@link #setExtensionRegistry(ExtensionRegistry)}中注册过的类型为编解码器给出的对象）。整数和浮点数的装箱可由{@link #OPT_MATCHED_INTEGER}，{@link #OPT_NARROW_INTEGER}，
+	 * {@link #OPT_SHARED_INTEGER}，{@link #OPT_UINT64_AS_UNSIGNED_LONG}，{@link #OPT_MATCHED_FLOAT}或{@link #PROFILE_LOW_MEMORY}改变，字符串可由
+	 * {@link #OPT_READ_STR_AS_UTF8}延迟解码。
+	 * <p/>
+	 * 不递归：数组和Map压入显式的容器栈（见{@link ContainerStack}），在一个循环中按序填充，嵌套再深也不会耗尽线程栈，嵌套深度可由
+	 * {@link #setMaxDepth(int)}限制。
 	 * 
 	 * @param options
 	 * @return
 	 * @throws IOException
 	 */
 	public Object unpack() throws IOException {
-		byte byteCode = getNextCode();// 先获取类型再调用其他unpack消耗
-		byte bFamilyType = MPackFormat.valueOf(byteCode).getFamily();
-		switch (bFamilyType) {
+		ContainerStack stack = containerStack;
+		if (null == stack || stack.depth() > 0) {
+			// 首次使用，或者在解码中被重入（如扩展类型的解码器里再解码一个值）
+			stack = new ContainerStack(options);
+			stack.setMaxDepth(maxDepth);
+			if (null == containerStack) {
+				containerStack = stack;
+			}
+		}
+		try {
+			for (;;) {
+				byte byteCode = getNextCode();// 先获取类型再调用其他unpack消耗
+				Object result;
+				switch (MPackFormat.valueOf(byteCode).getFamily()) {
+				case FamilyType.ARRAY:
+					result = stack.beginArray(unpackArrayHeader());
+					break;
+				case FamilyType.MAP:
+					result = stack.beginMap(unpackMapHeader());
+					break;
+				default:
+					result = stack.add(unpackScalar(byteCode));
+				}
+				if (ContainerStack.INCOMPLETE != result) {
+					return result;
+				}
+			}
+		} finally {
+			stack.clear();
+		}
+	}
+
+	/** 解码数组和Map以外的值 */
+	private Object unpackScalar(byte byteCode) throws IOException {
+		switch (MPackFormat.valueOf(byteCode).getFamily()) {
 		case FamilyType.NIL:
 			return unpackNil();
 		case FamilyType.BOOLEAN:
 			return unpackBoolean();
 		case FamilyType.INTEGER:
-			switch (byteCode) {
-			case ByteCode.UINT64:
-				return unpackBigInteger();
-			default:
-				return unpackLong();
-			}
+			return NumberBoxing.boxInteger(MPackFormat.valueOf(byteCode), readIntegerBits(readByte()), options);
 		case FamilyType.FLOAT:
-			return unpackDouble();
+			return NumberBoxing.boxFloat(MPackFormat.valueOf(byteCode), unpackDouble(), options);
 		case FamilyType.STRING: {
+			if (null != stringDictionary) {
+				return readDictionaryString(stringDictionary, Integer.MAX_VALUE);
+			}
 			int length = unpackRawStringHeader();
+			if ((options & (OPT_READ_STR_AS_BIN | OPT_READ_STR_AS_UTF8)) == OPT_READ_STR_AS_UTF8) {
+				return readUtf8String(length);
+			}
 			byte[] bs = readPayload(length);
-			return (options & OPT_READ_STR_AS_BIN) > 0 ? bs : new String(bs);
+			return (options & OPT_READ_STR_AS_BIN) > 0 ? bs : new String(bs, UTF_8);
 		}
 		case FamilyType.BINARY: {
 			int length = unpackBinaryHeader();
 			byte[] bs = readPayload(length);
-			return (options & OPT_READ_BIN_AS_STR) > 0 ? new String(bs) : bs;
-		}
-		case FamilyType.ARRAY: {
-			return (options & OPT_READ_ARRAY_AS_LIST) > 0 ? unpackList() : unpackArray();
-		}
-		case FamilyType.MAP: {
-			int size = unpackMapHeader();
-			Object[] kvs = new Object[size * 2];
-			for (int i = 0; i < size * 2;) {
-				kvs[i] = unpack();
-				i++;
-				kvs[i] = unpack();
-				i++;
-			}
-			return kvs;
+			return (options & OPT_READ_BIN_AS_STR) > 0 ? new String(bs, UTF_8) : bs;
 		}
 		case FamilyType.EXTENSION: {
 			ExtensionTypeHeader extHeader = unpackExtensionTypeHeader();
+			if (null != stringDictionary) {
+				String s = readDictionaryExtension(stringDictionary, extHeader);
+				if (null != s) {
+					return s;
+				}
+			}
+			ExtensionCodec<?> codec = null != extensionRegistry ? extensionRegistry.get(extHeader.getType()) : null;
+			if (null != codec) {
+				return readExtension(codec, extHeader.getLength());
+			}
 			return new ExtensionValueImpl(extHeader.getType(), readPayload(extHeader.getLength()));
 		}
 		default:
@@ -700,6 +1546,21 @@ public class MUnpacker extends FilterInputStream {
 		}
 	}
 
+	/**
+	 * 用编解码器读取扩展类型的负载，扩展头部已经读取。编解码器少读的字节跳过，多读则是格式错误
+	 */
+	private Object readExtension(ExtensionCodec<?> codec, int length) throws IOException {
+		long end = getReadPosition() + length;
+		Object value = codec.read(this, length);
+		long remaining = end - getReadPosition();
+		if (remaining < 0) {
+			throw new MPackFormatException(String.format("extension codec for type %d read %d bytes beyond the payload",
+					codec.getType(), -remaining));
+		}
+		skipFully(remaining);
+		return value;
+	}
+
 	/** maximum number of key-value associations of a Map object is (2^32)-1 */
 	public int unpackMapHeader() throws IOException {
 		byte b = readByte();
@@ -770,7 +1631,7 @@ public class MUnpacker extends FilterInputStream {
 		case ByteCode.FIXEXT16:
 			return new ExtensionTypeHeader(readByte(), 16);
 		case ByteCode.EXT8: {
-			int length = readUnsignedShort();
+			int length = readUnsignedByte();
 			byte type = readByte();
 			return new ExtensionTypeHeader(type, length);
 		}
@@ -789,7 +1650,25 @@ public class MUnpacker extends FilterInputStream {
 		throw unexpected("Ext", b);
 	}
 
-	// TODO returns a buffer reference to the payload (zero-copy)
+	/**
+	 * 读取负载，数据源为{@link ByteBufferInputStream}时返回其中的切片而不复制（因此会让整个缓冲区保持可达），否则复制到新的数组
+	 * 
+	 * @param length
+	 * @return 从position到limit为负载
+	 * @throws IOException
+	 */
+	public ByteBuffer readPayloadBuffer(int length) throws IOException {
+		if (in instanceof ByteBufferInputStream) {
+			ByteBuffer slice = ((ByteBufferInputStream) in).buffer().duplicate();
+			if (slice.remaining() < length) {
+				throw new EOFException("insufficient data length for reading the value of " + length);
+			}
+			slice.limit(slice.position() + length);
+			skipFully(length);
+			return slice;
+		}
+		return ByteBuffer.wrap(readPayload(length));
+	}
 
 	public void read(ByteBuffer dst) throws IOException {
 		throw new UnsupportedOperationException("hasn't been implemented");
@@ -812,10 +1691,7 @@ public class MUnpacker extends FilterInputStream {
 	 */
 	public byte[] readPayload(int length) throws IOException {
 		byte[] newArray = new byte[length];
-		int nReadedBytes = read(newArray, 0, length);
-		if (nReadedBytes < length) {
-			throw new EOFException();
-		}
+		readPayload(newArray, 0, length);
 		return newArray;
 	}
 
@@ -824,7 +1700,8 @@ public class MUnpacker extends FilterInputStream {
 	}
 
 	public void readPayload(byte[] buf, int off, int len) throws IOException {
-		if (super.read(buf, off, len) < 0)
+		nextByte = NEXT_DIRTY;
+		if (readFully(buf, off, len) < len)
 			throw new EOFException();
 	}
 
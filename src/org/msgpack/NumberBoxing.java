@@ -0,0 +1,112 @@
+package org.msgpack;
+
+import java.math.BigInteger;
+
+/**
+ * 解码时整数和浮点数的装箱规则，{@link MUnpacker}和{@link MFeedUnpacker}共用，见{@link MUnpacker#OPT_MATCHED_INTEGER}，
+ * {@link MUnpacker#OPT_NARROW_INTEGER}，{@link MUnpacker#OPT_SHARED_INTEGER}，{@link MUnpacker#OPT_UINT64_AS_UNSIGNED_LONG}和{@link MUnpacker#OPT_MATCHED_FLOAT}。
+ *
+ * @author fangss
+ *
+ */
+final class NumberBoxing {
+	private NumberBoxing() {
+	}
+
+	/**
+	 * @param format
+	 *          整数族的格式
+	 * @param bits
+	 *          整数值，UINT64为原始的64位（大于{@link Long#MAX_VALUE}时为负数）
+	 * @param options
+	 * @return
+	 */
+	static Object boxInteger(MPackFormat format, long bits, int options) {
+		if (MPackFormat.UINT64 == format && (options & MUnpacker.OPT_UINT64_AS_UNSIGNED_LONG) > 0) {
+			return UnsignedLong.valueOf(bits);
+		}
+		if (MPackFormat.UINT64 == format && bits < 0L) {
+			return toUnsignedBigInteger(bits);
+		}
+		if ((options & MUnpacker.OPT_NARROW_INTEGER) > 0) {
+			// 不能写成条件表达式，Integer和Long会被拆箱提升为long
+			if ((int) bits == bits) {
+				return boxInt((int) bits, options);
+			}
+			return boxLong(bits, options);
+		}
+		if ((options & MUnpacker.OPT_MATCHED_INTEGER) > 0) {
+			switch (format) {
+			case POSFIXINT:
+			case NEGFIXINT:
+			case INT8:
+				return Byte.valueOf((byte) bits);
+			case UINT8:
+			case INT16:
+				return Short.valueOf((short) bits);
+			case UINT16:
+			case INT32:
+				return boxInt((int) bits, options);
+			case UINT32:
+			case INT64:
+				return boxLong(bits, options);
+			default:
+				return BigInteger.valueOf(bits);
+			}
+		}
+		if (MPackFormat.UINT64 == format) {
+			return BigInteger.valueOf(bits);
+		}
+		return boxLong(bits, options);
+	}
+
+	static Object boxFloat(MPackFormat format, double value, int options) {
+		if (MPackFormat.FLOAT32 == format && (options & MUnpacker.OPT_MATCHED_FLOAT) > 0) {
+			return Float.valueOf((float) value);
+		}
+		return Double.valueOf(value);
+	}
+
+	static double unsignedToDouble(long u64) {
+		if (u64 >= 0L) {
+			return u64;
+		}
+		// 右移一位保留最低位的舍入信息，再乘2
+		return ((u64 >>> 1) | (u64 & 1L)) * 2.0;
+	}
+
+	static BigInteger toUnsignedBigInteger(long u64) {
+		if (u64 >= 0L) {
+			return BigInteger.valueOf(u64);
+		}
+		return BigInteger.valueOf(u64 + Long.MAX_VALUE + 1L).setBit(63);
+	}
+
+	private static Integer boxInt(int v, int options) {
+		if ((options & MUnpacker.OPT_SHARED_INTEGER) > 0 && v >= SharedCache.LOW && v <= SharedCache.HIGH) {
+			return SharedCache.INTEGERS[v - SharedCache.LOW];
+		}
+		return Integer.valueOf(v);
+	}
+
+	private static Long boxLong(long v, int options) {
+		if ((options & MUnpacker.OPT_SHARED_INTEGER) > 0 && v >= SharedCache.LOW && v <= SharedCache.HIGH) {
+			return SharedCache.LONGS[(int) v - SharedCache.LOW];
+		}
+		return Long.valueOf(v);
+	}
+
+	/** 比JDK自带的-128到127更大范围的共享实例，第一次使用{@link MUnpacker#OPT_SHARED_INTEGER}时才创建 */
+	private static class SharedCache {
+		static final int LOW = -1024;
+		static final int HIGH = 16383;
+		static final Integer[] INTEGERS = new Integer[HIGH - LOW + 1];
+		static final Long[] LONGS = new Long[HIGH - LOW + 1];
+		static {
+			for (int i = 0; i < INTEGERS.length; i++) {
+				INTEGERS[i] = Integer.valueOf(i + LOW);
+				LONGS[i] = Long.valueOf(i + LOW);
+			}
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package org.msgpack;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 面向读取的开放寻址哈希Map：键值交替存放在一个数组中，线性探测，删除时后移填补空位而不留墓碑。没有{@link java.util.HashMap}那样每个键值对一个的Entry对象，
+ * 同样元素个数占用的内存少得多，查找时访问的内存也连续。
+ * <p/>
+ * 遍历时的{@link Iterator#remove()}同样后移删除，然后重新检查当前槽位，后面的元素移过来也不会漏掉。
+ *
+ * @author fangss
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class OpenHashMap<K, V> extends AbstractMap<K, V> {
+	/** 代替null键，空槽位为null */
+	private static final Object NULL_KEY = new Object();
+
+	/** 槽位i的键在2*i，值在2*i+1 */
+	private Object[] table;
+	/** 槽位个数-1，槽位个数为2的幂 */
+	private int mask;
+	private int size;
+	/** 元素个数达到这个值时扩容，负载因子3/4 */
+	private int threshold;
+
+	private Set<Map.Entry<K, V>> entrySet;
+
+	public OpenHashMap() {
+		this(8);
+	}
+
+	public OpenHashMap(int expectedSize) {
+		int capacity = 4;
+		while (capacity - (capacity >>> 2) < expectedSize) {
+			if (capacity >= 1 << 29) {
+				throw new IllegalArgumentException("too many elements: " + expectedSize);
+			}
+			capacity <<= 1;
+		}
+		init(capacity);
+	}
+
+	private void init(int capacity) {
+		table = new Object[capacity << 1];
+		mask = capacity - 1;
+		threshold = capacity - (capacity >>> 2);
+	}
+
+	private static Object maskNull(Object key) {
+		return null == key ? NULL_KEY : key;
+	}
+
+	private static Object unmaskNull(Object key) {
+		return NULL_KEY == key ? null : key;
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode() * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	/** @return 槽位，不存在返回-1 */
+	private int slotOf(Object key) {
+		Object k = maskNull(key);
+		int i = hash(k) & mask;
+		for (;;) {
+			Object cur = table[i << 1];
+			if (null == cur) {
+				return -1;
+			}
+			if (cur == k || cur.equals(k)) {
+				return i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return slotOf(key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		int i = slotOf(key);
+		return i >= 0 ? (V) table[(i << 1) + 1] : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V put(K key, V value) {
+		Object k = maskNull(key);
+		int i = hash(k) & mask;
+		for (;;) {
+			Object cur = table[i << 1];
+			if (null == cur) {
+				break;
+			}
+			if (cur == k || cur.equals(k)) {
+				Object old = table[(i << 1) + 1];
+				table[(i << 1) + 1] = value;
+				return (V) old;
+			}
+			i = (i + 1) & mask;
+		}
+		if (size >= threshold) {
+			resize();
+			i = hash(k) & mask;
+			while (null != table[i << 1]) {
+				i = (i + 1) & mask;
+			}
+		}
+		table[i << 1] = k;
+		table[(i << 1) + 1] = value;
+		size++;
+		return null;
+	}
+
+	private void resize() {
+		Object[] old = table;
+		if (mask + 1 >= 1 << 29) {
+			throw new IllegalStateException("too many elements: " + size);
+		}
+		init((mask + 1) << 1);
+		for (int j = 0; j < old.length; j += 2) {
+			Object k = old[j];
+			if (null != k) {
+				int i = hash(k) & mask;
+				while (null != table[i << 1]) {
+					i = (i + 1) & mask;
+				}
+				table[i << 1] = k;
+				table[(i << 1) + 1] = old[j + 1];
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V remove(Object key) {
+		int i = slotOf(key);
+		if (i < 0) {
+			return null;
+		}
+		Object old = table[(i << 1) + 1];
+		removeSlot(i, null);
+		return (V) old;
+	}
+
+	/**
+	 * 后移删除：把探测链上后面的、理想位置不在(gap, j]之间的元素移到空位
+	 *
+	 * @param moved
+	 *          非null时记录从槽位i之前（探测链绕回表头）移到i或之后的键，按槽位顺序遍历时它们已经返回过
+	 */
+	private void removeSlot(int i, List<Object> moved) {
+		int gap = i;
+		int j = i;
+		for (;;) {
+			j = (j + 1) & mask;
+			Object k = table[j << 1];
+			if (null == k) {
+				break;
+			}
+			int ideal = hash(k) & mask;
+			if (gap <= j ? (ideal <= gap || ideal > j) : (ideal <= gap && ideal > j)) {
+				if (null != moved && j < i && gap >= i) {
+					moved.add(k);
+				}
+				table[gap << 1] = k;
+				table[(gap << 1) + 1] = table[(j << 1) + 1];
+				gap = j;
+			}
+		}
+		table[gap << 1] = null;
+		table[(gap << 1) + 1] = null;
+		size--;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(table, null);
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		Set<Map.Entry<K, V>> es = entrySet;
+		if (null == es) {
+			entrySet = es = new AbstractSet<Map.Entry<K, V>>() {
+				@Override
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return es;
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		/** 下一个非空槽位 */
+		int next = advance(0);
+		/** 上次返回的槽位，-1表示没有或者已经删除 */
+		int last = -1;
+		/** 删除时从已遍历的位置移到后面的键，遇到时跳过 */
+		List<Object> moved;
+
+		int advance(int i) {
+			while (i <= mask && (null == table[i << 1] || isMoved(table[i << 1]))) {
+				i++;
+			}
+			return i;
+		}
+
+		boolean isMoved(Object k) {
+			if (null != moved) {
+				for (int m = 0; m < moved.size(); m++) {
+					if (moved.get(m) == k) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next <= mask;
+		}
+
+		@Override
+		public Map.Entry<K, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			next = advance(last + 1);
+			return new Entry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			if (null == moved) {
+				moved = new ArrayList<Object>(2);
+			}
+			removeSlot(last, moved);
+			// 后面的元素可能移到了当前槽位
+			next = advance(last);
+			last = -1;
+		}
+	}
+
+	/** 读写直接落在表上，扩容或删除后失效 */
+	private class Entry implements Map.Entry<K, V> {
+		final int slot;
+
+		Entry(int slot) {
+			this.slot = slot;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public K getKey() {
+			return (K) unmaskNull(table[slot << 1]);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V getValue() {
+			return (V) table[(slot << 1) + 1];
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V setValue(V value) {
+			Object old = table[(slot << 1) + 1];
+			table[(slot << 1) + 1] = value;
+			return (V) old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object k = getKey(), v = getValue();
+			return (null == k ? null == e.getKey() : k.equals(e.getKey()))
+					&& (null == v ? null == e.getValue() : v.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object k = getKey(), v = getValue();
+			return (null == k ? 0 : k.hashCode()) ^ (null == v ? 0 : v.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.msgpack.ByteCode.FamilyType;
+
+/**
+ * 记录级别的差分编码：连续的Map记录（如变更流）往往只有几个字段不同，除了第一条，每条记录只打包与上一条的差别。
+ * <p/>
+ * 两边按同样的顺序保存上一条记录的键（槽位），一条记录打包为以下之一：
+ * <ul>
+ * <li>Map：完整的记录（关键帧），两边以它重新开始</li>
+ * <li>4个元素的数组：<code>[bin 未变位图, array 删除的槽位, array 变化的值, map 新增的键值对]</code>。位图中第i位（第i/8字节的第i%8位）为1表示槽位i的值没变；
+ * 删除的槽位升序排列；其余槽位的值变了，新值按槽位顺序排列。删除的槽位移除后后面的前移，新增的键按顺序追加在最后</li>
+ * </ul>
+ * 键没有变化时一条记录只需要位图和变化的值。解码时在调用者的Map上原地重建：只有变化和新增的字段需要解码，不变的字段不碰。
+ * <p/>
+ * 编码方和解码方各用一个实例，它保存的是流的状态。编码方按引用保存上一条的值，用equals（数组按内容）比较，所以值在打包后不能再修改；
+ * 解码方同一个目标Map在两次读取之间也不能修改，换了目标Map会重新放入所有字段。
+ *
+ * <pre>
+ * RecordDelta out = new RecordDelta();
+ * for (Map&lt;String, Object&gt; row : rows) {
+ * 	packer.packRecord(out, row);
+ * }
+ *
+ * RecordDelta in = new RecordDelta();
+ * Map&lt;Object, Object&gt; row = new OpenHashMap&lt;Object, Object&gt;();
+ * while (unpacker.hasNext()) {
+ * 	unpacker.unpackRecord(in, row);
+ * }
+ * </pre>
+ *
+ * @author fangss
+ *
+ */
+public class RecordDelta {
+	private static final int DELTA_ARRAY_SIZE = 4;
+
+	/** 上一条记录的键和值，按槽位 */
+	private Object[] keys = new Object[8];
+	private Object[] values = new Object[8];
+	private int size;
+	/** 还没有关键帧 */
+	private boolean started;
+	private boolean keyFramePending;
+	private int keyFrameInterval;
+	/** 上次关键帧后的记录数 */
+	private int deltaCount;
+
+	/** 编码方：键到槽位，键的集合变化后延迟重建 */
+	private OpenHashMap<Object, Integer> slotIndex;
+	private boolean slotIndexDirty = true;
+
+	private byte[] bitmap = new byte[1];
+	private int[] removed = new int[4];
+	private int[] changed = new int[8];
+	private Object[] added = new Object[8];
+
+	/** 解码方：上次重建的目标 */
+	private Map<Object, Object> lastTarget;
+
+	public int getKeyFrameInterval() {
+		return keyFrameInterval;
+	}
+
+	/**
+	 * 只对编码方有效
+	 *
+	 * @param keyFrameInterval
+	 *          每这么多条记录打包一条完整的，从中途开始读的解码方可以在关键帧处开始；0（默认）只有第一条和{@link #reset()}之后的是完整的
+	 * @return
+	 */
+	public RecordDelta setKeyFrameInterval(int keyFrameInterval) {
+		this.keyFrameInterval = keyFrameInterval;
+		return this;
+	}
+
+	/** 编码方：下一条记录打包为完整的 */
+	public void reset() {
+		keyFramePending = true;
+	}
+
+	/**
+	 * 打包一条记录，见{@link MPacker#packRecord(RecordDelta, Map)}
+	 *
+	 * @param packer
+	 * @param record
+	 * @throws IOException
+	 */
+	public void write(MPacker packer, Map<?, ?> record) throws IOException {
+		if (!started || keyFramePending || (keyFrameInterval > 0 && deltaCount >= keyFrameInterval)) {
+			writeKeyFrame(packer, record);
+			return;
+		}
+		int n = size;
+		int bitmapLength = (n + 7) >>> 3;
+		byte[] bits = bitmap(bitmapLength);
+		int removedCount = 0, changedCount = 0, present = 0;
+		for (int i = 0; i < n; i++) {
+			Object key = keys[i];
+			Object value = record.get(key);
+			if (null == value && !record.containsKey(key)) {
+				removed = ensure(removed, removedCount);
+				removed[removedCount++] = i;
+				continue;
+			}
+			present++;
+			if (valueEquals(value, values[i])) {
+				bits[i >>> 3] |= 1 << (i & 7);
+			} else {
+				changed = ensure(changed, changedCount);
+				changed[changedCount++] = i;
+				values[i] = value;
+			}
+		}
+		int addedCount = 0;
+		if (record.size() > present) {
+			OpenHashMap<Object, Integer> index = slotIndex();
+			for (Map.Entry<?, ?> e : record.entrySet()) {
+				if (!index.containsKey(e.getKey())) {
+					if (addedCount + 2 > added.length) {
+						added = Arrays.copyOf(added, added.length << 1);
+					}
+					added[addedCount++] = e.getKey();
+					added[addedCount++] = e.getValue();
+				}
+			}
+			addedCount >>>= 1;
+		}
+		if (removedCount + addedCount >= n) {
+			// 键几乎全换了，差分不会更小
+			writeKeyFrame(packer, record);
+			return;
+		}
+		packer.packArrayHeader(DELTA_ARRAY_SIZE);
+		packer.packBinaryHeader(bitmapLength);
+		packer.write(bits, 0, bitmapLength);
+		packer.packArrayHeader(removedCount);
+		for (int i = 0; i < removedCount; i++) {
+			packer.packInt(removed[i]);
+		}
+		packer.packArrayHeader(changedCount);
+		for (int i = 0; i < changedCount; i++) {
+			packer.pack(values[changed[i]]);
+		}
+		packer.packMapHeader(addedCount);
+		for (int i = 0; i < addedCount << 1; i++) {
+			packer.pack(added[i]);
+		}
+		removeSlots(removedCount);
+		for (int i = 0; i < addedCount << 1; i += 2) {
+			append(added[i], added[i + 1]);
+		}
+		Arrays.fill(added, 0, addedCount << 1, null);
+		if (removedCount + addedCount > 0) {
+			slotIndexDirty = true;
+		}
+		deltaCount++;
+	}
+
+	private void writeKeyFrame(MPacker packer, Map<?, ?> record) throws IOException {
+		clear();
+		packer.packMapHeader(record.size());
+		for (Map.Entry<?, ?> e : record.entrySet()) {
+			packer.pack(e.getKey());
+			packer.pack(e.getValue());
+			append(e.getKey(), e.getValue());
+		}
+		started = true;
+		keyFramePending = false;
+	}
+
+	/**
+	 * 读取一条记录，在target上原地重建，见{@link MUnpacker#unpackRecord(RecordDelta, Map)}
+	 *
+	 * @param unpacker
+	 * @param target
+	 *          同一个target在两次读取之间不能修改
+	 * @return target
+	 * @throws IOException
+	 */
+	public <M extends Map<Object, Object>> M read(MUnpacker unpacker, M target) throws IOException {
+		if (FamilyType.MAP == unpacker.getNextFormat().getFamily()) {
+			clear();
+			target.clear();
+			int n = unpacker.unpackMapHeader();
+			for (int i = 0; i < n; i++) {
+				Object key = unpacker.unpack();
+				Object value = unpacker.unpack();
+				append(key, value);
+				target.put(key, value);
+			}
+			started = true;
+			lastTarget = target;
+			return target;
+		}
+		int arraySize = unpacker.unpackArrayHeader();
+		if (DELTA_ARRAY_SIZE != arraySize) {
+			throw new MPackFormatException("expected a record delta of 4 elements, but got " + arraySize);
+		}
+		if (!started) {
+			throw new MPackFormatException("record delta without a preceding full record");
+		}
+		int n = size;
+		int bitmapLength = unpacker.unpackBinaryHeader();
+		if (bitmapLength != (n + 7) >>> 3) {
+			throw new MPackFormatException(String.format("bitmap of %d bytes for %d slots", bitmapLength, n));
+		}
+		byte[] bits = bitmap(bitmapLength);
+		unpacker.readPayload(bits, 0, bitmapLength);
+		int removedCount = unpacker.unpackArrayHeader();
+		int last = -1;
+		for (int i = 0; i < removedCount; i++) {
+			removed = ensure(removed, i);
+			int slot = unpacker.unpackInt();
+			if (slot <= last || slot >= n || unchanged(bits, slot)) {
+				throw new MPackFormatException("invalid removed slot " + slot);
+			}
+			removed[i] = last = slot;
+		}
+		boolean refill = target != lastTarget;
+		if (refill) {
+			target.clear();
+		}
+		int changedCount = unpacker.unpackArrayHeader();
+		int r = 0, c = 0;
+		for (int i = 0; i < n; i++) {
+			if (unchanged(bits, i)) {
+				if (refill) {
+					target.put(keys[i], values[i]);
+				}
+			} else if (r < removedCount && removed[r] == i) {
+				r++;
+				if (!refill) {
+					target.remove(keys[i]);
+				}
+			} else {
+				if (c++ == changedCount) {
+					throw new MPackFormatException("fewer changed values than changed slots: " + changedCount);
+				}
+				values[i] = unpacker.unpack();
+				target.put(keys[i], values[i]);
+			}
+		}
+		if (c != changedCount) {
+			throw new MPackFormatException(String.format("%d changed values for %d changed slots", changedCount, c));
+		}
+		removeSlots(removedCount);
+		int addedCount = unpacker.unpackMapHeader();
+		for (int i = 0; i < addedCount; i++) {
+			Object key = unpacker.unpack();
+			Object value = unpacker.unpack();
+			append(key, value);
+			target.put(key, value);
+		}
+		lastTarget = target;
+		return target;
+	}
+
+	private static boolean unchanged(byte[] bits, int slot) {
+		return (bits[slot >>> 3] & (1 << (slot & 7))) != 0;
+	}
+
+	private static boolean valueEquals(Object a, Object b) {
+		if (a == b) {
+			return true;
+		}
+		if (null == a || null == b) {
+			return false;
+		}
+		if (a instanceof byte[] && b instanceof byte[]) {
+			return Arrays.equals((byte[]) a, (byte[]) b);
+		}
+		if (a instanceof Object[] && b instanceof Object[]) {
+			return Arrays.deepEquals((Object[]) a, (Object[]) b);
+		}
+		return a.equals(b);
+	}
+
+	/** @return 清零的位图 */
+	private byte[] bitmap(int length) {
+		if (bitmap.length < length) {
+			bitmap = new byte[Math.max(length, bitmap.length << 1)];
+		} else {
+			Arrays.fill(bitmap, 0, length, (byte) 0);
+		}
+		return bitmap;
+	}
+
+	private static int[] ensure(int[] a, int index) {
+		return index < a.length ? a : Arrays.copyOf(a, a.length << 1);
+	}
+
+	private OpenHashMap<Object, Integer> slotIndex() {
+		if (slotIndexDirty) {
+			if (null == slotIndex) {
+				slotIndex = new OpenHashMap<Object, Integer>(size);
+			} else {
+				slotIndex.clear();
+			}
+			for (int i = 0; i < size; i++) {
+				slotIndex.put(keys[i], Integer.valueOf(i));
+			}
+			slotIndexDirty = false;
+		}
+		return slotIndex;
+	}
+
+	/** 移除removed中升序的槽位，后面的前移 */
+	private void removeSlots(int removedCount) {
+		if (0 == removedCount) {
+			return;
+		}
+		int w = removed[0];
+		for (int i = w, r = 0; i < size; i++) {
+			if (r < removedCount && removed[r] == i) {
+				r++;
+			} else {
+				keys[w] = keys[i];
+				values[w++] = values[i];
+			}
+		}
+		Arrays.fill(keys, w, size, null);
+		Arrays.fill(values, w, size, null);
+		size = w;
+	}
+
+	private void append(Object key, Object value) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size << 1);
+			values = Arrays.copyOf(values, size << 1);
+		}
+		keys[size] = key;
+		values[size++] = value;
+	}
+
+	private void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		deltaCount = 0;
+		slotIndexDirty = true;
+	}
+}
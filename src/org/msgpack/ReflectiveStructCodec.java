@@ -0,0 +1,315 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * 通过反射按{@link Schema}读写对象的字段。基本类型的字段用{@link Field#getLong(Object)}等直接读写，不装箱。<br>
+ * 需要无参构造方法（可以是私有的）；final和static的字段不支持。byte、short和char（及其包装类）的字段对应{@link Schema.Type#INT}，读取时超出范围抛出{@link MPackFormatException}。
+ *
+ * @author fangss
+ *
+ * @param <T>
+ */
+public class ReflectiveStructCodec<T> implements StructCodec<T> {
+	private final Class<T> type;
+	private final Schema schema;
+	/** 按字段位置 */
+	private final Field[] fields;
+	private final Constructor<T> constructor;
+
+	/**
+	 * @param type
+	 * @param schema
+	 *          字段名为类（或父类）中的字段名
+	 * @throws IllegalArgumentException
+	 *           字段不存在或类型与类型提示不符
+	 */
+	public ReflectiveStructCodec(Class<T> type, Schema schema) {
+		this.type = type;
+		this.schema = schema;
+		fields = new Field[schema.size()];
+		for (int i = 0; i < fields.length; i++) {
+			Schema.Field sf = schema.getField(i);
+			Field f = findField(type, sf.getName());
+			if (!accepts(sf.getType(), f.getType())) {
+				throw new IllegalArgumentException(String.format("field %s.%s of %s does not match %s", type.getName(),
+						f.getName(), f.getType().getName(), sf.getType()));
+			}
+			fields[i] = f;
+		}
+		try {
+			constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalArgumentException(type.getName() + " has no no-arg constructor", e);
+		}
+	}
+
+	/**
+	 * 按类中声明的实例字段（不包括父类、static、final和transient的）的顺序推导结构描述：第一个引用类型的字段之前的基本类型字段为必需，之后都为可选。
+	 * 字段的增删和重排都会改变编码，需要长期兼容时请显式给出{@link Schema}
+	 * 
+	 * @param type
+	 * @return
+	 */
+	public static <T> ReflectiveStructCodec<T> of(Class<T> type) {
+		Schema schema = new Schema(type.getName());
+		boolean optional = false;
+		for (Field f : type.getDeclaredFields()) {
+			int m = f.getModifiers();
+			if (Modifier.isStatic(m) || Modifier.isFinal(m) || Modifier.isTransient(m) || f.isSynthetic()) {
+				continue;
+			}
+			Schema.Type t = typeOf(f.getType());
+			optional |= !f.getType().isPrimitive();
+			if (optional) {
+				schema.addOptional(f.getName(), t);
+			} else {
+				schema.add(f.getName(), t);
+			}
+		}
+		return new ReflectiveStructCodec<T>(type, schema);
+	}
+
+	private static Schema.Type typeOf(Class<?> c) {
+		if (boolean.class == c || Boolean.class == c) {
+			return Schema.Type.BOOLEAN;
+		} else if (int.class == c || Integer.class == c || byte.class == c || Byte.class == c || short.class == c
+				|| Short.class == c || char.class == c || Character.class == c) {
+			return Schema.Type.INT;
+		} else if (long.class == c || Long.class == c) {
+			return Schema.Type.LONG;
+		} else if (float.class == c || Float.class == c) {
+			return Schema.Type.FLOAT;
+		} else if (double.class == c || Double.class == c) {
+			return Schema.Type.DOUBLE;
+		} else if (String.class == c) {
+			return Schema.Type.STRING;
+		} else if (byte[].class == c) {
+			return Schema.Type.BINARY;
+		}
+		return Schema.Type.ANY;
+	}
+
+	private static boolean accepts(Schema.Type t, Class<?> c) {
+		return Schema.Type.ANY == t ? !c.isPrimitive() : typeOf(c) == t;
+	}
+
+	private static Field findField(Class<?> type, String name) {
+		for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+			try {
+				Field f = c.getDeclaredField(name);
+				int m = f.getModifiers();
+				if (Modifier.isStatic(m) || Modifier.isFinal(m)) {
+					throw new IllegalArgumentException("static or final field is not supported: " + name);
+				}
+				f.setAccessible(true);
+				return f;
+			} catch (NoSuchFieldException e) {
+				// 继续找父类
+			}
+		}
+		throw new IllegalArgumentException("no field " + name + " in " + type.getName());
+	}
+
+	@Override
+	public Schema getSchema() {
+		return schema;
+	}
+
+	@Override
+	public void write(MPacker packer, T value) throws IOException {
+		try {
+			int count = fields.length;
+			while (count > schema.getRequiredCount() && !fields[count - 1].getType().isPrimitive()
+					&& null == fields[count - 1].get(value)) {
+				count--;
+			}
+			packer.packArrayHeader(count);
+			for (int i = 0; i < count; i++) {
+				writeField(packer, schema.getField(i).getType(), fields[i], value);
+			}
+		} catch (IllegalAccessException e) {
+			throw new MPackException("cannot access " + type.getName(), e);
+		}
+	}
+
+	private static void writeField(MPacker packer, Schema.Type t, Field f, Object obj) throws IOException,
+			IllegalAccessException {
+		if (f.getType().isPrimitive()) {
+			switch (t) {
+			case BOOLEAN:
+				packer.packBoolean(f.getBoolean(obj));
+				return;
+			case INT:
+				packer.packInt(f.getInt(obj));
+				return;
+			case LONG:
+				packer.packLong(f.getLong(obj));
+				return;
+			case FLOAT:
+				packer.packFloat(f.getFloat(obj));
+				return;
+			case DOUBLE:
+				packer.packDouble(f.getDouble(obj));
+				return;
+			default:
+				break;
+			}
+		}
+		Object v = f.get(obj);
+		if (null == v) {
+			packer.packNil();
+			return;
+		}
+		switch (t) {
+		case INT:
+			packer.packInt(v instanceof Character ? ((Character) v).charValue() : ((Number) v).intValue());
+			break;
+		case STRING:
+			packer.packString((String) v);
+			break;
+		case BINARY:
+			byte[] bs = (byte[]) v;
+			packer.packBinaryHeader(bs.length);
+			packer.write(bs);
+			break;
+		default:
+			// 装箱的数值和布尔值同样由pack(Object)按类型打包
+			packer.pack(v);
+		}
+	}
+
+	@Override
+	public T read(MUnpacker unpacker, T reuse) throws IOException {
+		int n = unpacker.unpackArrayHeader();
+		if (n < schema.getRequiredCount()) {
+			throw new MPackFormatException(String.format("%s requires %d fields, but got %d", schema.getName(),
+					schema.getRequiredCount(), n));
+		}
+		try {
+			T obj = null != reuse ? reuse : constructor.newInstance();
+			int present = Math.min(n, fields.length);
+			for (int i = 0; i < present; i++) {
+				readField(unpacker, schema.getField(i).getType(), fields[i], obj);
+			}
+			for (int i = present; i < fields.length; i++) {
+				resetField(fields[i], obj);
+			}
+			if (n > fields.length) {
+				// 更新的结构描述写入的字段
+				unpacker.skipValue(n - fields.length);
+			}
+			return obj;
+		} catch (ReflectiveOperationException e) {
+			throw new MPackException("cannot instantiate or access " + type.getName(), e);
+		}
+	}
+
+	private static void readField(MUnpacker unpacker, Schema.Type t, Field f, Object obj) throws IOException,
+			IllegalAccessException {
+		Class<?> c = f.getType();
+		if (c.isPrimitive()) {
+			switch (t) {
+			case BOOLEAN:
+				f.setBoolean(obj, unpacker.unpackBoolean());
+				return;
+			case INT:
+				int v = unpacker.unpackInt();
+				if (int.class == c) {
+					f.setInt(obj, v);
+				} else if (byte.class == c) {
+					f.setByte(obj, (byte) checkRange(f, v, Byte.MIN_VALUE, Byte.MAX_VALUE));
+				} else if (short.class == c) {
+					f.setShort(obj, (short) checkRange(f, v, Short.MIN_VALUE, Short.MAX_VALUE));
+				} else {
+					f.setChar(obj, (char) checkRange(f, v, Character.MIN_VALUE, Character.MAX_VALUE));
+				}
+				return;
+			case LONG:
+				f.setLong(obj, unpacker.unpackLong());
+				return;
+			case FLOAT:
+				f.setFloat(obj, unpacker.unpackFloat());
+				return;
+			case DOUBLE:
+				f.setDouble(obj, unpacker.unpackDouble());
+				return;
+			default:
+				break;
+			}
+		}
+		if (MPackFormat.NIL == unpacker.getNextFormat()) {
+			unpacker.unpackNil();
+			f.set(obj, null);
+			return;
+		}
+		switch (t) {
+		case BOOLEAN:
+			f.set(obj, unpacker.unpackBoolean());
+			break;
+		case INT:
+			f.set(obj, boxInt(f, unpacker.unpackInt()));
+			break;
+		case LONG:
+			f.set(obj, unpacker.unpackLong());
+			break;
+		case FLOAT:
+			f.set(obj, unpacker.unpackFloat());
+			break;
+		case DOUBLE:
+			f.set(obj, unpacker.unpackDouble());
+			break;
+		case STRING:
+			f.set(obj, unpacker.unpackString());
+			break;
+		case BINARY:
+			f.set(obj, unpacker.readPayload(unpacker.unpackBinaryHeader()));
+			break;
+		default:
+			f.set(obj, unpacker.unpack());
+		}
+	}
+
+	/** 按字段的包装类装箱 */
+	private static Object boxInt(Field f, int v) {
+		Class<?> c = f.getType();
+		if (Byte.class == c) {
+			return Byte.valueOf((byte) checkRange(f, v, Byte.MIN_VALUE, Byte.MAX_VALUE));
+		} else if (Short.class == c) {
+			return Short.valueOf((short) checkRange(f, v, Short.MIN_VALUE, Short.MAX_VALUE));
+		} else if (Character.class == c) {
+			return Character.valueOf((char) checkRange(f, v, Character.MIN_VALUE, Character.MAX_VALUE));
+		}
+		return Integer.valueOf(v);
+	}
+
+	private static int checkRange(Field f, int v, int min, int max) {
+		if (v < min || v > max) {
+			throw new MPackFormatException(String.format("value %d out of range of field %s (%s)", v, f.getName(),
+					f.getType().getName()));
+		}
+		return v;
+	}
+
+	private static void resetField(Field f, Object obj) throws IllegalAccessException {
+		Class<?> c = f.getType();
+		if (!c.isPrimitive()) {
+			f.set(obj, null);
+		} else if (boolean.class == c) {
+			f.setBoolean(obj, false);
+		} else if (byte.class == c) {
+			f.setByte(obj, (byte) 0);
+		} else if (short.class == c) {
+			f.setShort(obj, (short) 0);
+		} else if (char.class == c) {
+			f.setChar(obj, (char) 0);
+		} else {
+			// int、long、float和double都可以从int 0拓宽
+			f.setInt(obj, 0);
+		}
+	}
+}
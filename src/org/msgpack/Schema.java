@@ -0,0 +1,123 @@
+package org.msgpack;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 记录的结构描述：字段的顺序、名字、类型提示和是否可选。按结构描述编码的记录是按位置排列的数组而不是Map，不重复字段名，解码时也不需要匹配键，见
+ * {@link StructCodec}。
+ * <p/>
+ * 可选字段只能在必需字段之后；末尾取值为null的可选字段编码时省略，数组因此变短。新增字段加在末尾（作为可选字段），旧的数据仍能解码，旧的解码器跳过多出的字段。
+ *
+ * @author fangss
+ *
+ */
+public class Schema {
+	/** 字段值的类型提示，决定用哪个pack和unpack方法 */
+	public enum Type {
+		BOOLEAN, INT, LONG, FLOAT, DOUBLE, STRING, BINARY,
+		/** 任意值，{@link MPacker#pack(Object)}和{@link MUnpacker#unpack()} */
+		ANY
+	}
+
+	public static final class Field {
+		private final int index;
+		private final String name;
+		private final Type type;
+		private final boolean optional;
+
+		Field(int index, String name, Type type, boolean optional) {
+			this.index = index;
+			this.name = name;
+			this.type = type;
+			this.optional = optional;
+		}
+
+		/** 在数组中的位置 */
+		public int getIndex() {
+			return index;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public boolean isOptional() {
+			return optional;
+		}
+
+		@Override
+		public String toString() {
+			return name + ":" + type + (optional ? "?" : "");
+		}
+	}
+
+	private final String name;
+	private final List<Field> fields = new ArrayList<Field>();
+	private int requiredCount;
+
+	public Schema(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * 添加必需字段
+	 * 
+	 * @throws IllegalStateException
+	 *           已经有可选字段
+	 */
+	public Schema add(String fieldName, Type type) {
+		if (requiredCount != fields.size()) {
+			throw new IllegalStateException("required field " + fieldName + " after optional fields");
+		}
+		addField(fieldName, type, false);
+		requiredCount++;
+		return this;
+	}
+
+	/** 添加可选字段 */
+	public Schema addOptional(String fieldName, Type type) {
+		addField(fieldName, type, true);
+		return this;
+	}
+
+	private void addField(String fieldName, Type type, boolean optional) {
+		for (Field f : fields) {
+			if (f.name.equals(fieldName)) {
+				throw new IllegalArgumentException("duplicate field name: " + fieldName);
+			}
+		}
+		fields.add(new Field(fields.size(), fieldName, type, optional));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<Field> getFields() {
+		return Collections.unmodifiableList(fields);
+	}
+
+	public Field getField(int index) {
+		return fields.get(index);
+	}
+
+	public int size() {
+		return fields.size();
+	}
+
+	/** 必需字段个数，即编码后数组的最小长度 */
+	public int getRequiredCount() {
+		return requiredCount;
+	}
+
+	@Override
+	public String toString() {
+		return name + fields;
+	}
+}
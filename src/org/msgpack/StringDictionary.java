@@ -0,0 +1,302 @@
+package org.msgpack;
+
+import java.util.Arrays;
+
+/**
+ * 流级别的字符串字典：字符串第一次出现时照常打包并分配一个编号，之后再出现只打包为引用扩展类型（默认{@link #DEFAULT_REF_TYPE}）的编号（FIXEXT1或FIXEXT2），
+ * 解码时也不再创建新的String。
+ * <p/>
+ * 字典容量有限，满了淘汰最久没用到的（LRU），被淘汰的编号分配给新字符串。解码方按同样的规则维护一个同样的字典，两边的编号和淘汰顺序完全一致，所以编码方和解码方各用一个实例，
+ * 配置（容量，长度范围）必须相同，并且解码方必须按顺序读到流中的每个字符串（包括{@link MUnpacker#skipValue()}跳过的）。
+ * <p/>
+ * 每定义{@link #setResetInterval(int)}个字符串，编码方清空字典，下一个新字符串打包为重置扩展类型（默认{@link #DEFAULT_RESET_TYPE}）：清空字典并定义这个字符串。从重置处开始读的解码方
+ * 可以重新同步，这也限制了一个损坏的字典影响的范围。编码方也可以用{@link #reset()}在记录边界处主动重置。
+ * <p/>
+ * 两个扩展类型与{@link ExtensionRegistry}中注册的类型冲突时，设置给打包器或解包器会抛出{@link IllegalStateException}，这时用
+ * {@link #StringDictionary(int, byte, byte)}换成别的类型。编号依赖值的顺序，设置了字典的打包器和解包器不能{@link MPacker#fork(java.io.OutputStream)}，只能顺序编解码。
+ *
+ * <pre>
+ * MPacker packer = new MPacker(out).setStringDictionary(new StringDictionary(1024));
+ * MUnpacker unpacker = new MUnpacker(in).setStringDictionary(new StringDictionary(1024));
+ * </pre>
+ *
+ * @author fangss
+ *
+ */
+public class StringDictionary {
+	/** 引用：载荷为编号，1或2字节无符号大端 */
+	public static final byte DEFAULT_REF_TYPE = 0x7e;
+	/** 重置并定义：载荷为字符串的UTF-8字节 */
+	public static final byte DEFAULT_RESET_TYPE = 0x7d;
+
+	/** 编号用2字节表示 */
+	public static final int MAX_CAPACITY = 1 << 16;
+
+	private static final int NONE = -1;
+
+	private final int capacity;
+	private final byte refType;
+	private final byte resetType;
+	/** 值为UTF-8字节数，短于3字节的字符串引用不会更短 */
+	private int minLength = 3;
+	private int maxLength = 256;
+	private int resetInterval;
+
+	/** 按编号 */
+	private final String[] strings;
+	/** 编码方按字符串查编号，解码方不用 */
+	private OpenHashMap<String, Integer> ids;
+	/** LRU双向链表，按编号，head最近使用 */
+	private final int[] prev;
+	private final int[] next;
+	private int head = NONE;
+	private int tail = NONE;
+	private int size;
+	/** 上次重置后定义的个数 */
+	private int defined;
+	private boolean resetPending;
+
+	/**
+	 * @param capacity
+	 *          1到{@link #MAX_CAPACITY}
+	 */
+	public StringDictionary(int capacity) {
+		this(capacity, DEFAULT_REF_TYPE, DEFAULT_RESET_TYPE);
+	}
+
+	/**
+	 * @param capacity
+	 *          1到{@link #MAX_CAPACITY}
+	 * @param refType
+	 *          引用的扩展类型
+	 * @param resetType
+	 *          重置的扩展类型，两边必须相同
+	 */
+	public StringDictionary(int capacity, byte refType, byte resetType) {
+		if (capacity < 1 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("capacity must be in [1, " + MAX_CAPACITY + "]: " + capacity);
+		}
+		if (refType == resetType) {
+			throw new IllegalArgumentException("reference and reset types must differ: " + refType);
+		}
+		this.capacity = capacity;
+		this.refType = refType;
+		this.resetType = resetType;
+		strings = new String[capacity];
+		prev = new int[capacity];
+		next = new int[capacity];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public byte getRefType() {
+		return refType;
+	}
+
+	public byte getResetType() {
+		return resetType;
+	}
+
+	/**
+	 * 检查字典的扩展类型没有被注册为编解码器，也不与基本类型数组的扩展类型相同
+	 * 
+	 * @param dictionary
+	 *          可以为null
+	 * @param registry
+	 *          可以为null
+	 * @param typedArrayType
+	 * @throws IllegalStateException
+	 */
+	static void checkTypes(StringDictionary dictionary, ExtensionRegistry registry, byte typedArrayType) {
+		if (null == dictionary) {
+			return;
+		}
+		ExtensionRegistry.checkReserved(registry, dictionary.refType, null, "string dictionary references");
+		ExtensionRegistry.checkReserved(registry, dictionary.resetType, null, "string dictionary resets");
+		if (typedArrayType == dictionary.refType || typedArrayType == dictionary.resetType) {
+			throw new IllegalStateException("extension type " + typedArrayType
+					+ " is used by both typed arrays and the string dictionary");
+		}
+	}
+
+	public int getMinLength() {
+		return minLength;
+	}
+
+	/**
+	 * @param minLength
+	 *          UTF-8字节数少于这个值的字符串不进字典，默认3
+	 * @return
+	 */
+	public StringDictionary setMinLength(int minLength) {
+		this.minLength = minLength;
+		return this;
+	}
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * @param maxLength
+	 *          UTF-8字节数多于这个值的字符串不进字典，默认256，长文本很少重复
+	 * @return
+	 */
+	public StringDictionary setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+		return this;
+	}
+
+	public int getResetInterval() {
+		return resetInterval;
+	}
+
+	/**
+	 * 只对编码方有效，解码方按流中的重置扩展类型重置
+	 *
+	 * @param resetInterval
+	 *          每定义这么多字符串重置一次，0（默认）不定期重置
+	 * @return
+	 */
+	public StringDictionary setResetInterval(int resetInterval) {
+		this.resetInterval = resetInterval;
+		return this;
+	}
+
+	/** 编码方：下一个新字符串处重置字典 */
+	public void reset() {
+		resetPending = true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** 立即清空，用于两边在流外约定好的同步点，如新的连接 */
+	public void clear() {
+		Arrays.fill(strings, 0, size, null);
+		if (null != ids) {
+			ids.clear();
+		}
+		head = tail = NONE;
+		size = 0;
+		defined = 0;
+		resetPending = false;
+	}
+
+	boolean accepts(int byteLength) {
+		return byteLength >= minLength && byteLength <= maxLength;
+	}
+
+	/**
+	 * 编码方：查找并标记为最近使用
+	 *
+	 * @param s
+	 * @return 编号，不存在为-1
+	 */
+	int lookup(String s) {
+		if (null == ids) {
+			return NONE;
+		}
+		Integer id = ids.get(s);
+		if (null == id) {
+			return NONE;
+		}
+		touch(id.intValue());
+		return id.intValue();
+	}
+
+	/**
+	 * 编码方：定义之前是否要先重置，是则清空字典
+	 *
+	 * @return true时应该打包为重置扩展类型
+	 */
+	boolean resetBeforeDefine() {
+		if (resetPending || (resetInterval > 0 && defined >= resetInterval)) {
+			clear();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 解码方：按编号取字符串并标记为最近使用
+	 *
+	 * @param id
+	 * @return
+	 * @throws MPackFormatException
+	 *           编号没有定义，两边的字典已经不同步
+	 */
+	String get(int id) throws MPackFormatException {
+		if (id >= size) {
+			throw new MPackFormatException(String.format("undefined string reference %d (dictionary size %d)", id, size));
+		}
+		touch(id);
+		return strings[id];
+	}
+
+	/**
+	 * 定义一个字符串，满了淘汰最久没用到的，两边调用的顺序必须一致
+	 *
+	 * @param s
+	 * @param encoder
+	 *          编码方需要按字符串查编号
+	 * @return 编号
+	 */
+	int define(String s, boolean encoder) {
+		int id;
+		if (size < capacity) {
+			id = size++;
+		} else {
+			id = tail;
+			unlink(id);
+			if (encoder) {
+				ids.remove(strings[id]);
+			}
+		}
+		strings[id] = s;
+		if (encoder) {
+			if (null == ids) {
+				ids = new OpenHashMap<String, Integer>(Math.min(capacity, 64));
+			}
+			ids.put(s, Integer.valueOf(id));
+		}
+		linkFirst(id);
+		defined++;
+		return id;
+	}
+
+	private void touch(int id) {
+		if (head != id) {
+			unlink(id);
+			linkFirst(id);
+		}
+	}
+
+	private void unlink(int id) {
+		int p = prev[id], n = next[id];
+		if (NONE == p) {
+			head = n;
+		} else {
+			next[p] = n;
+		}
+		if (NONE == n) {
+			tail = p;
+		} else {
+			prev[n] = p;
+		}
+	}
+
+	private void linkFirst(int id) {
+		prev[id] = NONE;
+		next[id] = head;
+		if (NONE == head) {
+			tail = id;
+		} else {
+			prev[head] = id;
+		}
+		head = id;
+	}
+}
@@ -0,0 +1,30 @@
+package org.msgpack;
+
+import java.io.IOException;
+
+/**
+ * 按{@link Schema}把对象编码为按位置排列的数组，由{@link MPacker#packStruct(StructCodec, Object)}和
+ * {@link MUnpacker#unpackStruct(StructCodec, Object)}调用。可以手写（或者生成）以获得最快的速度，也可以用反射的{@link ReflectiveStructCodec}。
+ *
+ * @author fangss
+ *
+ * @param <T>
+ */
+public interface StructCodec<T> {
+	public Schema getSchema();
+
+	/**
+	 * 写入数组头部和各字段，末尾为null的可选字段可以省略
+	 */
+	public void write(MPacker packer, T value) throws IOException;
+
+	/**
+	 * 读取数组头部和各字段
+	 * 
+	 * @param reuse
+	 *          非null时填充到这个对象并返回它，数组中没有的可选字段重置为默认值
+	 * @return
+	 * @throws IOException
+	 */
+	public T read(MUnpacker unpacker, T reuse) throws IOException;
+}
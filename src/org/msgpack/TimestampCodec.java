@@ -0,0 +1,45 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * 时间戳扩展类型（-1）与{@link Instant}之间的编解码，{@link ExtensionRegistry#withBuiltins()}已注册
+ *
+ * @author fangss
+ *
+ */
+public class TimestampCodec implements ExtensionCodec<Instant> {
+
+	@Override
+	public byte getType() {
+		return ByteCode.EXT_TIMESTAMP;
+	}
+
+	@Override
+	public Class<Instant> getValueClass() {
+		return Instant.class;
+	}
+
+	@Override
+	public Instant read(MUnpacker unpacker, int length) throws IOException {
+		switch (length) {
+		case 4:
+			return Instant.ofEpochSecond(MUnpacker.toUnsignedLong(unpacker.readInt()));
+		case 8: {
+			long data64 = unpacker.readLong();
+			return Instant.ofEpochSecond(data64 & 0x00000003ffffffffL, data64 >>> 34);
+		}
+		case 12: {
+			int nanos = unpacker.readInt();
+			return Instant.ofEpochSecond(unpacker.readLong(), nanos);
+		}
+		}
+		throw new MPackFormatException("invalid timestamp length: " + length);
+	}
+
+	@Override
+	public void write(MPacker packer, Instant value) throws IOException {
+		packer.packTimestamp(value);
+	}
+}
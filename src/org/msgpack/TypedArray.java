@@ -0,0 +1,330 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * 基本类型数组的扩展类型（默认{@link #DEFAULT_EXT_TYPE}）：负载为1字节的元素类型，之后是小端的元素原样排列，布尔数组按位打包（低位在前，元素类型之后多1字节表示最后一个字节中未用的位数）。
+ * 比逐个元素的MessagePack数组小（double每个8字节而不是9字节），编解码都是整块复制，没有逐个元素的分派。
+ * <p/>
+ * 浮点向量还可以用{@link #FLOAT16}，{@link #BFLOAT16}（各2字节）或{@link #QINT8}（1字节）压缩，见{@link MPacker#packFloat16Array(float[])}等。
+ * <p/>
+ * 由{@link MPacker#packTypedArray(double[])}等打包，{@link MUnpacker#unpackTypedArray()}解包为本类，可以取得
+ * {@link #asDoubleBuffer()}等不复制的视图，或者{@link #toDoubleArray()}等基本类型数组。
+ *
+ * @author fangss
+ *
+ */
+public final class TypedArray implements MPackValue {
+	/** 默认的扩展类型（应用定义的范围内），可由{@link MPacker#setTypedArrayType(byte)}和{@link MUnpacker#setTypedArrayType(byte)}改变以免与应用的扩展类型冲突 */
+	public static final byte DEFAULT_EXT_TYPE = 0x7f;
+
+	public static final byte INT8 = 0;
+	public static final byte INT16 = 1;
+	public static final byte INT32 = 2;
+	public static final byte INT64 = 3;
+	public static final byte FLOAT32 = 4;
+	public static final byte FLOAT64 = 5;
+	public static final byte BOOLEAN = 6;
+	/** IEEE 754半精度，元素类型之后是小端的16位 */
+	public static final byte FLOAT16 = 7;
+	/** bfloat16，即float32的高16位 */
+	public static final byte BFLOAT16 = 8;
+	/** int8量化：元素类型之后是小端float32的scale和1字节的zero point，之后每个元素1字节，值为(q - zeroPoint) * scale */
+	public static final byte QINT8 = 9;
+	/**
+	 * 单调或缓慢变化的long序列：元素类型之后是变长的元素个数，之后是zigzag变长整数的第一个值和相邻值的差，见{@link MPacker#packDeltaArray(long[])}
+	 */
+	public static final byte DELTA_INT64 = 10;
+	/** 同{@link #DELTA_INT64}，但第二个值之后存放的是差的差，适合等间隔的时间戳 */
+	public static final byte DELTA2_INT64 = 11;
+
+	private final byte kind;
+	private final int length;
+	/** 小端，从0到limit为元素的字节 */
+	private final ByteBuffer data;
+	private final float scale;
+	private final int zeroPoint;
+
+	/**
+	 * @param kind
+	 *          元素类型
+	 * @param length
+	 *          元素个数
+	 * @param data
+	 *          从position到limit为元素的字节，不复制
+	 */
+	TypedArray(byte kind, int length, ByteBuffer data) {
+		this(kind, length, data, 1.0f, 0);
+	}
+
+	TypedArray(byte kind, int length, ByteBuffer data, float scale, int zeroPoint) {
+		this.kind = kind;
+		this.length = length;
+		this.data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		this.scale = scale;
+		this.zeroPoint = zeroPoint;
+	}
+
+	/** 元素类型的字节数，布尔为0（按位） */
+	static int elementSize(byte kind) {
+		switch (kind) {
+		case INT8:
+		case QINT8:
+			return 1;
+		case INT16:
+		case FLOAT16:
+		case BFLOAT16:
+			return 2;
+		case INT32:
+		case FLOAT32:
+			return 4;
+		case INT64:
+		case FLOAT64:
+			return 8;
+		case BOOLEAN:
+			return 0;
+		}
+		throw new MPackFormatException("unknown typed array kind: " + kind);
+	}
+
+	public byte getKind() {
+		return kind;
+	}
+
+	/** {@link #QINT8}的scale，其他类型为1 */
+	public float getScale() {
+		return scale;
+	}
+
+	/** {@link #QINT8}的zero point，其他类型为0 */
+	public int getZeroPoint() {
+		return zeroPoint;
+	}
+
+	/** 元素个数 */
+	public int length() {
+		return length;
+	}
+
+	/** 元素的字节，小端，position为0，调用者不应修改 */
+	public ByteBuffer buffer() {
+		return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void check(byte expected) {
+		if (expected != kind) {
+			throw new MPackFormatException(String.format("Expected typed array kind %d, but got %d", expected, kind));
+		}
+	}
+
+	public ShortBuffer asShortBuffer() {
+		check(INT16);
+		return buffer().asShortBuffer();
+	}
+
+	public IntBuffer asIntBuffer() {
+		check(INT32);
+		return buffer().asIntBuffer();
+	}
+
+	public LongBuffer asLongBuffer() {
+		check(INT64);
+		return buffer().asLongBuffer();
+	}
+
+	public FloatBuffer asFloatBuffer() {
+		check(FLOAT32);
+		return buffer().asFloatBuffer();
+	}
+
+	public DoubleBuffer asDoubleBuffer() {
+		check(FLOAT64);
+		return buffer().asDoubleBuffer();
+	}
+
+	public byte[] toByteArray() {
+		check(INT8);
+		byte[] a = new byte[length];
+		buffer().get(a);
+		return a;
+	}
+
+	public short[] toShortArray() {
+		short[] a = new short[length];
+		asShortBuffer().get(a);
+		return a;
+	}
+
+	public int[] toIntArray() {
+		int[] a = new int[length];
+		asIntBuffer().get(a);
+		return a;
+	}
+
+	/**
+	 * {@link #INT64}直接复制，{@link #DELTA_INT64}和{@link #DELTA2_INT64}一次遍历解码
+	 */
+	public long[] toLongArray() {
+		long[] a = new long[length];
+		if (DELTA_INT64 == kind || DELTA2_INT64 == kind) {
+			ByteBuffer in = buffer();
+			Varint.read(in); // 元素个数
+			long value = 0, delta = 0;
+			try {
+				for (int i = 0; i < length; i++) {
+					long z = Varint.unzigzag(Varint.read(in));
+					if (DELTA2_INT64 == kind && i >= 2) {
+						delta += z;
+					} else if (i > 0) {
+						delta = z;
+					} else {
+						value = z;
+						a[0] = value;
+						continue;
+					}
+					value += delta;
+					a[i] = value;
+				}
+			} catch (BufferUnderflowException e) {
+				throw new MPackFormatException("delta array truncated at " + in.position() + " of " + length + " values");
+			}
+		} else {
+			asLongBuffer().get(a);
+		}
+		return a;
+	}
+
+	/**
+	 * {@link #FLOAT32}直接复制；{@link #FLOAT16}，{@link #BFLOAT16}和{@link #QINT8}逐个元素转换为float
+	 */
+	public float[] toFloatArray() {
+		float[] a = new float[length];
+		switch (kind) {
+		case FLOAT16:
+			for (int i = 0; i < length; i++) {
+				a[i] = HalfFloats.halfToFloat(data.getShort(i << 1));
+			}
+			break;
+		case BFLOAT16:
+			for (int i = 0; i < length; i++) {
+				a[i] = Float.intBitsToFloat(data.getShort(i << 1) << 16);
+			}
+			break;
+		case QINT8:
+			for (int i = 0; i < length; i++) {
+				a[i] = (data.get(i) - zeroPoint) * scale;
+			}
+			break;
+		default:
+			asFloatBuffer().get(a);
+		}
+		return a;
+	}
+
+	public double[] toDoubleArray() {
+		double[] a = new double[length];
+		asDoubleBuffer().get(a);
+		return a;
+	}
+
+	public boolean getBoolean(int index) {
+		check(BOOLEAN);
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		return (data.get(index >>> 3) & (1 << (index & 7))) != 0;
+	}
+
+	public boolean[] toBooleanArray() {
+		check(BOOLEAN);
+		boolean[] a = new boolean[length];
+		for (int i = 0; i < length; i++) {
+			a[i] = (data.get(i >>> 3) & (1 << (i & 7))) != 0;
+		}
+		return a;
+	}
+
+	/**
+	 * 读取负载，扩展头部已经读取，见{@link MUnpacker#unpackTypedArray()}
+	 * 
+	 * @param payloadLength
+	 *          负载字节数
+	 */
+	static TypedArray read(MUnpacker unpacker, int payloadLength) throws IOException {
+		if (payloadLength < 1) {
+			throw new MPackFormatException("empty typed array payload");
+		}
+		byte kind = unpacker.readByte();
+		int dataLength = payloadLength - 1;
+		if (DELTA_INT64 == kind || DELTA2_INT64 == kind) {
+			ByteBuffer data = unpacker.readPayloadBuffer(dataLength);
+			long count = Varint.read(data.duplicate());
+			if (count < 0 || count > dataLength) {
+				throw new MPackFormatException("malformed delta array length: " + count);
+			}
+			return new TypedArray(kind, (int) count, data);
+		}
+		int size = elementSize(kind);
+		int length;
+		if (QINT8 == kind) {
+			if (dataLength < 5) {
+				throw new MPackFormatException("malformed quantized array");
+			}
+			float scale = Float.intBitsToFloat(Integer.reverseBytes(unpacker.readInt()));
+			int zeroPoint = unpacker.readByte();
+			dataLength -= 5;
+			return new TypedArray(kind, dataLength, unpacker.readPayloadBuffer(dataLength), scale, zeroPoint);
+		}
+		if (BOOLEAN == kind) {
+			if (dataLength < 1) {
+				throw new MPackFormatException("malformed boolean array");
+			}
+			int unusedBits = unpacker.readByte() & 7;
+			dataLength--;
+			length = (int) Math.max(0L, dataLength * 8L - unusedBits);
+		} else {
+			if (dataLength % size != 0) {
+				throw new MPackFormatException(String.format("typed array payload %d is not a multiple of %d", dataLength, size));
+			}
+			length = dataLength / size;
+		}
+		return new TypedArray(kind, length, unpacker.readPayloadBuffer(dataLength));
+	}
+
+	@Override
+	public void writeTo(MPacker packer) throws IOException {
+		writeTo(packer, packer.typedArrayType());
+	}
+
+	void writeTo(MPacker packer, byte type) throws IOException {
+		int n = data.limit();
+		if (BOOLEAN == kind) {
+			packer.packExtensionTypeHeader(type, n + 2);
+			packer.writeByte(kind);
+			packer.writeByte((byte) ((n << 3) - length));
+		} else if (QINT8 == kind) {
+			packer.packExtensionTypeHeader(type, n + 6);
+			packer.writeByte(kind);
+			packer.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(scale)));
+			packer.writeByte((byte) zeroPoint);
+		} else {
+			packer.packExtensionTypeHeader(type, n + 1);
+			packer.writeByte(kind);
+		}
+		if (data.hasArray()) {
+			packer.write(data.array(), data.arrayOffset(), n);
+		} else {
+			byte[] bs = new byte[n];
+			buffer().get(bs);
+			packer.write(bs);
+		}
+	}
+}
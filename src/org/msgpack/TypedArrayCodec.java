@@ -0,0 +1,45 @@
+package org.msgpack;
+
+import java.io.IOException;
+
+/**
+ * 让{@link MUnpacker#unpack()}把基本类型数组扩展解码为{@link TypedArray}
+ *
+ * @author fangss
+ *
+ */
+public class TypedArrayCodec implements ExtensionCodec<TypedArray> {
+	private final byte type;
+
+	public TypedArrayCodec() {
+		this(TypedArray.DEFAULT_EXT_TYPE);
+	}
+
+	/**
+	 * @param type
+	 *          应用定义的扩展类型，应与{@link MPacker#setTypedArrayType(byte)}相同
+	 */
+	public TypedArrayCodec(byte type) {
+		this.type = type;
+	}
+
+	@Override
+	public byte getType() {
+		return type;
+	}
+
+	@Override
+	public Class<TypedArray> getValueClass() {
+		return TypedArray.class;
+	}
+
+	@Override
+	public TypedArray read(MUnpacker unpacker, int length) throws IOException {
+		return TypedArray.read(unpacker, length);
+	}
+
+	@Override
+	public void write(MPacker packer, TypedArray value) throws IOException {
+		value.writeTo(packer, type);
+	}
+}
@@ -0,0 +1,85 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * 无符号64位整数，只包装一个long，不像{@link BigInteger}那样分配数组。大于{@link Long#MAX_VALUE}的值{@link #longValue()}为负数，
+ * 数值比较和字符串按无符号处理。打包时总是使用{@link MPacker#packUnsignedLong(long)}，见{@link MUnpacker#OPT_UINT64_AS_UNSIGNED_LONG}。
+ *
+ * @author fangss
+ *
+ */
+public final class UnsignedLong extends Number implements Comparable<UnsignedLong>, MPackValue {
+
+	private static final long serialVersionUID = 5283021875649730163L;
+
+	private final long bits;
+
+	private UnsignedLong(long bits) {
+		this.bits = bits;
+	}
+
+	/**
+	 * @param bits
+	 *          无符号64位的原始值
+	 * @return
+	 */
+	public static UnsignedLong valueOf(long bits) {
+		return new UnsignedLong(bits);
+	}
+
+	public static UnsignedLong valueOf(String s) {
+		return new UnsignedLong(Long.parseUnsignedLong(s));
+	}
+
+	@Override
+	public int intValue() {
+		return (int) bits;
+	}
+
+	/** @return 原始的64位，大于{@link Long#MAX_VALUE}时为负数 */
+	@Override
+	public long longValue() {
+		return bits;
+	}
+
+	@Override
+	public float floatValue() {
+		return (float) doubleValue();
+	}
+
+	@Override
+	public double doubleValue() {
+		return NumberBoxing.unsignedToDouble(bits);
+	}
+
+	public BigInteger bigIntegerValue() {
+		return NumberBoxing.toUnsignedBigInteger(bits);
+	}
+
+	@Override
+	public int compareTo(UnsignedLong o) {
+		return Long.compareUnsigned(bits, o.bits);
+	}
+
+	@Override
+	public void writeTo(MPacker packer) throws IOException {
+		packer.packUnsignedLong(bits);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof UnsignedLong && ((UnsignedLong) obj).bits == bits;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(bits);
+	}
+
+	@Override
+	public String toString() {
+		return Long.toUnsignedString(bits);
+	}
+}
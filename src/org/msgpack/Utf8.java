@@ -0,0 +1,149 @@
+package org.msgpack;
+
+import java.io.IOException;
+
+/**
+ * 不经过{@link String}的UTF-8编解码，直接在字节数组和调用者的字符目标之间转换，供{@link MUnpacker#unpackString(StringBuilder)}和
+ * {@link MPacker#packString(CharSequence)}等使用。错误的字节逐个解码为U+FFFD（个数可能与{@link String}不同），编码时不成对的代理字符与{@link String}一样编码为'?'。
+ *
+ * @author fangss
+ *
+ */
+final class Utf8 {
+	/** 一次编码的字符数上限为缓冲区字节数除以这个值 */
+	static final int MAX_BYTES_PER_CHAR = 3;
+
+	private static final char REPLACEMENT = '\ufffd';
+	/** 按字节数拒绝过长的编码 */
+	private static final int[] MIN_CODE_POINT = { 0, 0, 0x80, 0x800, 0x10000 };
+
+	private Utf8() {
+	}
+
+	/**
+	 * 解码[off, end)中完整的字符到out
+	 * 
+	 * @param last
+	 *          是否是最后一段字节，是则末尾不完整的字节序列解码为U+FFFD，否则留给下一段
+	 * @return 第一个未解码的字节的下标，last时总是end
+	 * @throws IOException
+	 */
+	static int decode(byte[] b, int off, int end, Appendable out, boolean last) throws IOException {
+		int i = off;
+		while (i < end) {
+			int b0 = b[i];
+			if (b0 >= 0) {
+				out.append((char) b0);
+				i++;
+				continue;
+			}
+			int n;
+			if ((b0 & 0xe0) == 0xc0) {
+				n = 2;
+			} else if ((b0 & 0xf0) == 0xe0) {
+				n = 3;
+			} else if ((b0 & 0xf8) == 0xf0) {
+				n = 4;
+			} else {
+				out.append(REPLACEMENT);
+				i++;
+				continue;
+			}
+			if (i + n > end) {
+				if (!last) {
+					return i;
+				}
+				out.append(REPLACEMENT);
+				i++;
+				continue;
+			}
+			int cp = b0 & (0x7f >> n);
+			int k = 1;
+			for (; k < n; k++) {
+				int c = b[i + k];
+				if ((c & 0xc0) != 0x80) {
+					break;
+				}
+				cp = (cp << 6) | (c & 0x3f);
+			}
+			if (k < n || cp < MIN_CODE_POINT[n] || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE)
+					|| cp > Character.MAX_CODE_POINT) {
+				out.append(REPLACEMENT);
+				i++;
+				continue;
+			}
+			if (n == 4) {
+				out.append(Character.highSurrogate(cp));
+				out.append(Character.lowSurrogate(cp));
+			} else {
+				out.append((char) cp);
+			}
+			i += n;
+		}
+		return i;
+	}
+
+	private static char charAt(CharSequence s, char[] a, int i) {
+		return null != a ? a[i] : s.charAt(i);
+	}
+
+	/**
+	 * [off, end)的UTF-8编码字节数，字符来自s或者a（a不为null时）
+	 */
+	static int encodedLength(CharSequence s, char[] a, int off, int end) {
+		int n = end - off;
+		for (int i = off; i < end; i++) {
+			char c = charAt(s, a, i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				n += 1;
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(charAt(s, a, i + 1))) {
+				// 两个字符4字节
+				n += 2;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// '?'
+			} else {
+				n += 2;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * 编码[off, end)到dst，调用者保证dst有(end - off) * {@link #MAX_BYTES_PER_CHAR}字节的空间，且end不在代理对中间
+	 * 
+	 * @return 写入的字节数
+	 */
+	static int encode(CharSequence s, char[] a, int off, int end, byte[] dst, int dstOff) {
+		int p = dstOff;
+		for (int i = off; i < end; i++) {
+			char c = charAt(s, a, i);
+			if (c < 0x80) {
+				dst[p++] = (byte) c;
+			} else if (c < 0x800) {
+				dst[p++] = (byte) (0xc0 | (c >> 6));
+				dst[p++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				char d;
+				if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(d = charAt(s, a, i + 1))) {
+					int cp = Character.toCodePoint(c, d);
+					dst[p++] = (byte) (0xf0 | (cp >> 18));
+					dst[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+					dst[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+					dst[p++] = (byte) (0x80 | (cp & 0x3f));
+					i++;
+				} else {
+					dst[p++] = '?';
+				}
+			} else {
+				dst[p++] = (byte) (0xe0 | (c >> 12));
+				dst[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				dst[p++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return p - dstOff;
+	}
+}
@@ -0,0 +1,194 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * 以UTF-8字节保存的字符串，只在需要时才解码：{@link #equals(Object)}和{@link #hashCode()}按字节比较和计算；全是ASCII时{@link #charAt(int)}，
+ * {@link #length()}和{@link #subSequence(int, int)}直接在字节上完成；{@link #toString()}或者非ASCII的字符访问才完整解码一次并缓存。<br>
+ * 写入打包器时原样输出这些字节，不重新编码。见{@link MUnpacker#unpackUtf8String()}和{@link MUnpacker#OPT_READ_STR_AS_UTF8}。
+ * <p/>
+ * 注意与{@link String}不相等，需要按内容比较时用{@link #contentEquals(CharSequence)}。
+ *
+ * @author fangss
+ *
+ */
+public final class Utf8String implements CharSequence, MPackValue {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte UNKNOWN = 0;
+	private static final byte ASCII = 1;
+	private static final byte NON_ASCII = 2;
+
+	/** 从0到limit为字符串的字节，不会被修改 */
+	private final ByteBuffer bytes;
+	private byte kind;
+	private int hash;
+	private String decoded;
+
+	/**
+	 * 直接使用给定缓冲区从position到limit的字节，不复制，调用者之后不应修改这些字节
+	 */
+	public Utf8String(ByteBuffer utf8) {
+		bytes = utf8.slice();
+	}
+
+	public Utf8String(byte[] utf8, int offset, int length) {
+		this(ByteBuffer.wrap(utf8, offset, length));
+	}
+
+	public Utf8String(byte[] utf8) {
+		this(ByteBuffer.wrap(utf8));
+	}
+
+	private Utf8String(ByteBuffer utf8, String decoded) {
+		this(utf8);
+		this.decoded = decoded;
+	}
+
+	public static Utf8String valueOf(CharSequence s) {
+		if (s instanceof Utf8String) {
+			return (Utf8String) s;
+		}
+		String str = s.toString();
+		return new Utf8String(ByteBuffer.wrap(str.getBytes(UTF_8)), str);
+	}
+
+	/**
+	 * UTF-8字节，position为0，调用者不应修改
+	 */
+	public ByteBuffer bytes() {
+		return bytes.duplicate();
+	}
+
+	/** UTF-8编码的字节数 */
+	public int byteLength() {
+		return bytes.limit();
+	}
+
+	public boolean isAscii() {
+		if (UNKNOWN == kind) {
+			byte k = ASCII;
+			for (int i = 0, n = bytes.limit(); i < n; i++) {
+				if (bytes.get(i) < 0) {
+					k = NON_ASCII;
+					break;
+				}
+			}
+			kind = k;
+		}
+		return ASCII == kind;
+	}
+
+	@Override
+	public int length() {
+		return isAscii() ? bytes.limit() : toString().length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (isAscii()) {
+			if (index < 0 || index >= bytes.limit()) {
+				throw new StringIndexOutOfBoundsException(index);
+			}
+			return (char) bytes.get(index);
+		}
+		return toString().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (isAscii()) {
+			if (start < 0 || end > bytes.limit() || start > end) {
+				throw new StringIndexOutOfBoundsException("start " + start + ", end " + end + ", length " + bytes.limit());
+			}
+			ByteBuffer sub = bytes.duplicate();
+			sub.position(start).limit(end);
+			return new Utf8String(sub);
+		}
+		return toString().subSequence(start, end);
+	}
+
+	/** 与任意字符序列按字符比较，对方也是{@link Utf8String}时按字节比较 */
+	public boolean contentEquals(CharSequence cs) {
+		if (cs instanceof Utf8String) {
+			return equals(cs);
+		}
+		if (isAscii()) {
+			int n = bytes.limit();
+			if (cs.length() != n) {
+				return false;
+			}
+			for (int i = 0; i < n; i++) {
+				if (cs.charAt(i) != bytes.get(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return toString().contentEquals(cs);
+	}
+
+	@Override
+	public String toString() {
+		String s = decoded;
+		if (null == s) {
+			if (bytes.hasArray()) {
+				s = new String(bytes.array(), bytes.arrayOffset(), bytes.limit(), UTF_8);
+			} else {
+				byte[] bs = new byte[bytes.limit()];
+				bytes.duplicate().get(bs);
+				s = new String(bs, UTF_8);
+			}
+			decoded = s;
+		}
+		return s;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Utf8String)) {
+			return false;
+		}
+		Utf8String other = (Utf8String) obj;
+		int n = bytes.limit();
+		if (other.bytes.limit() != n || (0 != hash && 0 != other.hash && hash != other.hash)) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if (bytes.get(i) != other.bytes.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (0 == h) {
+			for (int i = 0, n = bytes.limit(); i < n; i++) {
+				h = 31 * h + bytes.get(i);
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	@Override
+	public void writeTo(MPacker packer) throws IOException {
+		int n = bytes.limit();
+		packer.packRawStringHeader(n);
+		if (bytes.hasArray()) {
+			packer.write(bytes.array(), bytes.arrayOffset(), n);
+		} else {
+			byte[] bs = new byte[n];
+			bytes.duplicate().get(bs);
+			packer.write(bs);
+		}
+	}
+}
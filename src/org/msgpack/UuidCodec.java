@@ -0,0 +1,47 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * {@link UUID}编码为FIXEXT16，负载为大端的高64位和低64位，比36个字符的字符串小一半以上，也不需要解析
+ *
+ * @author fangss
+ *
+ */
+public class UuidCodec implements ExtensionCodec<UUID> {
+	private final byte type;
+
+	/**
+	 * @param type
+	 *          应用定义的扩展类型
+	 */
+	public UuidCodec(byte type) {
+		this.type = type;
+	}
+
+	@Override
+	public byte getType() {
+		return type;
+	}
+
+	@Override
+	public Class<UUID> getValueClass() {
+		return UUID.class;
+	}
+
+	@Override
+	public UUID read(MUnpacker unpacker, int length) throws IOException {
+		if (16 != length) {
+			throw new MPackFormatException("invalid UUID length: " + length);
+		}
+		return new UUID(unpacker.readLong(), unpacker.readLong());
+	}
+
+	@Override
+	public void write(MPacker packer, UUID value) throws IOException {
+		packer.packExtensionTypeHeader(type, 16);
+		packer.writeLong(value.getMostSignificantBits());
+		packer.writeLong(value.getLeastSignificantBits());
+	}
+}
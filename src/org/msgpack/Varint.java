@@ -0,0 +1,83 @@
+package org.msgpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 无符号变长整数（每字节7位，低位在前，最高位表示后面还有字节）和zigzag编码，用于{@link MPackIndex}的偏移差、{@link BigDecimalCodec}的scale和{@link TypedArray#DELTA_INT64}
+ *
+ * @author fangss
+ *
+ */
+final class Varint {
+	/** 一个long最多的字节数 */
+	static final int MAX_BYTES = 10;
+
+	private Varint() {
+	}
+
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	static long unzigzag(long z) {
+		return (z >>> 1) ^ -(z & 1L);
+	}
+
+	static int sizeOf(long v) {
+		int bits = 64 - Long.numberOfLeadingZeros(v | 1L);
+		return (bits + 6) / 7;
+	}
+
+	/** @return 写入后的下标 */
+	static int write(long v, byte[] buf, int p) {
+		while ((v & ~0x7fL) != 0) {
+			buf[p++] = (byte) ((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		buf[p++] = (byte) v;
+		return p;
+	}
+
+	static void write(long v, MPacker packer) throws IOException {
+		while ((v & ~0x7fL) != 0) {
+			packer.writeByte((byte) ((v & 0x7f) | 0x80));
+			v >>>= 7;
+		}
+		packer.writeByte((byte) v);
+	}
+
+	/**
+	 * 从解包器的负载中读取一个，只接受最短的编码，所以读取的字节数就是{@link #sizeOf(long)}
+	 * 
+	 * @param limit
+	 *          最多读取的字节数
+	 */
+	static long read(MUnpacker unpacker, int limit) throws IOException {
+		long v = 0;
+		for (int shift = 0, n = 0; n < limit && shift < 64; shift += 7, n++) {
+			byte b = unpacker.readByte();
+			v |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				if (0 == b && 0 != shift) {
+					break;
+				}
+				return v;
+			}
+		}
+		throw new MPackFormatException("malformed varint");
+	}
+
+	/** 从buf的position读取一个，position后移 */
+	static long read(ByteBuffer buf) {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buf.get();
+			v |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new MPackFormatException("malformed varint");
+	}
+}
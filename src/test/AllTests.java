@@ -0,0 +1,45 @@
+package test;
+
+/**
+ * 运行所有往返测试：
+ * 
+ * <pre>
+ * javac -d out src/org/msgpack/*.java
+ * javac -cp out -d out src/test/Check.java src/test/AllTests.java src/test/*Test.java
+ * java -cp out test.AllTests
+ * </pre>
+ * 
+ * @author fangss
+ * 
+ */
+public class AllTests {
+
+	public static void main(String[] args) throws Exception {
+		IndexTest.main(args);
+		ParallelDecodeTest.main(args);
+		ParallelEncodeTest.main(args);
+		SpliteratorTest.main(args);
+		FeedUnpackerTest.main(args);
+		FlowTest.main(args);
+		ContainerDecodeTest.main(args);
+		CompactMapTest.main(args);
+		DecodingProfileTest.main(args);
+		UnsignedLongTest.main(args);
+		Utf8StringTest.main(args);
+		StringTargetTest.main(args);
+		FieldMatcherTest.main(args);
+		ReuseTest.main(args);
+		ExtensionRegistryTest.main(args);
+		TimestampTest.main(args);
+		ExtensionCodecsTest.main(args);
+		TypedArrayTest.main(args);
+		ReducedPrecisionTest.main(args);
+		DeltaArrayTest.main(args);
+		CompactFloatTest.main(args);
+		StructTest.main(args);
+		StringDictionaryTest.main(args);
+		RecordDeltaTest.main(args);
+		CanonicalTest.main(args);
+		System.out.println("all tests passed");
+	}
+}
@@ -0,0 +1,312 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.msgpack.ArrayMap;
+import org.msgpack.MPack;
+import org.msgpack.MPackException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.OpenHashMap;
+import org.msgpack.StringDictionary;
+
+/**
+ * {@link MPacker#OPT_CANONICAL}：与插入顺序和Map、Set的实现无关，键和元素按编码后的字节排序，编码后相同的键（如1和1L）是错误
+ */
+public class CanonicalTest {
+	private static final int CANONICAL = MPacker.OPT_CANONICAL;
+
+	public static void main(String[] args) throws Exception {
+		testDeterministic();
+		testKeyOrder();
+		testSets();
+		testDuplicateKeys();
+		testFloats();
+		testTypedArrayKeys();
+		testDictionaryRefused();
+		System.out.println("CanonicalTest OK");
+	}
+
+	private static byte[] encode(Object value, int options) throws IOException {
+		MPacker packer = MPack.newMPacker().setOptions(options);
+		packer.pack(value);
+		return Check.bytes(packer);
+	}
+
+	private static List<Object> keys() {
+		List<Object> keys = new ArrayList<Object>();
+		for (int i = 0; i < 200; i++) {
+			keys.add(i % 3 == 0 ? (Object) Long.valueOf(i * 1000L - 50000) : i % 3 == 1 ? "key" + i : "nested" + i);
+		}
+		keys.add(Long.valueOf(-1));
+		keys.add(Long.valueOf(127));
+		keys.add("");
+		keys.add(Boolean.TRUE);
+		keys.add(null);
+		return keys;
+	}
+
+	private static Object value(Object key, Random random) {
+		if (key instanceof String && ((String) key).startsWith("nested")) {
+			// 内层的Map和Set也要排序
+			Map<Object, Object> map = 0 == random.nextInt(2) ? new HashMap<Object, Object>() : new OpenHashMap<Object, Object>();
+			List<Object> inner = new ArrayList<Object>();
+			for (int i = 0; i < 6; i++) {
+				inner.add("k" + i);
+			}
+			Collections.shuffle(inner, random);
+			for (Object k : inner) {
+				map.put(k, Long.valueOf(((String) k).charAt(1)));
+			}
+			List<Object> elements = new ArrayList<Object>();
+			Collections.addAll(elements, "a", Long.valueOf(3), "zz", Long.valueOf(-1));
+			Collections.shuffle(elements, random);
+			map.put("set", new LinkedHashSet<Object>(elements));
+			return map;
+		}
+		return null == key ? "null key" : Double.valueOf(key.hashCode() % 7);
+	}
+
+	private static Map<Object, Object> build(List<Object> keys, Random random, int kind) {
+		List<Object> shuffled = new ArrayList<Object>(keys);
+		Collections.shuffle(shuffled, random);
+		Map<Object, Object> map;
+		switch (kind % 4) {
+		case 0:
+			map = new LinkedHashMap<Object, Object>();
+			break;
+		case 1:
+			map = new HashMap<Object, Object>();
+			break;
+		case 2:
+			map = new OpenHashMap<Object, Object>();
+			break;
+		default:
+			map = new ArrayMap<Object, Object>();
+		}
+		for (Object k : shuffled) {
+			map.put(k, value(k, random));
+		}
+		return map;
+	}
+
+	private static void testDeterministic() throws IOException {
+		List<Object> keys = keys();
+		Random random = new Random(50);
+		byte[] first = encode(build(keys, random, 0), CANONICAL);
+		for (int i = 1; i < 20; i++) {
+			Check.equal(first, encode(build(keys, random, i), CANONICAL), "canonical encoding #" + i);
+		}
+		// 不规范时一般与插入顺序有关
+		Check.isTrue(!Arrays.equals(encode(build(keys, random, 0), 0), encode(build(keys, random, 0), 0)),
+				"insertion order matters without the option");
+
+		// 解码得到同样的内容
+		Object[] kv = (Object[]) MPack.newMUnpacker(first).unpack();
+		Check.equal(Integer.valueOf(keys.size() * 2), Integer.valueOf(kv.length), "decoded entries");
+	}
+
+	private static void checkSorted(MUnpacker unpacker, int count, boolean map) throws IOException {
+		byte[] previous = null;
+		for (int i = 0; i < count; i++) {
+			ByteArrayOutputStream key = new ByteArrayOutputStream();
+			unpacker.copyValue(key);
+			byte[] current = key.toByteArray();
+			if (null != previous) {
+				Check.isTrue(compare(previous, current) < 0, "key #" + i + " out of order");
+			}
+			previous = current;
+			if (map) {
+				unpacker.skipValue();
+			}
+		}
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < a.length && i < b.length; i++) {
+			int d = (a[i] & 0xff) - (b[i] & 0xff);
+			if (0 != d) {
+				return d;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	private static void testKeyOrder() throws IOException {
+		List<Object> keys = keys();
+		byte[] encoded = encode(build(keys, new Random(51), 1), CANONICAL);
+		MUnpacker unpacker = MPack.newMUnpacker(encoded);
+		checkSorted(unpacker, unpacker.unpackMapHeader(), true);
+
+		// 按字节：正的fixint、fixstr（短的在前）、nil、true，负的fixint在最后
+		Map<Object, Object> small = new HashMap<Object, Object>();
+		small.put(Long.valueOf(-1), "neg");
+		small.put("b", "b");
+		small.put("ab", "ab");
+		small.put("a", "a");
+		small.put(Long.valueOf(5), "five");
+		small.put(null, "nil");
+		small.put(Boolean.TRUE, "true");
+		Object[] kv = (Object[]) MPack.newMUnpacker(encode(small, CANONICAL)).unpack();
+		Object[] expectedKeys = { Long.valueOf(5), "a", "b", "ab", null, Boolean.TRUE, Long.valueOf(-1) };
+		for (int i = 0; i < expectedKeys.length; i++) {
+			Check.equal(expectedKeys[i], kv[i * 2], "key #" + i);
+			Check.equal(small.get(expectedKeys[i]), kv[i * 2 + 1], "value #" + i);
+		}
+	}
+
+	private static void testSets() throws IOException {
+		List<Object> elements = new ArrayList<Object>();
+		for (int i = 0; i < 100; i++) {
+			elements.add("e" + i);
+		}
+		Set<Object> hash = new HashSet<Object>(elements);
+		Set<Object> tree = new TreeSet<Object>(elements);
+		Collections.shuffle(elements, new Random(52));
+		Set<Object> linked = new LinkedHashSet<Object>(elements);
+		byte[] encoded = encode(hash, CANONICAL);
+		Check.equal(encoded, encode(tree, CANONICAL), "TreeSet");
+		Check.equal(encoded, encode(linked, CANONICAL), "LinkedHashSet");
+		MUnpacker unpacker = MPack.newMUnpacker(encoded);
+		checkSorted(unpacker, unpacker.unpackArrayHeader(), false);
+
+		// List不是集合，保持原来的顺序
+		Object[] list = (Object[]) MPack.newMUnpacker(encode(elements, CANONICAL)).unpack();
+		Check.equal(elements.toArray(), list, "list order");
+		// 不规范时Set按迭代顺序
+		Object[] unsorted = (Object[]) MPack.newMUnpacker(encode(linked, 0)).unpack();
+		Check.equal(elements.toArray(), unsorted, "iteration order");
+	}
+
+	private static void expectDuplicate(final Object value) {
+		final MPacker packer = MPack.newMPacker().setOptions(CANONICAL);
+		Check.fails(MPackException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				packer.pack(value);
+			}
+		});
+	}
+
+	private static void testDuplicateKeys() throws IOException {
+		Map<Object, Object> map = new HashMap<Object, Object>();
+		map.put(Integer.valueOf(1), "int");
+		map.put(Long.valueOf(1), "long");
+		expectDuplicate(map);
+
+		Set<Object> set = new HashSet<Object>();
+		set.add(Short.valueOf((short) 7));
+		set.add(Long.valueOf(7));
+		expectDuplicate(set);
+
+		// 字符串和它的UTF-8形式
+		Map<Object, Object> strings = new HashMap<Object, Object>();
+		strings.put("x", "string");
+		strings.put(new StringBuilder("x"), "builder");
+		expectDuplicate(strings);
+
+		// 内层的重复键
+		Map<Object, Object> outer = new HashMap<Object, Object>();
+		outer.put("inner", map);
+		expectDuplicate(outer);
+
+		// 出错后同一个打包器仍然可用
+		final MPacker packer = MPack.newMPacker().setOptions(CANONICAL);
+		Check.fails(MPackException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				packer.pack(outer());
+			}
+		});
+		Map<Object, Object> ok = new HashMap<Object, Object>();
+		ok.put("b", Long.valueOf(2));
+		ok.put("a", Long.valueOf(1));
+		MPacker fresh = MPack.newMPacker().setOptions(CANONICAL);
+		fresh.pack(ok);
+		packer.flush();
+		int before = Check.bytes(packer).length;
+		packer.pack(ok);
+		byte[] all = Check.bytes(packer);
+		Check.equal(Check.bytes(fresh), Arrays.copyOfRange(all, before, all.length), "packer reusable after error");
+	}
+
+	private static Map<Object, Object> outer() {
+		Map<Object, Object> inner = new HashMap<Object, Object>();
+		inner.put(Integer.valueOf(1), "int");
+		inner.put(Long.valueOf(1), "long");
+		Map<Object, Object> outer = new HashMap<Object, Object>();
+		outer.put("a", Long.valueOf(0));
+		outer.put("inner", inner);
+		return outer;
+	}
+
+	private static void testFloats() throws IOException {
+		// 不同负载的NaN作为键编码相同
+		Map<Object, Object> nan = new HashMap<Object, Object>();
+		nan.put(Double.valueOf(Double.NaN), "nan");
+		Map<Object, Object> payload = new HashMap<Object, Object>();
+		payload.put(Double.valueOf(Double.longBitsToDouble(0xfff8000000000123L)), "nan");
+		Check.equal(encode(nan, CANONICAL), encode(payload, CANONICAL), "NaN keys");
+
+		// Float和Double的同一个值宽度不同，是不同的键；OPT_FLOAT_AS_DOUBLE时是重复的键
+		final Map<Object, Object> widened = new HashMap<Object, Object>();
+		widened.put(Float.valueOf(1.5f), "float");
+		widened.put(Double.valueOf(1.5), "double");
+		Object[] kv = (Object[]) MPack.newMUnpacker(encode(widened, CANONICAL)).unpack();
+		Check.equal(Integer.valueOf(4), Integer.valueOf(kv.length), "different widths are different keys");
+		final MPacker packer = MPack.newMPacker().setOptions(CANONICAL | MPacker.OPT_FLOAT_AS_DOUBLE);
+		Check.fails(MPackException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				packer.pack(widened);
+			}
+		});
+		Check.equal(encode(Float.valueOf(-0.0f), CANONICAL | MPacker.OPT_FLOAT_AS_DOUBLE), encode(Double.valueOf(-0.0), CANONICAL),
+				"-0.0");
+	}
+
+	/** 键编码到内部的打包器，扩展类型的设置也要一致 */
+	private static void testTypedArrayKeys() throws IOException {
+		byte type = 0x20;
+		MPacker arrays = MPack.newMPacker().setTypedArrayType(type);
+		arrays.packTypedArray(new int[] { 1, 2 }).packTypedArray(new int[] { 3 });
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(arrays)).setTypedArrayType(type);
+		Set<Object> set = new LinkedHashSet<Object>();
+		set.add(unpacker.unpackTypedArray());
+		set.add(unpacker.unpackTypedArray());
+
+		MPacker packer = MPack.newMPacker().setOptions(CANONICAL).setTypedArrayType(type);
+		packer.pack(set);
+		unpacker = MPack.newMUnpacker(Check.bytes(packer)).setTypedArrayType(type);
+		Check.equal(Integer.valueOf(2), Integer.valueOf(unpacker.unpackArrayHeader()), "set size");
+		// 按字节排序：长度短的负载在前
+		Check.equal(new int[] { 3 }, unpacker.unpackTypedArray().toIntArray(), "first element");
+		Check.equal(new int[] { 1, 2 }, unpacker.unpackTypedArray().toIntArray(), "second element");
+	}
+
+	private static void testDictionaryRefused() {
+		Map<Object, Object> map = new HashMap<Object, Object>();
+		map.put("abc", "def");
+		final Map<Object, Object> value = map;
+		final MPacker packer = MPack.newMPacker().setOptions(CANONICAL).setStringDictionary(new StringDictionary(8));
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				packer.pack(value);
+			}
+		});
+	}
+}
@@ -0,0 +1,58 @@
+package test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.msgpack.BytesOutputStream;
+import org.msgpack.MPacker;
+
+/**
+ * 往返测试用的断言，失败抛出{@link AssertionError}。测试类都是带main方法的普通类，{@link AllTests}依次运行它们
+ * 
+ * @author fangss
+ * 
+ */
+final class Check {
+	interface Block {
+		void run() throws Exception;
+	}
+
+	private Check() {
+	}
+
+	static void isTrue(boolean condition, String what) {
+		if (!condition) {
+			throw new AssertionError(what);
+		}
+	}
+
+	/** 数组按内容比较，浮点数按位比较（-0.0与0.0不同，NaN等于NaN） */
+	static void equal(Object expected, Object actual, String what) {
+		if (!Arrays.deepEquals(new Object[] { expected }, new Object[] { actual })) {
+			throw new AssertionError(what + ": expected " + abbreviate(expected) + " but got " + abbreviate(actual));
+		}
+	}
+
+	private static String abbreviate(Object value) {
+		String s = Arrays.deepToString(new Object[] { value });
+		return s.length() > 200 ? s.substring(0, 200) + "...(" + s.length() + " chars)" : s;
+	}
+
+	static <T extends Throwable> T fails(Class<T> type, Block block) {
+		try {
+			block.run();
+		} catch (Throwable e) {
+			if (type.isInstance(e)) {
+				return type.cast(e);
+			}
+			throw new AssertionError("expected " + type.getName() + " but got " + e, e);
+		}
+		throw new AssertionError("expected " + type.getName());
+	}
+
+	/** 打包到{@link BytesOutputStream}的打包器写入的字节 */
+	static byte[] bytes(MPacker packer) throws IOException {
+		packer.flush();
+		return ((BytesOutputStream) packer.getOutput()).toByteArray();
+	}
+}
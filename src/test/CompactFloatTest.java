@@ -0,0 +1,171 @@
+package test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * {@link MPacker#OPT_COMPACT_FLOAT}：按位无损往返（包括-0.0、NaN的负载、无穷和2^63附近的值），并且选用最小的格式；
+ * {@link MPacker#OPT_FLOAT_AS_DOUBLE}和{@link MPacker#OPT_CANONICAL}下的浮点编码
+ */
+public class CompactFloatTest {
+	private static final int FLOAT32 = 0xca;
+	private static final int FLOAT64 = 0xcb;
+	private static final int UINT32 = 0xce;
+	private static final int UINT64 = 0xcf;
+	private static final int INT32 = 0xd2;
+	private static final int INT64 = 0xd3;
+
+	public static void main(String[] args) throws Exception {
+		testDoubleRoundTrip();
+		testFloatRoundTrip();
+		testFormats();
+		testFloatAsDouble();
+		testCanonicalNaN();
+		System.out.println("CompactFloatTest OK");
+	}
+
+	private static final double[] SPECIAL_DOUBLES = { 0.0, -0.0, 0.5, 42.0, -1.0, 1e300, 0x1p31, -0x1p31, 0x1p32, 0x1p63,
+			-0x1p63, 0x1p64, 0x1.fffffffffffffp62, 9007199254740993.0, Double.NaN, Double.longBitsToDouble(0x7ff8000000000001L),
+			Double.longBitsToDouble(0xfff0000000000001L), Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE,
+			-Double.MIN_VALUE, Double.MAX_VALUE, 0.1, 3.25, 1.1f, Long.MAX_VALUE, Long.MIN_VALUE };
+
+	private static void testDoubleRoundTrip() throws IOException {
+		Random random = new Random(47);
+		double[] values = new double[SPECIAL_DOUBLES.length + 20000];
+		System.arraycopy(SPECIAL_DOUBLES, 0, values, 0, SPECIAL_DOUBLES.length);
+		for (int i = SPECIAL_DOUBLES.length; i < values.length; i++) {
+			switch (random.nextInt(4)) {
+			case 0:
+				values[i] = random.nextInt(1000) - 500;
+				break;
+			case 1:
+				values[i] = Math.round(random.nextGaussian() * 100) / 4.0;
+				break;
+			case 2:
+				values[i] = Math.round(random.nextGaussian() * 1000) / 10.0;
+				break;
+			default:
+				values[i] = Double.longBitsToDouble(random.nextLong());
+			}
+		}
+		MPacker plain = MPack.newMPacker();
+		MPacker compact = MPack.newMPacker().setOptions(MPacker.OPT_COMPACT_FLOAT);
+		for (double v : values) {
+			plain.packDouble(v);
+			compact.packDouble(v);
+		}
+		byte[] encoded = Check.bytes(compact);
+		Check.isTrue(encoded.length < Check.bytes(plain).length, "compact is smaller");
+		MUnpacker unpacker = MPack.newMUnpacker(encoded);
+		for (double v : values) {
+			double actual = unpacker.unpackDouble();
+			Check.isTrue(Double.doubleToRawLongBits(v) == Double.doubleToRawLongBits(actual), v + " decoded as " + actual);
+		}
+		Check.isTrue(!unpacker.hasNext(), "end");
+	}
+
+	private static void testFloatRoundTrip() throws IOException {
+		float[] values = { 0f, -0.0f, 3f, 2.5f, 0x1p31f, -0x1p31f, 0x1p32f, 0x1p63f, -0x1p63f, 0x1p64f, 0x1.fffffep62f, 1e20f,
+				Float.NaN, Float.intBitsToFloat(0x7fc00001), Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.MIN_VALUE,
+				Float.MAX_VALUE, 0.1f };
+		MPacker packer = MPack.newMPacker().setOptions(MPacker.OPT_COMPACT_FLOAT);
+		for (float v : values) {
+			packer.packFloat(v);
+		}
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		for (float v : values) {
+			float actual = unpacker.unpackFloat();
+			Check.isTrue(Float.floatToRawIntBits(v) == Float.floatToRawIntBits(actual), v + "f decoded as " + actual);
+		}
+	}
+
+	private static int formatOfDouble(int options, double v) throws IOException {
+		MPacker packer = MPack.newMPacker().setOptions(options);
+		packer.packDouble(v);
+		return Check.bytes(packer)[0] & 0xff;
+	}
+
+	private static int formatOfFloat(int options, float v) throws IOException {
+		MPacker packer = MPack.newMPacker().setOptions(options);
+		packer.packFloat(v);
+		return Check.bytes(packer)[0] & 0xff;
+	}
+
+	private static void checkFormat(int expected, int actual, String what) {
+		Check.equal(Integer.toHexString(expected), Integer.toHexString(actual), "format of " + what);
+	}
+
+	private static void testFormats() throws IOException {
+		int compact = MPacker.OPT_COMPACT_FLOAT;
+		checkFormat(0x2a, formatOfDouble(compact, 42.0), "42.0");
+		checkFormat(0xff, formatOfDouble(compact, -1.0), "-1.0");
+		checkFormat(FLOAT32, formatOfDouble(compact, -0.0), "-0.0");
+		checkFormat(FLOAT32, formatOfDouble(compact, 3.25), "3.25");
+		checkFormat(FLOAT64, formatOfDouble(compact, 0.1), "0.1");
+		checkFormat(FLOAT64, formatOfDouble(compact, Double.longBitsToDouble(0x7ff8000000000001L)), "NaN with payload");
+		checkFormat(UINT32, formatOfDouble(compact, 0x1p31), "2^31");
+		checkFormat(INT32, formatOfDouble(compact, -0x1p31), "-2^31");
+		checkFormat(UINT64, formatOfDouble(compact, 0x1.fffffffffffffp62), "2^63 - 2^10");
+		checkFormat(INT64, formatOfDouble(compact, -0x1p63), "-2^63");
+		// (long)饱和，2^63和更大的值不是整数格式
+		checkFormat(FLOAT32, formatOfDouble(compact, 0x1p63), "2^63");
+		checkFormat(FLOAT32, formatOfDouble(compact, 0x1p64), "2^64");
+		checkFormat(FLOAT32, formatOfDouble(compact, Double.POSITIVE_INFINITY), "Inf");
+
+		checkFormat(UINT32, formatOfFloat(compact, 0x1p31f), "2^31f");
+		checkFormat(INT32, formatOfFloat(compact, -0x1p31f), "-2^31f");
+		checkFormat(FLOAT32, formatOfFloat(compact, 0x1p63f), "2^63f");
+		checkFormat(FLOAT32, formatOfFloat(compact, -0.0f), "-0.0f");
+		checkFormat(FLOAT32, formatOfFloat(compact, Float.NaN), "NaN");
+		checkFormat(FLOAT32, formatOfFloat(0, 42f), "42f without the option");
+		checkFormat(FLOAT64, formatOfDouble(0, 42.0), "42.0 without the option");
+
+		// unpack()得到的是整数，-0.0仍是浮点数
+		MPacker packer = MPack.newMPacker().setOptions(compact);
+		packer.packFloat(0x1p31f);
+		packer.packDouble(-0.0);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		Check.equal(Long.valueOf(1L << 31), unpacker.unpack(), "2^31f as integer");
+		Check.equal(Double.valueOf(-0.0), unpacker.unpack(), "-0.0 as float");
+	}
+
+	private static void testFloatAsDouble() throws IOException {
+		checkFormat(FLOAT64, formatOfFloat(MPacker.OPT_FLOAT_AS_DOUBLE, 1.5f), "1.5f as double");
+		checkFormat(UINT32, formatOfFloat(MPacker.OPT_FLOAT_AS_DOUBLE | MPacker.OPT_COMPACT_FLOAT, 0x1p31f), "2^31f compact");
+
+		// 同一个值的Float和Double编码相同
+		float[] values = { 1.5f, -0.0f, 0.1f, 0x1p31f, Float.NaN, Float.NEGATIVE_INFINITY };
+		for (float v : values) {
+			MPacker asFloat = MPack.newMPacker().setOptions(MPacker.OPT_FLOAT_AS_DOUBLE);
+			asFloat.pack(Float.valueOf(v));
+			MPacker asDouble = MPack.newMPacker();
+			asDouble.pack(Double.valueOf(v));
+			byte[] encoded = Check.bytes(asFloat);
+			Check.equal(Check.bytes(asDouble), encoded, "Float and Double " + v);
+			double actual = MPack.newMUnpacker(encoded).unpackDouble();
+			Check.isTrue(Double.doubleToRawLongBits(actual) == Double.doubleToRawLongBits(v), v + " decoded as " + actual);
+		}
+	}
+
+	private static void testCanonicalNaN() throws IOException {
+		double[] nans = { Double.NaN, Double.longBitsToDouble(0x7ff8000000000001L), Double.longBitsToDouble(0xfff0000000000001L),
+				Float.intBitsToFloat(0x7fc00001) };
+		for (int options : new int[] { MPacker.OPT_CANONICAL, MPacker.OPT_CANONICAL | MPacker.OPT_COMPACT_FLOAT }) {
+			MPacker reference = MPack.newMPacker().setOptions(options);
+			reference.packDouble(Double.NaN);
+			byte[] expected = Check.bytes(reference);
+			for (double nan : nans) {
+				MPacker packer = MPack.newMPacker().setOptions(options);
+				packer.packDouble(nan);
+				Check.equal(expected, Check.bytes(packer), "canonical NaN " + Long.toHexString(Double.doubleToRawLongBits(nan)));
+			}
+			MPacker packer = MPack.newMPacker().setOptions(options);
+			packer.packFloat(Float.intBitsToFloat(0xffc00001));
+			Check.isTrue(Float.isNaN(MPack.newMUnpacker(Check.bytes(packer)).unpackFloat()), "canonical float NaN");
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.msgpack.ArrayMap;
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.OpenHashMap;
+
+/**
+ * {@link ArrayMap}和{@link OpenHashMap}与{@link HashMap}行为一致，{@link MUnpacker#OPT_READ_MAP_AS_COMPACT_MAP}按大小选用
+ */
+public class CompactMapTest {
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(1);
+		for (int round = 0; round < 100; round++) {
+			testAgainstHashMap(new OpenHashMap<Object, Object>(), random, round);
+			testAgainstHashMap(new ArrayMap<Object, Object>(), random, round);
+		}
+		for (int round = 0; round < 200; round++) {
+			testIteratorRemove(new OpenHashMap<Object, Object>(), random, round);
+			testIteratorRemove(new ArrayMap<Object, Object>(), random, round);
+		}
+		testDecode();
+		System.out.println("CompactMapTest OK");
+	}
+
+	/** 随机的put、remove和get，键包括null和反复删除后重新插入的 */
+	private static void testAgainstHashMap(Map<Object, Object> map, Random random, int round) {
+		Map<Object, Object> expected = new HashMap<Object, Object>();
+		String name = map.getClass().getSimpleName() + " round " + round;
+		for (int i = 0; i < 2000; i++) {
+			Object key = 0 == random.nextInt(50) ? null : Integer.valueOf(random.nextInt(round + 5));
+			switch (random.nextInt(3)) {
+			case 0:
+				Check.equal(expected.put(key, Integer.valueOf(i)), map.put(key, Integer.valueOf(i)), name + " put");
+				break;
+			case 1:
+				Check.equal(expected.remove(key), map.remove(key), name + " remove");
+				break;
+			default:
+				Check.equal(expected.get(key), map.get(key), name + " get");
+				Check.equal(Boolean.valueOf(expected.containsKey(key)), Boolean.valueOf(map.containsKey(key)), name
+						+ " containsKey");
+			}
+			Check.equal(Integer.valueOf(expected.size()), Integer.valueOf(map.size()), name + " size");
+		}
+		Check.isTrue(expected.equals(map) && map.equals(expected), name + " equals");
+		Check.equal(Integer.valueOf(expected.hashCode()), Integer.valueOf(map.hashCode()), name + " hashCode");
+	}
+
+	/** 遍历时删除：每个元素恰好遍历一次，包括探测链绕回表头、后面的元素移到当前槽位的情况 */
+	private static void testIteratorRemove(Map<Object, Object> map, Random random, int round) {
+		String name = map.getClass().getSimpleName() + " round " + round;
+		Map<Object, Object> expected = new HashMap<Object, Object>();
+		int n = 1 + random.nextInt(40);
+		for (int i = 0; i < n; i++) {
+			Object key = 0 == random.nextInt(20) ? null : Integer.valueOf(random.nextInt(1000));
+			map.put(key, Integer.valueOf(i));
+			expected.put(key, Integer.valueOf(i));
+		}
+		Set<Object> all = new HashSet<Object>(expected.keySet());
+		Set<Object> seen = new HashSet<Object>();
+		for (Iterator<Map.Entry<Object, Object>> it = map.entrySet().iterator(); it.hasNext();) {
+			// 条目直接读表，删除后失效，先取出键
+			Object key = it.next().getKey();
+			Check.isTrue(seen.add(key), name + " visited once: " + key);
+			if (random.nextBoolean()) {
+				it.remove();
+				expected.remove(key);
+			}
+		}
+		Check.isTrue(all.equals(seen), name + " visited all");
+		Check.isTrue(expected.equals(map), name + " after iterator remove");
+
+		Object someKey = expected.isEmpty() ? null : expected.keySet().iterator().next();
+		Check.equal(Boolean.valueOf(expected.keySet().remove(someKey)), Boolean.valueOf(map.keySet().remove(someKey)),
+				name + " keySet().remove");
+		Predicate<Object> odd = new Predicate<Object>() {
+			@Override
+			public boolean test(Object value) {
+				return ((Integer) value).intValue() % 2 != 0;
+			}
+		};
+		expected.values().removeIf(odd);
+		map.values().removeIf(odd);
+		Check.isTrue(expected.equals(map), name + " values().removeIf");
+		Predicate<Map.Entry<Object, Object>> notNull = new Predicate<Map.Entry<Object, Object>>() {
+			@Override
+			public boolean test(Map.Entry<Object, Object> e) {
+				return null != e.getKey();
+			}
+		};
+		expected.entrySet().removeIf(notNull);
+		map.entrySet().removeIf(notNull);
+		Check.isTrue(expected.equals(map), name + " entrySet().removeIf");
+	}
+
+	private static void testDecode() throws IOException {
+		Map<String, Object> large = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < 20; i++) {
+			large.put("k" + i, Integer.valueOf(i));
+		}
+		MPacker packer = MPack.newMPacker();
+		packer.pack(Arrays.asList(large, Collections.singletonMap("a", Integer.valueOf(1)), new HashMap<String, Object>()));
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setOptions(MUnpacker.OPT_READ_MAP_AS_COMPACT_MAP);
+		Object[] maps = (Object[]) unpacker.unpack();
+		Check.isTrue(maps[0] instanceof OpenHashMap, "large map is an OpenHashMap");
+		Check.isTrue(maps[1] instanceof ArrayMap, "small map is an ArrayMap");
+		Check.equal(Integer.valueOf(20), Integer.valueOf(((Map<?, ?>) maps[0]).size()), "large map size");
+		Check.equal(Long.valueOf(13), ((Map<?, ?>) maps[0]).get("k13"), "large map lookup");
+		Check.equal(Collections.singletonMap("a", Long.valueOf(1)), maps[1], "small map");
+		Check.isTrue(((Map<?, ?>) maps[2]).isEmpty(), "empty map");
+	}
+}
@@ -0,0 +1,149 @@
+package test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackException;
+import org.msgpack.MPackSizeException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * 显式栈解码：深层嵌套不耗尽线程栈，头部声明的大小不可信
+ */
+public class ContainerDecodeTest {
+
+	public static void main(String[] args) throws Exception {
+		testDeepNesting();
+		testMaxDepth();
+		testNested();
+		testLargeContainers();
+		testHostileHeaders();
+		System.out.println("ContainerDecodeTest OK");
+	}
+
+	private static void testDeepNesting() throws IOException {
+		int depth = 1000 * 1000;
+		byte[] bytes = new byte[depth + 1];
+		Arrays.fill(bytes, (byte) 0x91); // fixarray 1
+		bytes[depth] = 5;
+		Object value = MPack.newMUnpacker(bytes).unpack();
+		int d = 0;
+		for (; value instanceof Object[]; d++) {
+			value = ((Object[]) value)[0];
+		}
+		Check.equal(Integer.valueOf(depth), Integer.valueOf(d), "depth");
+		Check.equal(Long.valueOf(5), value, "innermost value");
+	}
+
+	private static void testMaxDepth() {
+		final byte[] bytes = new byte[101];
+		Arrays.fill(bytes, (byte) 0x81); // fixmap 1
+		Check.fails(MPackException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPack.newMUnpacker(bytes).setMaxDepth(50).unpack();
+			}
+		});
+	}
+
+	private static void testNested() throws IOException {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("a", Arrays.asList(Integer.valueOf(1), new int[0], "x"));
+		map.put("b", new HashMap<String, Object>());
+		MPacker packer = MPack.newMPacker();
+		packer.pack(map);
+		packer.packInt(7);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setOptions(MUnpacker.OPT_READ_ARRAY_AS_LIST);
+		Object[] kvs = (Object[]) unpacker.unpack();
+		Check.equal("a", kvs[0], "first key");
+		Check.equal(Arrays.asList(Long.valueOf(1), Arrays.asList(), "x"), kvs[1], "list value");
+		Check.equal("b", kvs[2], "second key");
+		Check.equal(new Object[0], kvs[3], "empty map");
+		Check.equal(Long.valueOf(7), unpacker.unpack(), "next value");
+	}
+
+	/** 比初始容量上限大的容器按实际元素增长 */
+	private static void testLargeContainers() throws IOException {
+		int n = 5000;
+		MPacker packer = MPack.newMPacker();
+		packer.packArrayHeader(n);
+		for (int i = 0; i < n; i++) {
+			packer.packInt(i);
+		}
+		packer.packMapHeader(n);
+		for (int i = 0; i < n; i++) {
+			packer.packString("k" + i);
+			packer.packInt(-i);
+		}
+		packer.packArrayHeader(1);
+		packer.packArrayHeader(n);
+		for (int i = 0; i < n; i++) {
+			packer.packNil();
+		}
+		byte[] bytes = Check.bytes(packer);
+
+		MUnpacker unpacker = MPack.newMUnpacker(bytes);
+		Object[] array = unpacker.unpackArray();
+		Check.equal(Integer.valueOf(n), Integer.valueOf(array.length), "array length");
+		Check.equal(Long.valueOf(n - 1), array[n - 1], "last element");
+		Map<?, ?> map = unpacker.unpackMap();
+		Check.equal(Integer.valueOf(n), Integer.valueOf(map.size()), "map size");
+		Check.equal(Long.valueOf(1 - n), map.get("k" + (n - 1)), "last entry");
+		Object[] nested = (Object[]) ((Object[]) unpacker.unpack())[0];
+		Check.equal(Integer.valueOf(n), Integer.valueOf(nested.length), "nested array length");
+
+		MUnpacker compact = MPack.newMUnpacker(bytes).setOptions(MUnpacker.OPT_READ_MAP_AS_COMPACT_MAP);
+		compact.unpack();
+		Check.equal(Integer.valueOf(n), Integer.valueOf(((Map<?, ?>) compact.unpack()).size()), "compact map size");
+		Check.equal(Integer.valueOf(n), Integer.valueOf(((List<?>) MPack.newMUnpacker(bytes)
+				.setOptions(MUnpacker.OPT_READ_ARRAY_AS_LIST).unpack()).size()), "list size");
+	}
+
+	/** 声明2^31-1个元素（或2^30-1个键值对）但只有几个字节：读到流尾，而不是按头部分配数组 */
+	private static void testHostileHeaders() {
+		final byte[][] inputs = { { (byte) 0xdd, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1, 2, 3 },
+				{ (byte) 0xdf, 0x3f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1, 2, 3 },
+				{ (byte) 0x91, (byte) 0xdd, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1 } };
+		for (final byte[] input : inputs) {
+			Check.fails(EOFException.class, new Check.Block() {
+				@Override
+				public void run() throws IOException {
+					MPack.newMUnpacker(input).unpack();
+				}
+			});
+			Check.fails(EOFException.class, new Check.Block() {
+				@Override
+				public void run() throws IOException {
+					MPack.newMUnpacker(input).setOptions(
+							MUnpacker.OPT_READ_ARRAY_AS_LIST | MUnpacker.OPT_READ_MAP_AS_COMPACT_MAP).unpack();
+				}
+			});
+		}
+		Check.fails(EOFException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPack.newMUnpacker(inputs[0]).unpackArray();
+			}
+		});
+		Check.fails(EOFException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPack.newMUnpacker(inputs[1]).unpackMap();
+			}
+		});
+		// 键值对展开后超过数组的最大长度
+		Check.fails(MPackSizeException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPack.newMUnpacker(new byte[] { (byte) 0xdf, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1 }).unpack();
+			}
+		});
+	}
+}
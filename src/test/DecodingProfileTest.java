@@ -0,0 +1,69 @@
+package test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.msgpack.MFeedUnpacker;
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * {@link MUnpacker#OPT_MATCHED_INTEGER}、{@link MUnpacker#OPT_MATCHED_FLOAT}和{@link MUnpacker#PROFILE_LOW_MEMORY}给出的装箱类型，
+ * {@link MUnpacker}和{@link MFeedUnpacker}一致
+ */
+public class DecodingProfileTest {
+
+	public static void main(String[] args) throws Exception {
+		byte[] bytes = encode();
+		BigInteger max = new BigInteger("18446744073709551615");
+		check(bytes, 0, new Object[] { Long.valueOf(5), Long.valueOf(-100), Long.valueOf(200), Long.valueOf(40000),
+				Long.valueOf(3000000000L), Long.valueOf(-3000000000L), max, Double.valueOf(1.5), Double.valueOf(2.5),
+				Double.valueOf(-0.0), Double.valueOf(Float.NaN) });
+		check(bytes, MUnpacker.OPT_MATCHED_INTEGER | MUnpacker.OPT_MATCHED_FLOAT, new Object[] { Byte.valueOf((byte) 5),
+				Byte.valueOf((byte) -100), Short.valueOf((short) 200), Integer.valueOf(40000), Long.valueOf(3000000000L),
+				Long.valueOf(-3000000000L), max, Float.valueOf(1.5f), Double.valueOf(2.5), Float.valueOf(-0.0f),
+				Float.valueOf(Float.NaN) });
+		check(bytes, MUnpacker.PROFILE_LOW_MEMORY, new Object[] { Integer.valueOf(5), Integer.valueOf(-100),
+				Integer.valueOf(200), Integer.valueOf(40000), Long.valueOf(3000000000L), Long.valueOf(-3000000000L), max,
+				Float.valueOf(1.5f), Double.valueOf(2.5), Float.valueOf(-0.0f), Float.valueOf(Float.NaN) });
+		testSharedIntegers(bytes);
+		System.out.println("DecodingProfileTest OK");
+	}
+
+	private static byte[] encode() throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packArrayHeader(11);
+		packer.packInt(5);
+		packer.packInt(-100);
+		packer.packInt(200);
+		packer.packInt(40000);
+		packer.packLong(3000000000L);
+		packer.packLong(-3000000000L);
+		packer.packBigInteger(new BigInteger("18446744073709551615"));
+		packer.packFloat(1.5f);
+		packer.packDouble(2.5);
+		packer.packFloat(-0.0f);
+		packer.packFloat(Float.NaN);
+		return Check.bytes(packer);
+	}
+
+	/** 值和装箱类型都要相同 */
+	private static void check(byte[] bytes, int options, Object[] expected) throws IOException {
+		Object[] unpacked = (Object[]) MPack.newMUnpacker(bytes).setOptions(options).unpack();
+		MFeedUnpacker feeder = new MFeedUnpacker().setOptions(options);
+		feeder.feed(bytes, 0, bytes.length);
+		Object[] fed = (Object[]) feeder.poll();
+		for (int i = 0; i < expected.length; i++) {
+			Check.equal(expected[i], unpacked[i], "options " + options + ", element " + i);
+			Check.equal(expected[i], fed[i], "options " + options + ", fed element " + i);
+		}
+	}
+
+	/** 低内存模式共享小整数的装箱对象 */
+	private static void testSharedIntegers(byte[] bytes) throws IOException {
+		Object[] x = (Object[]) MPack.newMUnpacker(bytes).setOptions(MUnpacker.PROFILE_LOW_MEMORY).unpack();
+		Object[] y = (Object[]) MPack.newMUnpacker(bytes).setOptions(MUnpacker.PROFILE_LOW_MEMORY).unpack();
+		Check.isTrue(x[2] == y[2], "small integers are shared");
+	}
+}
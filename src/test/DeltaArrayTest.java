@@ -0,0 +1,93 @@
+package test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackFormatException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.TypedArray;
+
+/**
+ * 差分和二阶差分编码的long序列：包括溢出的差在内往返不变，规则的序列每个值只占1字节，截断的负载被拒绝
+ */
+public class DeltaArrayTest {
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(46);
+		long[] regular = new long[10000];
+		long[] jittered = new long[10000];
+		long[] counter = new long[10000];
+		long t = 1700000000000L, c = 0;
+		for (int i = 0; i < regular.length; i++) {
+			regular[i] = t + i * 1000L;
+			jittered[i] = t + i * 1000L + random.nextInt(5) - 2;
+			counter[i] = c += random.nextInt(300);
+		}
+		long[] noise = new long[1000];
+		for (int i = 0; i < noise.length; i++) {
+			noise[i] = random.nextLong();
+		}
+		long[][] cases = { {}, { 0 }, { -1 }, { Long.MIN_VALUE }, { 5, 3 },
+				{ Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, Long.MIN_VALUE, Long.MAX_VALUE }, regular, jittered, counter, noise };
+		for (long[] values : cases) {
+			testRoundTrip(values);
+		}
+		testSize(regular);
+		testMalformed();
+		System.out.println("DeltaArrayTest OK");
+	}
+
+	private static void testRoundTrip(long[] values) throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packDeltaArray(values).packDeltaOfDeltaArray(values).packTypedArray(values).packInt(7);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		TypedArray delta = unpacker.unpackTypedArray();
+		Check.equal(Byte.valueOf(TypedArray.DELTA_INT64), Byte.valueOf(delta.getKind()), "kind");
+		Check.equal(Integer.valueOf(values.length), Integer.valueOf(delta.length()), "length");
+		Check.equal(values, delta.toLongArray(), "delta");
+		Check.equal(values, unpacker.unpackLongArray(), "delta of delta");
+		Check.equal(values, unpacker.unpackLongArray(), "plain int64");
+		Check.equal(Long.valueOf(7), Long.valueOf(unpacker.unpackInt()), "value after arrays");
+
+		// 解码得到的TypedArray重新打包，负载原样写出
+		MPacker repacker = MPack.newMPacker();
+		repacker.pack(delta);
+		Check.equal(values, MPack.newMUnpacker(Check.bytes(repacker)).unpackLongArray(), "repacked delta");
+	}
+
+	private static void testSize(long[] regular) throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packDeltaOfDeltaArray(regular);
+		int size = Check.bytes(packer).length;
+		// 头部、第一个值和第一个差之外每个值1字节
+		Check.isTrue(size < regular.length + 32, "delta of delta of regular timestamps takes " + size + " bytes");
+		packer = MPack.newMPacker();
+		packer.packDeltaArray(regular);
+		size = Check.bytes(packer).length;
+		Check.isTrue(size < regular.length * 2 + 32, "delta of regular timestamps takes " + size + " bytes");
+	}
+
+	private static void testMalformed() throws IOException {
+		// 声明3个值但只有1个
+		expectMalformed(new byte[] { TypedArray.DELTA_INT64, 3, 2 });
+		// 最后一个变长整数没有结束
+		expectMalformed(new byte[] { TypedArray.DELTA2_INT64, 2, 2, (byte) 0x80 });
+		// 个数超过负载的字节数
+		expectMalformed(new byte[] { TypedArray.DELTA_INT64, 100, 2 });
+	}
+
+	private static void expectMalformed(byte[] payload) throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packExtensionTypeHeader(TypedArray.DEFAULT_EXT_TYPE, payload.length);
+		packer.write(payload, 0, payload.length);
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unpacker.unpackLongArray();
+			}
+		});
+	}
+}
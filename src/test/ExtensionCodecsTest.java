@@ -0,0 +1,170 @@
+package test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.msgpack.BigDecimalCodec;
+import org.msgpack.EnumCodec;
+import org.msgpack.ExtensionRegistry;
+import org.msgpack.MPack;
+import org.msgpack.MPackFormatException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.UuidCodec;
+
+/**
+ * {@link UuidCodec}、{@link BigDecimalCodec}和{@link EnumCodec}：值（包括BigDecimal的scale）原样往返，截断或越界的负载被拒绝
+ */
+public class ExtensionCodecsTest {
+	private static final byte UUID_TYPE = 1;
+	private static final byte DECIMAL_TYPE = 2;
+	private static final byte COLOR_TYPE = 3;
+
+	enum Color {
+		RED, GREEN {
+			@Override
+			public String toString() {
+				return "green";
+			}
+		},
+		BLUE, PURPLE
+	}
+
+	public static void main(String[] args) throws Exception {
+		testRoundTrip();
+		testBigDecimalLength();
+		testMalformedBigDecimal();
+		testEnumNameTable();
+		System.out.println("ExtensionCodecsTest OK");
+	}
+
+	private static ExtensionRegistry registry() {
+		// 名字表中的GONE已经从枚举中删除，PURPLE不在名字表中
+		return ExtensionRegistry.withBuiltins().register(new UuidCodec(UUID_TYPE)).register(new BigDecimalCodec(DECIMAL_TYPE))
+				.register(new EnumCodec<Color>(COLOR_TYPE, Color.class, "BLUE", "GONE", "GREEN", "RED"));
+	}
+
+	private static void testRoundTrip() throws IOException {
+		List<Object> values = new ArrayList<Object>();
+		values.add(new UUID(0, 0));
+		values.add(new UUID(-1, -1));
+		values.add(new UUID(Long.MIN_VALUE, Long.MAX_VALUE));
+		values.add(UUID.randomUUID());
+		values.add(Color.RED);
+		values.add(Color.GREEN);
+		values.add(Color.BLUE);
+		values.add(BigDecimal.ZERO);
+		values.add(new BigDecimal("-0.00"));
+		values.add(new BigDecimal("123.45"));
+		values.add(new BigDecimal("-1E+5"));
+		values.add(new BigDecimal(Long.MAX_VALUE));
+		values.add(new BigDecimal(Long.MIN_VALUE));
+		values.add(new BigDecimal(BigInteger.ONE.shiftLeft(63)));
+		values.add(new BigDecimal(BigInteger.ONE.shiftLeft(63).negate().subtract(BigInteger.ONE)));
+		values.add(new BigDecimal(BigInteger.TEN, Integer.MAX_VALUE));
+		values.add(new BigDecimal(BigInteger.ONE, Integer.MIN_VALUE));
+		values.add(new BigDecimal(BigInteger.ONE.negate(), -1));
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; i++) {
+			BigInteger unscaled = new BigInteger(random.nextInt(200) + 1, random);
+			values.add(new BigDecimal(random.nextBoolean() ? unscaled : unscaled.negate(), random.nextInt(2000) - 1000));
+		}
+
+		ExtensionRegistry registry = registry();
+		MPacker packer = MPack.newMPacker().setExtensionRegistry(registry);
+		for (Object value : values) {
+			packer.pack(value);
+		}
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setExtensionRegistry(registry);
+		for (Object value : values) {
+			// BigDecimal.equals同时比较scale，-0.00和0不相等
+			Check.equal(value, unpacker.unpack(), "round trip");
+		}
+		Check.isTrue(!unpacker.hasNext(), "end");
+	}
+
+	/** unscaled value用最少的字节 */
+	private static void testBigDecimalLength() throws IOException {
+		ExtensionRegistry registry = registry();
+		// FIXEXT的头2字节，EXT8的头3字节
+		checkLength(registry, new BigDecimal("-1.28"), 2 + 1 + 1);
+		checkLength(registry, new BigDecimal("1.28"), 3 + 1 + 2);
+		checkLength(registry, new BigDecimal("123.45"), 3 + 1 + 2);
+		checkLength(registry, new BigDecimal("327.67"), 3 + 1 + 2);
+		checkLength(registry, new BigDecimal("-3.2768"), 3 + 1 + 2);
+		checkLength(registry, new BigDecimal(Long.MAX_VALUE), 3 + 1 + 8);
+		checkLength(registry, new BigDecimal(BigInteger.ONE.shiftLeft(63)), 3 + 1 + 9);
+	}
+
+	private static void checkLength(ExtensionRegistry registry, BigDecimal value, int expected) throws IOException {
+		MPacker packer = MPack.newMPacker().setExtensionRegistry(registry);
+		packer.pack(value);
+		Check.equal(Integer.valueOf(expected), Integer.valueOf(Check.bytes(packer).length), "encoded length of " + value);
+	}
+
+	private static void testMalformedBigDecimal() throws IOException {
+		// 只有scale没有unscaled value
+		expectMalformed(new byte[] { 2 });
+		// scale的变长整数超过5字节
+		expectMalformed(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1, 1 });
+		// 不是最短编码的scale
+		expectMalformed(new byte[] { (byte) 0x82, 0, 1 });
+	}
+
+	private static void expectMalformed(byte[] payload) throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packExtensionTypeHeader(DECIMAL_TYPE, payload.length);
+		packer.write(payload, 0, payload.length);
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setExtensionRegistry(registry());
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unpacker.unpack();
+			}
+		});
+	}
+
+	private static void testEnumNameTable() throws IOException {
+		ExtensionRegistry registry = registry();
+		// 序号来自名字表：BLUE是0，RED是3
+		MPacker packer = MPack.newMPacker().setExtensionRegistry(registry);
+		packer.pack(Color.RED);
+		byte[] red = Check.bytes(packer);
+		Check.equal(Integer.valueOf(3), Integer.valueOf(red.length), "FIXEXT1");
+		Check.equal(Byte.valueOf((byte) 3), Byte.valueOf(red[2]), "name table index");
+
+		// 已删除的名字解码为null
+		packer = MPack.newMPacker();
+		packer.packExtensionTypeHeader(COLOR_TYPE, 1);
+		packer.writeByte((byte) 1);
+		packer.packExtensionTypeHeader(COLOR_TYPE, 1);
+		packer.writeByte((byte) 4);
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setExtensionRegistry(registry);
+		Check.equal(null, unpacker.unpack(), "removed constant");
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unpacker.unpack();
+			}
+		});
+
+		final MPacker unlisted = MPack.newMPacker().setExtensionRegistry(registry);
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unlisted.pack(Color.PURPLE);
+			}
+		});
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() {
+				new EnumCodec<Color>(COLOR_TYPE, Color.class, "RED", "BLUE", "RED");
+			}
+		});
+	}
+}
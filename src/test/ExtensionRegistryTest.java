@@ -0,0 +1,138 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.msgpack.ExtensionCodec;
+import org.msgpack.ExtensionRegistry;
+import org.msgpack.ExtensionValue;
+import org.msgpack.MFeedUnpacker;
+import org.msgpack.MPack;
+import org.msgpack.MPackParallel;
+import org.msgpack.MPackRawValue;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * {@link ExtensionRegistry}：注册的类（包括子类）打包为扩展类型，注册的扩展类型解码为编解码器给出的对象
+ */
+public class ExtensionRegistryTest {
+	private static final byte POINT_TYPE = 5;
+
+	static class Point {
+		final int x, y;
+
+		Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Point && ((Point) obj).x == x && ((Point) obj).y == y;
+		}
+
+		@Override
+		public int hashCode() {
+			return x * 31 + y;
+		}
+
+		@Override
+		public String toString() {
+			return "Point(" + x + ", " + y + ")";
+		}
+	}
+
+	static class Point3 extends Point {
+		Point3(int x, int y) {
+			super(x, y);
+		}
+	}
+
+	static class PointCodec implements ExtensionCodec<Point> {
+		@Override
+		public byte getType() {
+			return POINT_TYPE;
+		}
+
+		@Override
+		public Class<Point> getValueClass() {
+			return Point.class;
+		}
+
+		@Override
+		public Point read(MUnpacker unpacker, int length) throws IOException {
+			return new Point(unpacker.readInt(), unpacker.readInt());
+		}
+
+		@Override
+		public void write(MPacker packer, Point value) throws IOException {
+			packer.packExtensionTypeHeader(POINT_TYPE, 8);
+			packer.writeInt(value.x);
+			packer.writeInt(value.y);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ExtensionRegistry registry = new ExtensionRegistry().register(new PointCodec());
+		Check.isTrue(registry.get(POINT_TYPE) instanceof PointCodec, "lookup by type");
+		Check.isTrue(registry.get(Point3.class) instanceof PointCodec, "lookup by subclass");
+		Check.isTrue(null == registry.get((byte) 6) && null == registry.get(String.class), "unregistered");
+
+		MPacker packer = MPack.newMPacker().setExtensionRegistry(registry);
+		packer.pack(Arrays.asList(new Point(1, 2), new Point3(3, -4), "s"));
+		// 没有注册的类型
+		packer.packExtensionTypeHeader((byte) 9, 20);
+		packer.write(new byte[20]);
+		// 负载比编解码器读取的长，多余的字节被跳过
+		packer.packExtensionTypeHeader(POINT_TYPE, 12);
+		packer.writeInt(7);
+		packer.writeInt(8);
+		packer.writeInt(99);
+		packer.packInt(77);
+		byte[] bytes = Check.bytes(packer);
+
+		MUnpacker unpacker = MPack.newMUnpacker(bytes).setExtensionRegistry(registry);
+		Object[] expected = { new Point(1, 2), new Point(3, -4), "s" };
+		Check.equal(expected, unpacker.unpack(), "registered values");
+		ExtensionValue unknown = (ExtensionValue) unpacker.unpack();
+		Check.equal(Byte.valueOf((byte) 9), Byte.valueOf(unknown.getType()), "unregistered type");
+		Check.equal(new byte[20], unknown.getData(), "unregistered payload");
+		Check.equal(new Point(7, 8), unpacker.unpack(), "longer payload");
+		Check.equal(Long.valueOf(77), unpacker.unpack(), "value after the longer payload");
+
+		MFeedUnpacker feeder = new MFeedUnpacker().setExtensionRegistry(registry);
+		feeder.feed(bytes, 0, bytes.length);
+		Check.equal(expected, feeder.poll(), "fed values");
+
+		Object plain = MPack.newMUnpacker(bytes).unpack();
+		Check.isTrue(((Object[]) plain)[0] instanceof ExtensionValue, "no registry");
+
+		testForks(registry, bytes, expected);
+		System.out.println("ExtensionRegistryTest OK");
+	}
+
+	/** 并行编码的分块和原始值的解码沿用注册表 */
+	private static void testForks(ExtensionRegistry registry, byte[] bytes, Object[] expected) throws IOException {
+		List<Object> points = new ArrayList<Object>();
+		for (int i = 0; i < 5000; i++) {
+			points.add(new Point(i, -i));
+		}
+		MPacker sequential = MPack.newMPacker().setExtensionRegistry(registry);
+		sequential.pack(points);
+		MPacker parallel = MPack.newMPacker().setExtensionRegistry(registry);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			MPackParallel.packArray(parallel, points, pool);
+		} finally {
+			pool.shutdown();
+		}
+		Check.equal(Check.bytes(sequential), Check.bytes(parallel), "parallel packing with a registry");
+
+		MPackRawValue raw = MPack.newMUnpacker(bytes).setExtensionRegistry(registry).rawValues().findFirst().get();
+		Check.equal(expected, raw.unpack(), "raw value decoded with the registry");
+	}
+}
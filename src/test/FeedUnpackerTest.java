@@ -0,0 +1,114 @@
+package test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.msgpack.ExtensionValue;
+import org.msgpack.MFeedUnpacker;
+import org.msgpack.MPack;
+import org.msgpack.MPackSizeException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * {@link MFeedUnpacker}：任意切分的输入与{@link MUnpacker}解码的结果相同
+ */
+public class FeedUnpackerTest {
+
+	public static void main(String[] args) throws Exception {
+		byte[] bytes = encode();
+		List<Object> expected = new ArrayList<Object>();
+		MUnpacker unpacker = MPack.newMUnpacker(bytes);
+		while (unpacker.hasNext()) {
+			expected.add(unpacker.unpack());
+		}
+		for (int chunk : new int[] { 1, 2, 3, 7, 777, bytes.length }) {
+			testChunks(bytes, expected, chunk);
+		}
+		testLargePayload();
+		testPayloadLimit();
+		System.out.println("FeedUnpackerTest OK");
+	}
+
+	private static byte[] encode() throws IOException {
+		MPacker packer = MPack.newMPacker();
+		for (int i = 0; i < 500; i++) {
+			packer.packArrayHeader(6);
+			packer.packLong(i * 1000000007L);
+			packer.packString("héllo" + i);
+			packer.packMapHeader(1);
+			packer.packInt(i);
+			packer.packArrayHeader(0);
+			packer.packExtensionTypeHeader((byte) 5, 4);
+			packer.write(new byte[] { 1, 2, 3, 4 });
+			packer.packDouble(-0.0);
+			packer.packBigInteger(new BigInteger("18446744073709551615"));
+		}
+		return Check.bytes(packer);
+	}
+
+	private static List<Object> feed(MFeedUnpacker feeder, byte[] bytes, int chunk) {
+		List<Object> values = new ArrayList<Object>();
+		for (int off = 0; off < bytes.length; off += chunk) {
+			feeder.feed(bytes, off, Math.min(chunk, bytes.length - off));
+			Object value;
+			while (MFeedUnpacker.NEED_INPUT != (value = feeder.poll())) {
+				values.add(value);
+			}
+		}
+		return values;
+	}
+
+	private static void testChunks(byte[] bytes, List<Object> expected, int chunk) {
+		MFeedUnpacker feeder = new MFeedUnpacker();
+		List<Object> values = feed(feeder, bytes, chunk);
+		Check.equal(Integer.valueOf(expected.size()), Integer.valueOf(values.size()), "value count, chunk " + chunk);
+		for (int i = 0; i < values.size(); i++) {
+			Object[] e = (Object[]) expected.get(i), v = (Object[]) values.get(i);
+			Check.equal(Integer.valueOf(e.length), Integer.valueOf(v.length), "array length " + i);
+			for (int k = 0; k < e.length; k++) {
+				if (e[k] instanceof ExtensionValue) {
+					// 扩展类型没有按内容的equals
+					ExtensionValue ee = (ExtensionValue) e[k], ve = (ExtensionValue) v[k];
+					Check.equal(Byte.valueOf(ee.getType()), Byte.valueOf(ve.getType()), "extension type " + i);
+					Check.equal(ee.getData(), ve.getData(), "extension data " + i);
+				} else {
+					Check.equal(e[k], v[k], "element " + k + " of value " + i + ", chunk " + chunk);
+				}
+			}
+		}
+		Check.equal(Long.valueOf(0), Long.valueOf(feeder.getBufferedBytes()), "buffered bytes");
+		Check.isTrue(!feeder.isInsideValue(), "not inside a value");
+	}
+
+	/** 负载的缓冲区随数据增长，超过初始大小 */
+	private static void testLargePayload() throws IOException {
+		byte[] big = new byte[100 * 1000];
+		new Random(1).nextBytes(big);
+		MPacker packer = MPack.newMPacker();
+		packer.pack(big);
+		packer.pack(new Object[] { "abc", big });
+		List<Object> values = feed(new MFeedUnpacker(), Check.bytes(packer), 777);
+		Check.equal(big, values.get(0), "binary");
+		Check.equal(big, ((Object[]) values.get(1))[1], "binary in an array");
+	}
+
+	private static void testPayloadLimit() {
+		final MFeedUnpacker limited = new MFeedUnpacker().setMaxPayloadLength(1000);
+		limited.feed(new byte[] { (byte) 0xc6, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff }, 0, 5);
+		Check.fails(MPackSizeException.class, new Check.Block() {
+			@Override
+			public void run() {
+				limited.poll();
+			}
+		});
+		// 头部声明的长度很大，但只有几个字节到达时不会预先分配
+		MFeedUnpacker feeder = new MFeedUnpacker();
+		feeder.feed(new byte[] { (byte) 0xc6, 0x03, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1, 2 }, 0, 7);
+		Check.isTrue(MFeedUnpacker.NEED_INPUT == feeder.poll(), "waiting for the payload");
+		Check.isTrue(feeder.isInsideValue(), "inside a value");
+	}
+}
@@ -0,0 +1,86 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.msgpack.FieldMatcher;
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.StringDictionary;
+
+/**
+ * {@link FieldMatcher}和{@link MUnpacker#unpackField(FieldMatcher)}：已知字段按序号分派，未知的键连同值一起跳过
+ */
+public class FieldMatcherTest {
+
+	public static void main(String[] args) throws Exception {
+		String[] names = new String[200];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "field_" + Integer.toHexString(i * 7919) + (i % 3 == 0 ? "é" : "");
+		}
+		FieldMatcher matcher = new FieldMatcher(names);
+		testMatch(matcher, names);
+		byte[] bytes = encode(MPack.newMPacker(), names);
+		testUnpackField(MPack.newMUnpacker(bytes), matcher);
+		testUnpackField(new MUnpacker(new ByteArrayInputStream(bytes)), matcher);
+		// 第二次打包时键都是字典中的引用
+		MPacker packer = MPack.newMPacker().setStringDictionary(new StringDictionary(16).setMinLength(1));
+		encode(packer, names);
+		MUnpacker unpacker = MPack.newMUnpacker(encode(packer, names)).setStringDictionary(
+				new StringDictionary(16).setMinLength(1));
+		testUnpackField(unpacker, matcher);
+		testUnpackField(unpacker, matcher);
+		testDuplicate();
+		System.out.println("FieldMatcherTest OK");
+	}
+
+	private static void testMatch(FieldMatcher matcher, String[] names) {
+		for (int i = 0; i < names.length; i++) {
+			Check.equal(Integer.valueOf(i), Integer.valueOf(matcher.match(names[i])), names[i]);
+		}
+		for (String unknown : new String[] { "", "nope", "field_x", names[0] + "x", names[0].substring(1) }) {
+			Check.equal(Integer.valueOf(FieldMatcher.UNKNOWN), Integer.valueOf(matcher.match(unknown)), unknown);
+		}
+	}
+
+	/** 已知字段、未知的字符串键、整数键、很长的键 */
+	private static byte[] encode(MPacker packer, String[] names) throws IOException {
+		packer.packMapHeader(5);
+		packer.packString(names[3]);
+		packer.packLong(42);
+		packer.packString("unknown");
+		packer.pack(Arrays.asList(1, 2, 3));
+		packer.packInt(7);
+		packer.packString("int key");
+		packer.packString(new String(new char[5000]).replace('\0', 'x'));
+		packer.packInt(1);
+		packer.packString(names[199]);
+		packer.packString("v");
+		packer.packInt(-1);
+		return Check.bytes(packer);
+	}
+
+	private static void testUnpackField(MUnpacker unpacker, FieldMatcher matcher) throws IOException {
+		int n = unpacker.unpackMapHeader();
+		Check.equal(Integer.valueOf(5), Integer.valueOf(n), "map size");
+		Check.equal(Integer.valueOf(3), Integer.valueOf(unpacker.unpackField(matcher)), "first field");
+		Check.equal(Long.valueOf(42), Long.valueOf(unpacker.unpackLong()), "first value");
+		for (int i = 0; i < 3; i++) {
+			Check.equal(Integer.valueOf(FieldMatcher.UNKNOWN), Integer.valueOf(unpacker.unpackField(matcher)), "unknown " + i);
+		}
+		Check.equal(Integer.valueOf(199), Integer.valueOf(unpacker.unpackField(matcher)), "last field");
+		Check.equal("v", unpacker.unpackString(), "last value");
+		Check.equal(Long.valueOf(-1), unpacker.unpack(), "value after the map");
+	}
+
+	private static void testDuplicate() {
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() {
+				new FieldMatcher("a", "b", "a");
+			}
+		});
+	}
+}
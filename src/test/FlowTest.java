@@ -0,0 +1,125 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackPublisher;
+import org.msgpack.MPackSubscriber;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * {@link MPackPublisher}解码的值经{@link MPackSubscriber}重新打包后与输入相同，并且只解码请求了的个数
+ */
+public class FlowTest {
+	private static final int COUNT = 10 * 1000;
+	/** 在调用线程中执行，请求和通知的顺序是确定的 */
+	private static final Executor DIRECT = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/** 记录收到的信号，请求由测试控制 */
+	private static class RecordingSubscriber implements Flow.Subscriber<Object> {
+		final List<Object> values = new ArrayList<Object>();
+		Flow.Subscription subscription;
+		Throwable error;
+		boolean complete;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(Object item) {
+			values.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			complete = true;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		byte[] bytes = encode();
+		testRoundTrip(bytes);
+		testBackpressure(bytes);
+		testSingleSubscriber(bytes);
+		System.out.println("FlowTest OK");
+	}
+
+	private static byte[] encode() throws IOException {
+		MPacker packer = MPack.newMPacker();
+		for (int i = 0; i < COUNT; i++) {
+			packer.packArrayHeader(3);
+			packer.packInt(i);
+			packer.packString("s" + i);
+			packer.packBoolean(i % 2 == 0);
+		}
+		return Check.bytes(packer);
+	}
+
+	private static void testRoundTrip(byte[] bytes) throws Exception {
+		MPacker packer = MPack.newMPacker();
+		MPackSubscriber subscriber = new MPackSubscriber(packer, 100);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Long count;
+		try {
+			new MPackPublisher(new ByteArrayInputStream(bytes), executor).subscribe(subscriber);
+			count = subscriber.getCompletion().get(30, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdown();
+		}
+		Check.equal(Long.valueOf(COUNT), count, "packed count");
+		Check.equal(bytes, Check.bytes(packer), "re-packed bytes");
+	}
+
+	private static void testBackpressure(byte[] bytes) throws IOException {
+		RecordingSubscriber subscriber = new RecordingSubscriber();
+		MUnpacker unpacker = new MUnpacker(new ByteArrayInputStream(bytes));
+		new MPackPublisher(unpacker, DIRECT).subscribe(subscriber);
+		Check.equal(Integer.valueOf(0), Integer.valueOf(subscriber.values.size()), "nothing before request");
+		subscriber.subscription.request(3);
+		Check.equal(Integer.valueOf(3), Integer.valueOf(subscriber.values.size()), "values after request(3)");
+		Check.equal(Long.valueOf(2), ((Object[]) subscriber.values.get(2))[0], "third value");
+		// 只解码了请求的值，解包器停在第4个值之前
+		Check.equal(Long.valueOf(3), unpacker.unpackArray()[0], "next value in the unpacker");
+		subscriber.subscription.request(Long.MAX_VALUE);
+		Check.equal(Integer.valueOf(COUNT - 1), Integer.valueOf(subscriber.values.size()), "values after unbounded request");
+		Check.isTrue(subscriber.complete && null == subscriber.error, "completed");
+
+		RecordingSubscriber bad = new RecordingSubscriber();
+		new MPackPublisher(new MUnpacker(new ByteArrayInputStream(bytes)), DIRECT).subscribe(bad);
+		bad.subscription.request(0);
+		Check.isTrue(bad.error instanceof IllegalArgumentException, "non-positive request is an error");
+	}
+
+	private static void testSingleSubscriber(byte[] bytes) {
+		MPackPublisher publisher = new MPackPublisher(new MUnpacker(new ByteArrayInputStream(bytes)), DIRECT);
+		RecordingSubscriber first = new RecordingSubscriber(), second = new RecordingSubscriber();
+		publisher.subscribe(first);
+		publisher.subscribe(second);
+		Check.isTrue(null == first.error, "first subscriber");
+		Check.isTrue(second.error instanceof IllegalStateException, "second subscriber");
+		first.subscription.cancel();
+		first.subscription.request(1);
+		Check.equal(Integer.valueOf(0), Integer.valueOf(first.values.size()), "no values after cancel");
+	}
+}
@@ -0,0 +1,157 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackException;
+import org.msgpack.MPackFormatException;
+import org.msgpack.MPackIndex;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * {@link MPackIndex}：按序号随机访问首尾相接的顶级值
+ */
+public class IndexTest {
+	private static final int COUNT = 20 * MPackIndex.BLOCK_SIZE + 7;
+
+	public static void main(String[] args) throws Exception {
+		File data = File.createTempFile("index-test", ".mp");
+		try {
+			write(data);
+			testOffsets(data);
+			testSaveAndLoad(data);
+			testSeekAfterPeek(data);
+			testStaleIndex(data);
+			testCorruptedIndex();
+		} finally {
+			MPackIndex.indexFileOf(data).delete();
+			data.delete();
+		}
+		System.out.println("IndexTest OK");
+	}
+
+	private static void write(File data) throws IOException {
+		MPacker packer = new MPacker(new BufferedOutputStream(new FileOutputStream(data)));
+		for (int i = 0; i < COUNT; i++) {
+			packer.packArrayHeader(2);
+			packer.packInt(i);
+			// 长短不一的值，差值跨越1字节和多字节的变长整数
+			packer.packString(i % 7 == 0 ? new String(new char[300]).replace('\0', 'x') : "v" + i);
+		}
+		packer.close();
+	}
+
+	private static void testOffsets(File data) throws IOException {
+		MPackIndex index = MPackIndex.build(data);
+		Check.equal(Long.valueOf(COUNT), Long.valueOf(index.size()), "size");
+		Check.equal(Long.valueOf(data.length()), Long.valueOf(index.getEndOffset()), "end offset");
+		Check.equal(Long.valueOf(0), Long.valueOf(index.offsetOf(0)), "first offset");
+		for (long n : new long[] { 0, 1, MPackIndex.BLOCK_SIZE - 1, MPackIndex.BLOCK_SIZE, MPackIndex.BLOCK_SIZE + 1,
+				COUNT - 1 }) {
+			long offset = index.offsetOf(n);
+			Check.equal(Long.valueOf(n), Long.valueOf(index.indexOf(offset)), "indexOf(offsetOf(" + n + "))");
+			Check.equal(Long.valueOf(n), Long.valueOf(index.indexOf(offset + 1)), "indexOf inside value " + n);
+			MUnpacker unpacker = index.newUnpacker(data, n);
+			Check.equal(Long.valueOf(n), unpacker.unpackArray()[0], "value at " + n);
+			unpacker.close();
+		}
+		Check.equal(Long.valueOf(-1), Long.valueOf(index.indexOf(-1)), "before first value");
+		Check.equal(Long.valueOf(COUNT - 1), Long.valueOf(index.indexOf(data.length() + 5)), "after last value");
+		final MPackIndex i = index;
+		Check.fails(IndexOutOfBoundsException.class, new Check.Block() {
+			@Override
+			public void run() {
+				i.offsetOf(COUNT);
+			}
+		});
+	}
+
+	private static void testSaveAndLoad(File data) throws IOException {
+		MPackIndex built = MPackIndex.build(data).save(data);
+		MPackIndex loaded = MPackIndex.load(data);
+		Check.equal(Long.valueOf(built.size()), Long.valueOf(loaded.size()), "loaded size");
+		for (long n = 0; n < COUNT; n += 97) {
+			Check.equal(Long.valueOf(built.offsetOf(n)), Long.valueOf(loaded.offsetOf(n)), "loaded offset " + n);
+		}
+		Check.equal(Long.valueOf(built.offsetOf(COUNT - 1)), Long.valueOf(loaded.offsetOf(COUNT - 1)), "last offset");
+	}
+
+	/** hasNext()缓存了下一个字节，seek跳过的字节数要把它算进去 */
+	private static void testSeekAfterPeek(File data) throws IOException {
+		MPackIndex index = MPackIndex.build(data);
+		MUnpacker unpacker = new MUnpacker(new BufferedInputStream(new FileInputStream(data)));
+		try {
+			unpacker.unpack();
+			Check.isTrue(unpacker.hasNext(), "hasNext");
+			index.seek(unpacker, 1000);
+			Check.equal(Long.valueOf(1000), unpacker.unpackArray()[0], "value after seek");
+			index.seek(unpacker, 1001);
+			Check.equal(Long.valueOf(1001), unpacker.unpackArray()[0], "seek to the next value");
+		} finally {
+			unpacker.close();
+		}
+	}
+
+	/** 追加写入后索引仍然有效，长度不变的改写要被指纹发现 */
+	private static void testStaleIndex(final File data) throws IOException {
+		MPackIndex.build(data).save(data);
+		long end = data.length();
+		MPacker packer = new MPacker(new FileOutputStream(data, true));
+		packer.packString("appended");
+		packer.close();
+		MPackIndex loaded = MPackIndex.load(data);
+		FileInputStream in = new FileInputStream(data);
+		in.getChannel().position(loaded.getEndOffset());
+		MUnpacker unpacker = new MUnpacker(new BufferedInputStream(in), loaded.getEndOffset());
+		try {
+			loaded.append(unpacker);
+		} finally {
+			unpacker.close();
+		}
+		Check.equal(Long.valueOf(COUNT + 1), Long.valueOf(loaded.size()), "size after append");
+		Check.equal(Long.valueOf(end), Long.valueOf(loaded.offsetOf(COUNT)), "appended offset");
+
+		// 第0个值的长字符串里的一个字符，数据长度不变
+		RandomAccessFile file = new RandomAccessFile(data, "rw");
+		try {
+			file.seek(10);
+			file.write('y');
+		} finally {
+			file.close();
+		}
+		Check.fails(MPackException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPackIndex.load(data);
+			}
+		});
+	}
+
+	/** 差值的最后一个字节被改成“后面还有字节” */
+	private static void testCorruptedIndex() throws IOException {
+		MPackIndex index = new MPackIndex();
+		for (long offset = 0; offset < 100 * 1000; offset += 1000) {
+			index.add(offset);
+		}
+		MPacker packer = MPack.newMPacker();
+		index.writeTo(packer);
+		final byte[] bytes = Check.bytes(packer);
+		MPackIndex read = MPackIndex.readFrom(new MUnpacker(new ByteArrayInputStream(bytes)));
+		Check.equal(Long.valueOf(99 * 1000), Long.valueOf(read.offsetOf(99)), "in-memory round trip");
+		bytes[bytes.length - 1] |= 0x80;
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPackIndex.readFrom(new MUnpacker(new ByteArrayInputStream(bytes)));
+			}
+		});
+	}
+}
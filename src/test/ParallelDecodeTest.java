@@ -0,0 +1,103 @@
+package test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackFormatException;
+import org.msgpack.MPackParallel;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * {@link MPackParallel#unpackArray(MUnpacker, ForkJoinPool)}与顺序解码的结果相同
+ */
+public class ParallelDecodeTest {
+	private static final int COUNT = 50 * 1000;
+
+	public static void main(String[] args) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			testSameAsSequential(pool);
+			testOptions(pool);
+			testHostileHeader(pool);
+			testTruncated(pool);
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println("ParallelDecodeTest OK");
+	}
+
+	private static byte[] encode() throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packInt(7);
+		packer.packArrayHeader(COUNT);
+		for (int i = 0; i < COUNT; i++) {
+			packer.packArrayHeader(4);
+			packer.packInt(i);
+			packer.packString("name" + i);
+			packer.packDouble(i * 0.5);
+			packer.packMapHeader(1);
+			packer.packString("k");
+			packer.packLong(-i * 1000000007L);
+		}
+		packer.packInt(9);
+		return Check.bytes(packer);
+	}
+
+	private static void testSameAsSequential(ForkJoinPool pool) throws IOException {
+		byte[] bytes = encode();
+		MUnpacker sequential = MPack.newMUnpacker(bytes);
+		sequential.unpack();
+		Object[] expected = sequential.unpackArray();
+
+		MUnpacker unpacker = MPack.newMUnpacker(ByteBuffer.wrap(bytes));
+		Check.equal(Long.valueOf(7), unpacker.unpack(), "value before the array");
+		Object[] actual = MPackParallel.unpackArray(unpacker, pool);
+		Check.equal(expected, actual, "parallel decoding");
+		Check.equal(Long.valueOf(9), unpacker.unpack(), "value after the array");
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.position(1);
+		Check.equal(expected, MPackParallel.unpackArray(buffer, 0, pool), "decoding from a buffer");
+		Check.equal(Integer.valueOf(bytes.length - 1), Integer.valueOf(buffer.position()), "buffer position after the array");
+	}
+
+	/** 各分块的解包器使用调用者的选项 */
+	private static void testOptions(ForkJoinPool pool) throws IOException {
+		byte[] bytes = encode();
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.position(1);
+		Object[] array = MPackParallel.unpackArray(buffer, MUnpacker.OPT_READ_ARRAY_AS_LIST, pool);
+		for (int i = 0; i < COUNT; i += 997) {
+			Check.isTrue(array[i] instanceof List, "element " + i + " decoded as a list");
+			Check.equal(Long.valueOf(i), ((List<?>) array[i]).get(0), "element " + i);
+		}
+	}
+
+	/** 截断的输入抛出IOException，而不是包装它的运行时异常 */
+	private static void testTruncated(final ForkJoinPool pool) throws IOException {
+		byte[] bytes = encode();
+		final byte[] truncated = Arrays.copyOf(bytes, bytes.length - 100);
+		Check.fails(IOException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPackParallel.unpackArray(MPack.newMUnpacker(ByteBuffer.wrap(truncated, 1, truncated.length - 1)), pool);
+			}
+		});
+	}
+
+	/** 头部声明的元素个数远大于剩余字节 */
+	private static void testHostileHeader(final ForkJoinPool pool) {
+		final byte[] bytes = { (byte) 0xdd, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1, 2, 3 };
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPackParallel.unpackArray(MPack.newMUnpacker(ByteBuffer.wrap(bytes)), pool);
+			}
+		});
+	}
+}
@@ -0,0 +1,95 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+import org.msgpack.BytesOutputStream;
+import org.msgpack.ExtensionRegistry;
+import org.msgpack.MPack;
+import org.msgpack.MPackParallel;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.StringDictionary;
+import org.msgpack.UuidCodec;
+
+/**
+ * {@link MPackParallel#packArray(MPacker, List, ForkJoinPool)}的输出与顺序打包逐字节相同，包括打包器的选项、扩展类型和字符串字典
+ */
+public class ParallelEncodeTest {
+	private static final int COUNT = 20 * 1000;
+
+	public static void main(String[] args) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			List<Object> elements = elements();
+			ExtensionRegistry registry = new ExtensionRegistry().register(new UuidCodec((byte) 3));
+			testSameAsSequential(pool, elements, MPack.newMPacker());
+			testSameAsSequential(pool, elements, MPack.newMPacker().setOptions(MPacker.OPT_COMPACT_FLOAT));
+			testSameAsSequential(pool, elements, MPack.newMPacker().setOptions(MPacker.OPT_CANONICAL));
+			testSameAsSequential(pool, elements, MPack.newMPacker().setExtensionRegistry(registry));
+			testSameAsSequential(pool, elements, MPack.newMPacker().setStringDictionary(new StringDictionary(64)));
+			testRoundTrip(pool, elements, registry);
+			testForkWithDictionary();
+		} finally {
+			pool.shutdown();
+		}
+		System.out.println("ParallelEncodeTest OK");
+	}
+
+	private static List<Object> elements() {
+		List<Object> elements = new ArrayList<Object>(COUNT);
+		for (int i = 0; i < COUNT; i++) {
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("v", Double.valueOf(i + 0.25));
+			m.put("id", Integer.valueOf(i));
+			m.put("tag", "tag" + (i % 13));
+			m.put("uuid", new UUID(i, -i));
+			m.put("list", Arrays.asList(Float.valueOf(1.5f), Boolean.valueOf(i % 2 == 0)));
+			elements.add(m);
+		}
+		return elements;
+	}
+
+	private static void testSameAsSequential(ForkJoinPool pool, List<Object> elements, MPacker parallel)
+			throws IOException {
+		MPacker sequential = MPack.newMPacker().setOptions(parallel.getOptions())
+				.setExtensionRegistry(parallel.getExtensionRegistry());
+		if (null != parallel.getStringDictionary()) {
+			sequential.setStringDictionary(new StringDictionary(parallel.getStringDictionary().getCapacity()));
+		}
+		sequential.pack(elements);
+		MPackParallel.packArray(parallel, elements, pool);
+		Check.equal(Check.bytes(sequential), Check.bytes(parallel), "options " + parallel.getOptions() + ", registry "
+				+ parallel.getExtensionRegistry() + ", dictionary " + parallel.getStringDictionary());
+	}
+
+	private static void testRoundTrip(ForkJoinPool pool, List<Object> elements, ExtensionRegistry registry)
+			throws IOException {
+		MPacker packer = MPack.newMPacker().setExtensionRegistry(registry);
+		MPackParallel.packArray(packer, elements, pool);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setExtensionRegistry(registry)
+				.setOptions(MUnpacker.OPT_READ_MAP_AS_COMPACT_MAP);
+		Object[] array = unpacker.unpackArray();
+		Check.equal(Integer.valueOf(COUNT), Integer.valueOf(array.length), "length");
+		Map<?, ?> last = (Map<?, ?>) array[COUNT - 1];
+		Check.equal(new UUID(COUNT - 1, 1 - COUNT), last.get("uuid"), "extension value");
+		Check.equal(Long.valueOf(COUNT - 1), last.get("id"), "id");
+	}
+
+	/** 字典的编号依赖打包顺序 */
+	private static void testForkWithDictionary() {
+		final MPacker packer = MPack.newMPacker().setStringDictionary(new StringDictionary(64));
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				packer.fork(new BytesOutputStream());
+			}
+		});
+	}
+}
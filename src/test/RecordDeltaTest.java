@@ -0,0 +1,225 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackFormat;
+import org.msgpack.MPackFormatException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.OpenHashMap;
+import org.msgpack.RecordDelta;
+
+/**
+ * 记录级别的差分编码：键增删频繁（包括几乎全换）时仍然正确，关键帧按间隔出现并且可以从关键帧开始读，换了目标Map时重新放入所有字段
+ */
+public class RecordDeltaTest {
+
+	public static void main(String[] args) throws Exception {
+		List<Map<String, Object>> records = churningRecords(new Random(49), 5000);
+		testRoundTrip(records, 0);
+		testRoundTrip(records, 50);
+		testKeyFrames();
+		testNullValues();
+		testMalformed();
+		System.out.println("RecordDeltaTest OK");
+	}
+
+	/** 每条改几个值，偶尔删除、新增或者几乎换掉所有键 */
+	private static List<Map<String, Object>> churningRecords(Random random, int count) {
+		List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+		Map<String, Object> current = new LinkedHashMap<String, Object>();
+		for (int f = 0; f < 20; f++) {
+			current.put("field_" + f, "value-" + f + "-" + random.nextInt(1000));
+		}
+		for (int i = 0; i < count; i++) {
+			current = new LinkedHashMap<String, Object>(current);
+			current.put("seq", Long.valueOf(i));
+			for (int j = random.nextInt(3); j > 0; j--) {
+				current.put("field_" + random.nextInt(20), "v" + random.nextInt(100000));
+			}
+			if (random.nextInt(20) == 0) {
+				current.remove("field_" + random.nextInt(20));
+			}
+			if (random.nextInt(20) == 0) {
+				current.put("extra_" + random.nextInt(5), new byte[] { 1, 2, (byte) i });
+			}
+			if (random.nextInt(100) == 0) {
+				current.put("nested", new Object[] { Long.valueOf(i), "x", null });
+			}
+			if (random.nextInt(500) == 0) {
+				current.clear();
+				current.put("replaced", Long.valueOf(i));
+			}
+			if (random.nextInt(500) == 0) {
+				current.clear();
+			}
+			records.add(current);
+		}
+		return records;
+	}
+
+	private static void checkRecord(Map<String, Object> expected, Map<Object, Object> actual, String what) {
+		Check.equal(Integer.valueOf(expected.size()), Integer.valueOf(actual.size()), what + " size");
+		for (Map.Entry<String, Object> e : expected.entrySet()) {
+			Check.isTrue(actual.containsKey(e.getKey()), what + " has " + e.getKey());
+			// 包在数组中比较，byte[]和Object[]按内容
+			Check.equal(new Object[] { e.getValue() }, new Object[] { actual.get(e.getKey()) }, what + " " + e.getKey());
+		}
+	}
+
+	private static void testRoundTrip(List<Map<String, Object>> records, int keyFrameInterval) throws IOException {
+		MPacker plain = MPack.newMPacker();
+		MPacker packer = MPack.newMPacker();
+		RecordDelta encoder = new RecordDelta().setKeyFrameInterval(keyFrameInterval);
+		int[] offsets = new int[records.size()];
+		for (int i = 0; i < records.size(); i++) {
+			if (2500 == i) {
+				encoder.reset();
+			}
+			offsets[i] = Check.bytes(packer).length;
+			packer.packRecord(encoder, records.get(i));
+			plain.pack(records.get(i));
+		}
+		byte[] encoded = Check.bytes(packer);
+		Check.isTrue(encoded.length * 4 < Check.bytes(plain).length, "deltas are much smaller: " + encoded.length);
+
+		MUnpacker unpacker = MPack.newMUnpacker(encoded);
+		RecordDelta decoder = new RecordDelta();
+		Map<Object, Object> reused = new OpenHashMap<Object, Object>();
+		for (int i = 0; i < records.size(); i++) {
+			// 中途换用别的目标，之后再换回来，两次都要重新放入所有字段
+			Map<Object, Object> target = i >= 1000 && i < 1003 ? new HashMap<Object, Object>() : reused;
+			Check.isTrue(target == unpacker.unpackRecord(decoder, target), "returns the target");
+			checkRecord(records.get(i), target, "record " + i + " (interval " + keyFrameInterval + ")");
+		}
+		Check.isTrue(!unpacker.hasNext(), "end");
+
+		// 从关键帧开始读可以同步，从差分开始读被拒绝
+		int keyFrames = 0;
+		for (int i = 1; i < records.size(); i++) {
+			final MUnpacker joined = MPack.newMUnpacker(encoded, offsets[i], encoded.length - offsets[i]);
+			final RecordDelta joinedDecoder = new RecordDelta();
+			final Map<Object, Object> target = new OpenHashMap<Object, Object>();
+			if (MPackFormat.FIXMAP == joined.getNextFormat() || MPackFormat.MAP16 == joined.getNextFormat()) {
+				keyFrames++;
+				for (int j = i; j < Math.min(records.size(), i + 60); j++) {
+					joined.unpackRecord(joinedDecoder, target);
+					checkRecord(records.get(j), target, "joined at " + i + ", record " + j);
+				}
+			} else if (0 == i % 97) {
+				Check.fails(MPackFormatException.class, new Check.Block() {
+					@Override
+					public void run() throws IOException {
+						joined.unpackRecord(joinedDecoder, target);
+					}
+				});
+			}
+		}
+		// 间隔之外还有reset()和键几乎全换时的关键帧
+		int minimum = (0 == keyFrameInterval ? 0 : (records.size() - 1) / (keyFrameInterval + 1)) + 1;
+		Check.isTrue(keyFrames >= minimum, keyFrames + " key frames, expected at least " + minimum);
+	}
+
+	/** 键的集合不变时，每隔interval条差分出现一条关键帧 */
+	private static void testKeyFrames() throws IOException {
+		int interval = 9;
+		MPacker packer = MPack.newMPacker();
+		RecordDelta encoder = new RecordDelta().setKeyFrameInterval(interval);
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("a", "fixed");
+		for (int i = 0; i < 100; i++) {
+			record.put("n", Long.valueOf(i));
+			packer.packRecord(encoder, record);
+		}
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		RecordDelta decoder = new RecordDelta();
+		Map<Object, Object> target = new OpenHashMap<Object, Object>();
+		for (int i = 0; i < 100; i++) {
+			boolean keyFrame = MPackFormat.FIXMAP == unpacker.getNextFormat();
+			Check.equal(Boolean.valueOf(i % (interval + 1) == 0), Boolean.valueOf(keyFrame), "key frame at " + i);
+			unpacker.unpackRecord(decoder, target);
+			Check.equal(Long.valueOf(i), target.get("n"), "value " + i);
+			Check.equal("fixed", target.get("a"), "unchanged value " + i);
+		}
+	}
+
+	/** 值为null的键仍然存在，与删除的键不同 */
+	private static void testNullValues() throws IOException {
+		List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < 5; i++) {
+			record.put("k" + i, Long.valueOf(i));
+		}
+		records.add(new LinkedHashMap<String, Object>(record));
+		record.put("k1", null);
+		records.add(new LinkedHashMap<String, Object>(record));
+		record.remove("k1");
+		records.add(new LinkedHashMap<String, Object>(record));
+		record.put("k1", null);
+		records.add(new LinkedHashMap<String, Object>(record));
+		record.put("k1", Long.valueOf(1));
+		records.add(new LinkedHashMap<String, Object>(record));
+
+		MPacker packer = MPack.newMPacker();
+		RecordDelta encoder = new RecordDelta();
+		for (Map<String, Object> r : records) {
+			packer.packRecord(encoder, r);
+		}
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		RecordDelta decoder = new RecordDelta();
+		Map<Object, Object> target = new OpenHashMap<Object, Object>();
+		for (int i = 0; i < records.size(); i++) {
+			unpacker.unpackRecord(decoder, target);
+			checkRecord(records.get(i), target, "null values " + i);
+		}
+	}
+
+	private static void testMalformed() throws IOException {
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("a", Long.valueOf(1));
+		record.put("b", Long.valueOf(2));
+		// 数组不是4个元素
+		MPacker packer = MPack.newMPacker();
+		packer.packRecord(new RecordDelta(), record);
+		packer.packArrayHeader(3);
+		expectMalformed(packer);
+		// 位图长度与槽位数不符
+		packer = MPack.newMPacker();
+		packer.packRecord(new RecordDelta(), record);
+		packer.packArrayHeader(4).packBinaryHeader(2).writeByte((byte) 0);
+		packer.writeByte((byte) 0);
+		expectMalformed(packer);
+		// 删除的槽位不是升序
+		packer = MPack.newMPacker();
+		packer.packRecord(new RecordDelta(), record);
+		packer.packArrayHeader(4).packBinaryHeader(1).writeByte((byte) 0);
+		packer.packArrayHeader(2).packInt(1).packInt(0);
+		expectMalformed(packer);
+		// 变化的值比变化的槽位少
+		packer = MPack.newMPacker();
+		packer.packRecord(new RecordDelta(), record);
+		packer.packArrayHeader(4).packBinaryHeader(1).writeByte((byte) 0);
+		packer.packArrayHeader(0).packArrayHeader(1).packInt(5).packMapHeader(0);
+		expectMalformed(packer);
+	}
+
+	private static void expectMalformed(MPacker packer) throws IOException {
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		final RecordDelta decoder = new RecordDelta();
+		final Map<Object, Object> target = new OpenHashMap<Object, Object>();
+		unpacker.unpackRecord(decoder, target);
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unpacker.unpackRecord(decoder, target);
+			}
+		});
+	}
+}
@@ -0,0 +1,210 @@
+package test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.TypedArray;
+
+/**
+ * 半精度、bfloat16和int8量化向量：所有半精度值解码正确并且原样重新编码，舍入到最近的偶数，-0.0、NaN和无穷保留，量化误差在界内
+ */
+public class ReducedPrecisionTest {
+
+	public static void main(String[] args) throws Exception {
+		testAllHalves();
+		testHalfRounding();
+		testSpecialValues();
+		testBFloat16Rounding();
+		testQuantized();
+		System.out.println("ReducedPrecisionTest OK");
+	}
+
+	/** 按定义计算的半精度值 */
+	private static float halfValue(int bits) {
+		int exp = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		float magnitude;
+		if (0x1f == exp) {
+			magnitude = 0 == mantissa ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else if (0 == exp) {
+			magnitude = Math.scalb((float) mantissa, -24);
+		} else {
+			magnitude = Math.scalb((float) (0x400 | mantissa), exp - 25);
+		}
+		return 0 == (bits & 0x8000) ? magnitude : -magnitude;
+	}
+
+	private static void testAllHalves() throws IOException {
+		// 手工拼出包含全部65536个半精度值的向量
+		MPacker packer = MPack.newMPacker();
+		packer.packExtensionTypeHeader(TypedArray.DEFAULT_EXT_TYPE, 1 + (1 << 17));
+		packer.writeByte(TypedArray.FLOAT16);
+		byte[] payload = new byte[1 << 17];
+		for (int bits = 0; bits < 1 << 16; bits++) {
+			payload[bits << 1] = (byte) bits;
+			payload[(bits << 1) + 1] = (byte) (bits >>> 8);
+		}
+		packer.write(payload, 0, payload.length);
+		TypedArray halves = MPack.newMUnpacker(Check.bytes(packer)).unpackTypedArray();
+		Check.equal(Byte.valueOf(TypedArray.FLOAT16), Byte.valueOf(halves.getKind()), "kind");
+		float[] values = halves.toFloatArray();
+		for (int bits = 0; bits < 1 << 16; bits++) {
+			float expected = halfValue(bits);
+			Check.isTrue(Float.isNaN(expected) ? Float.isNaN(values[bits])
+					: Float.floatToRawIntBits(expected) == Float.floatToRawIntBits(values[bits]),
+					"half 0x" + Integer.toHexString(bits) + " decoded as " + values[bits]);
+		}
+
+		// 可表示的值重新编码不变
+		MPacker repacker = MPack.newMPacker();
+		repacker.packFloat16Array(values);
+		TypedArray repacked = MPack.newMUnpacker(Check.bytes(repacker)).unpackTypedArray();
+		for (int bits = 0; bits < 1 << 16; bits++) {
+			int actual = repacked.buffer().getShort(bits << 1) & 0xffff;
+			if (Float.isNaN(values[bits])) {
+				Check.isTrue(Float.isNaN(halfValue(actual)), "NaN 0x" + Integer.toHexString(bits) + " stays NaN");
+			} else {
+				Check.isTrue(bits == actual, "half 0x" + Integer.toHexString(bits) + " re-encoded as 0x" + Integer.toHexString(actual));
+			}
+		}
+	}
+
+	private static int encodeHalf(float value) throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packFloat16Array(new float[] { value });
+		return MPack.newMUnpacker(Check.bytes(packer)).unpackTypedArray().buffer().getShort(0) & 0xffff;
+	}
+
+	/** 结果是最近的半精度值，距离相同时尾数为偶数 */
+	private static void testHalfRounding() throws IOException {
+		Random random = new Random(44);
+		float[] values = new float[200000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (i & 1) == 0 ? Float.intBitsToFloat(random.nextInt())
+					: (float) (random.nextGaussian() * Math.pow(2, random.nextInt(40) - 25));
+		}
+		MPacker packer = MPack.newMPacker();
+		packer.packFloat16Array(values);
+		TypedArray halves = MPack.newMUnpacker(Check.bytes(packer)).unpackTypedArray();
+		for (int i = 0; i < values.length; i++) {
+			float x = values[i];
+			int h = halves.buffer().getShort(i << 1) & 0xffff;
+			if (Float.isNaN(x)) {
+				Check.isTrue(Float.isNaN(halfValue(h)), "NaN");
+				continue;
+			}
+			double hv = halfValue(h);
+			if (Double.isInfinite(hv)) {
+				Check.isTrue(Math.abs(x) >= 65520f, x + " overflowed");
+				continue;
+			}
+			for (int d = -1; d <= 1; d += 2) {
+				int neighbour = h + d;
+				if (((h ^ neighbour) & 0x8000) != 0 || neighbour < 0 || neighbour > 0xffff) {
+					continue;
+				}
+				double nv = halfValue(neighbour);
+				if (Double.isInfinite(nv) || Double.isNaN(nv)) {
+					continue;
+				}
+				double e = Math.abs(hv - x), en = Math.abs(nv - x);
+				Check.isTrue(e < en || (e == en && (h & 1) == 0), x + " rounded to " + hv + " but " + nv + " is closer");
+			}
+		}
+		Check.equal(Integer.valueOf(0x7bff), Integer.valueOf(encodeHalf(65504f)), "max half");
+		Check.equal(Integer.valueOf(0x7bff), Integer.valueOf(encodeHalf(65519.996f)), "below overflow");
+		Check.equal(Integer.valueOf(0x7c00), Integer.valueOf(encodeHalf(65520f)), "overflow");
+		Check.equal(Integer.valueOf(0x0001), Integer.valueOf(encodeHalf(0x1p-24f)), "min subnormal");
+		Check.equal(Integer.valueOf(0x0000), Integer.valueOf(encodeHalf(0x1p-25f)), "half of min subnormal rounds to even");
+		Check.equal(Integer.valueOf(0x0002), Integer.valueOf(encodeHalf(0x1.4p-23f)), "tie between subnormals rounds down to even");
+		Check.equal(Integer.valueOf(0x0002), Integer.valueOf(encodeHalf(0x1.8p-24f)), "tie between subnormals rounds up to even");
+		Check.equal(Integer.valueOf(0x0400), Integer.valueOf(encodeHalf(0x1.ffcp-15f)), "subnormal rounds up to normal");
+	}
+
+	private static void testSpecialValues() throws IOException {
+		float[] values = { -0.0f, 0.0f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, 0x1p31f };
+		MPacker packer = MPack.newMPacker();
+		packer.packFloat16Array(values).packBFloat16Array(values);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		float[] half = unpacker.unpackTypedArray().toFloatArray();
+		float[] bf = unpacker.unpackTypedArray().toFloatArray();
+		for (float[] decoded : new float[][] { half, bf }) {
+			Check.isTrue(Float.floatToRawIntBits(decoded[0]) == 0x80000000, "-0.0 keeps its sign");
+			Check.isTrue(Float.floatToRawIntBits(decoded[1]) == 0, "+0.0");
+			Check.isTrue(Float.isNaN(decoded[2]), "NaN");
+			Check.isTrue(decoded[3] == Float.POSITIVE_INFINITY, "+Inf");
+			Check.isTrue(decoded[4] == Float.NEGATIVE_INFINITY, "-Inf");
+		}
+		Check.isTrue(half[5] == Float.POSITIVE_INFINITY, "2^31 overflows half");
+		Check.isTrue(bf[5] == 0x1p31f, "2^31 is exact in bfloat16");
+	}
+
+	private static void testBFloat16Rounding() throws IOException {
+		float[] values = { 1f + 0x1p-8f, 1f + 0x3p-8f, 1f + 0x1p-8f + 0x1p-20f, -(1f + 0x3p-8f), Float.MAX_VALUE, Float.MIN_VALUE,
+				Float.intBitsToFloat(0x7f800001) };
+		MPacker packer = MPack.newMPacker();
+		packer.packBFloat16Array(values);
+		float[] bf = MPack.newMUnpacker(Check.bytes(packer)).unpackTypedArray().toFloatArray();
+		Check.isTrue(bf[0] == 1f, "tie rounds down to even");
+		Check.isTrue(bf[1] == 1f + 0x1p-6f, "tie rounds up to even");
+		Check.isTrue(bf[2] == 1f + 0x1p-7f, "above the tie rounds up");
+		Check.isTrue(bf[3] == -(1f + 0x1p-6f), "negative tie");
+		Check.isTrue(bf[4] == Float.POSITIVE_INFINITY, "max float rounds to infinity");
+		Check.isTrue(Float.floatToRawIntBits(bf[5]) == 0, "min subnormal rounds to zero");
+		Check.isTrue(Float.isNaN(bf[6]), "signalling NaN does not become infinity");
+	}
+
+	private static void testQuantized() throws IOException {
+		Random random = new Random(45);
+		float[] values = new float[10000];
+		float min = 0f, max = 0f;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (float) random.nextGaussian() * 3f + 1f;
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		MPacker packer = MPack.newMPacker();
+		packer.packQuantizedArray(values).packQuantizedArray(new float[0]).packQuantizedArray(new float[] { 0f, 0f })
+				.packQuantizedArray(new float[] { -1f, 0f, 1f, 100f }, 0.5f, 10);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		TypedArray q = unpacker.unpackTypedArray();
+		Check.equal(Byte.valueOf(TypedArray.QINT8), Byte.valueOf(q.getKind()), "kind");
+		Check.equal(Integer.valueOf(values.length), Integer.valueOf(q.length()), "length");
+		float[] decoded = q.toFloatArray();
+		// 加上float运算的误差
+		float bound = (max - min) / 510f * 1.001f;
+		for (int i = 0; i < values.length; i++) {
+			Check.isTrue(Math.abs(decoded[i] - values[i]) <= bound, values[i] + " quantized to " + decoded[i]);
+		}
+		Check.equal(new float[0], unpacker.unpackTypedArray().toFloatArray(), "empty");
+		Check.equal(new float[] { 0f, 0f }, unpacker.unpackTypedArray().toFloatArray(), "all zero");
+		TypedArray fixed = unpacker.unpackTypedArray();
+		Check.isTrue(fixed.getScale() == 0.5f, "scale");
+		Check.equal(Integer.valueOf(10), Integer.valueOf(fixed.getZeroPoint()), "zero point");
+		// 100 / 0.5 + 10超出127，截断
+		Check.equal(new float[] { -1f, 0f, 1f, (127 - 10) * 0.5f }, fixed.toFloatArray(), "clamped");
+
+		final MPacker bad = MPack.newMPacker();
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				bad.packQuantizedArray(new float[] { 1f }, 0f, 0);
+			}
+		});
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				bad.packQuantizedArray(new float[] { 1f }, Float.NaN, 0);
+			}
+		});
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				bad.packQuantizedArray(new float[] { 1f }, 1f, 128);
+			}
+		});
+	}
+}
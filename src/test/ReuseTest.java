@@ -0,0 +1,121 @@
+package test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.msgpack.FieldMatcher;
+import org.msgpack.MPack;
+import org.msgpack.MPackReadable;
+import org.msgpack.MPackValue;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * 解码到已有的对象、数组、List和Map：重用目标，不留下旧的内容
+ */
+public class ReuseTest {
+	private static final FieldMatcher FIELDS = new FieldMatcher("id", "name");
+
+	static class Record implements MPackReadable, MPackValue {
+		long id;
+		final StringBuilder name = new StringBuilder();
+
+		Record() {
+		}
+
+		Record(long id, String name) {
+			this.id = id;
+			this.name.append(name);
+		}
+
+		@Override
+		public void readFrom(MUnpacker unpacker) throws IOException {
+			id = 0;
+			name.setLength(0);
+			for (int n = unpacker.unpackMapHeader(); n > 0; n--) {
+				switch (unpacker.unpackField(FIELDS)) {
+				case 0:
+					id = unpacker.unpackLong();
+					break;
+				case 1:
+					unpacker.unpackString(name);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+
+		@Override
+		public void writeTo(MPacker packer) throws IOException {
+			packer.packMapHeader(2);
+			packer.packString("id");
+			packer.packLong(id);
+			packer.packString("name");
+			packer.packString(name);
+		}
+
+		@Override
+		public String toString() {
+			return id + ":" + name;
+		}
+	}
+
+	private static final Supplier<Record> FACTORY = new Supplier<Record>() {
+		@Override
+		public Record get() {
+			return new Record();
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		Record r = new Record(5, "x");
+		MPacker packer = MPack.newMPacker();
+		packer.pack(r);
+		packer.packMapHeader(2);
+		packer.packString("name");
+		packer.packString("only");
+		packer.packString("extra");
+		packer.packArrayHeader(0);
+		packer.pack(Arrays.asList(r, new Record(6, "y"), new Record(7, "z")));
+		packer.pack(Arrays.asList(new Record(8, "w")));
+		packer.pack(new Object[] { 1, 2 });
+		packer.pack(new Object[] { 3, 4 });
+		packer.pack(new Object[] { 5, 6, 7 });
+		packer.pack(Arrays.asList(1, 2, 3));
+		packer.pack(Collections.singletonMap("k", "v"));
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+
+		Record target = new Record();
+		Check.isTrue(target == unpacker.unpackInto(target), "unpackInto returns the target");
+		Check.equal("5:x", target.toString(), "first record");
+		unpacker.unpackInto(target);
+		Check.equal("0:only", target.toString(), "fields missing from the map are reset");
+
+		List<Record> records = new ArrayList<Record>();
+		unpacker.unpackList(records, FACTORY);
+		Check.equal("[5:x, 6:y, 7:z]", records.toString(), "records");
+		Record first = records.get(0);
+		unpacker.unpackList(records, FACTORY);
+		Check.equal("[8:w]", records.toString(), "shorter list is truncated");
+		Check.isTrue(first == records.get(0), "elements are reused");
+
+		Object[] array = unpacker.unpackArray((Object[]) null);
+		Check.isTrue(array == unpacker.unpackArray(array), "array of the same length is reused");
+		Check.equal(new Object[] { 3L, 4L }, array, "reused array");
+		Check.equal(new Object[] { 5L, 6L, 7L }, unpacker.unpackArray(array), "array of another length");
+
+		ArrayList<Object> list = new ArrayList<Object>();
+		list.add("stale");
+		Check.equal(Arrays.asList(1L, 2L, 3L), unpacker.unpackList(list), "list");
+		HashMap<Object, Object> map = new HashMap<Object, Object>();
+		map.put("stale", 1);
+		Check.equal(Collections.singletonMap("k", "v"), unpacker.unpackMap(map), "map");
+		System.out.println("ReuseTest OK");
+	}
+}
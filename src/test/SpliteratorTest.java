@@ -0,0 +1,117 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackRawValue;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.StringDictionary;
+
+/**
+ * {@link MUnpacker#values()}和{@link MUnpacker#rawValues()}：并行流拆分后按原顺序给出同样的值
+ */
+public class SpliteratorTest {
+	private static final int COUNT = 30 * 1000;
+	private static final Function<MPackRawValue, Object> UNPACK = new Function<MPackRawValue, Object>() {
+		@Override
+		public Object apply(MPackRawValue value) {
+			try {
+				return value.unpack();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		byte[] bytes = encode(MPack.newMPacker());
+		List<Object> expected = unpackAll(MPack.newMUnpacker(bytes));
+		testValues(bytes, expected);
+		testRawValues(bytes);
+		testStream(bytes, expected);
+		testRawDecode(bytes, expected);
+		testDictionary();
+		System.out.println("SpliteratorTest OK");
+	}
+
+	private static byte[] encode(MPacker packer) throws IOException {
+		for (int i = 0; i < COUNT; i++) {
+			packer.packArrayHeader(3);
+			packer.packInt(i);
+			packer.packString("value-" + (i % 100));
+			packer.packDouble(-i);
+		}
+		return Check.bytes(packer);
+	}
+
+	private static List<Object> unpackAll(MUnpacker unpacker) throws IOException {
+		List<Object> values = new ArrayList<Object>();
+		while (unpacker.hasNext()) {
+			values.add(unpacker.unpack());
+		}
+		return values;
+	}
+
+	private static void testValues(byte[] bytes, List<Object> expected) {
+		List<Object> sequential = MPack.newMUnpacker(bytes).values().collect(Collectors.toList());
+		Check.equal(expected.toArray(), sequential.toArray(), "sequential stream");
+		List<Object> parallel = MPack.newMUnpacker(bytes).values().parallel().collect(Collectors.toList());
+		Check.equal(expected.toArray(), parallel.toArray(), "parallel stream");
+	}
+
+	/** 原始字节拼起来就是输入；同一个子流的元素是同一个实例，要在处理当前元素时复制 */
+	private static void testRawValues(byte[] bytes) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MPack.newMUnpacker(bytes).rawValues().parallel().map(new Function<MPackRawValue, byte[]>() {
+			@Override
+			public byte[] apply(MPackRawValue value) {
+				return value.toByteArray();
+			}
+		}).forEachOrdered(new Consumer<byte[]>() {
+			@Override
+			public void accept(byte[] b) {
+				out.write(b, 0, b.length);
+			}
+		});
+		Check.equal(bytes, out.toByteArray(), "raw values");
+	}
+
+	/** 普通流不可拆分，但顺序处理同样正确 */
+	private static void testStream(byte[] bytes, List<Object> expected) throws IOException {
+		MUnpacker unpacker = new MUnpacker(new ByteArrayInputStream(bytes));
+		Object first = unpacker.unpack();
+		Check.isTrue(unpacker.hasNext(), "hasNext");
+		List<Object> rest = unpacker.values().parallel().collect(Collectors.toList());
+		Check.equal(expected.get(0), first, "first value");
+		Check.equal(expected.subList(1, COUNT).toArray(), rest.toArray(), "values after hasNext()");
+	}
+
+	/** 原始值按源解包器的设置解码，逐个值重用同一个解包器 */
+	private static void testRawDecode(byte[] bytes, List<Object> expected) {
+		List<Object> decoded = MPack.newMUnpacker(bytes).rawValues().parallel().map(UNPACK).collect(Collectors.toList());
+		Check.equal(expected.toArray(), decoded.toArray(), "decoded raw values");
+
+		List<Object> lists = MPack.newMUnpacker(bytes).setOptions(MUnpacker.OPT_READ_ARRAY_AS_LIST).rawValues().parallel()
+				.map(UNPACK).collect(Collectors.toList());
+		Check.isTrue(lists.get(COUNT - 1) instanceof List, "decoded with the source unpacker's options");
+		Check.equal(Long.valueOf(COUNT - 1), ((List<?>) lists.get(COUNT - 1)).get(0), "last value");
+	}
+
+	/** 设置了字符串字典时不拆分，并行流也按顺序解码 */
+	private static void testDictionary() throws IOException {
+		byte[] bytes = encode(MPack.newMPacker().setStringDictionary(new StringDictionary(16)));
+		List<Object> expected = unpackAll(MPack.newMUnpacker(bytes).setStringDictionary(new StringDictionary(16)));
+		List<Object> parallel = MPack.newMUnpacker(bytes).setStringDictionary(new StringDictionary(16)).values()
+				.parallel().collect(Collectors.toList());
+		Check.equal(expected.toArray(), parallel.toArray(), "parallel stream with a dictionary");
+		Check.equal("value-" + (COUNT - 1) % 100, ((Object[]) parallel.get(COUNT - 1))[1], "last string");
+	}
+}
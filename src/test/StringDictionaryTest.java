@@ -0,0 +1,335 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import org.msgpack.ExtensionRegistry;
+import org.msgpack.MPack;
+import org.msgpack.MPackFormatException;
+import org.msgpack.MPackParallel;
+import org.msgpack.MPackSpliterator;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.StringDictionary;
+import org.msgpack.UuidCodec;
+
+/**
+ * 字符串字典：LRU淘汰和定期重置后两边的编号仍然一致，从重置处开始读可以重新同步；扩展类型可以配置，冲突时拒绝；设置了字典只能顺序编解码
+ */
+public class StringDictionaryTest {
+
+	public static void main(String[] args) throws Exception {
+		testEviction();
+		testRandomRoundTrip();
+		testLengthRange();
+		testResetInterval();
+		testExplicitReset();
+		testCustomTypes();
+		testCollisions();
+		testSequentialOnly();
+		System.out.println("StringDictionaryTest OK");
+	}
+
+	private static int size(MPacker packer) throws IOException {
+		return Check.bytes(packer).length;
+	}
+
+	/** 最久没用到的被淘汰，它的编号分配给新字符串 */
+	private static void testEviction() throws IOException {
+		MPacker packer = MPack.newMPacker().setStringDictionary(new StringDictionary(2));
+		String[] strings = { "aaa", "bbb", "aaa", "ccc", "aaa", "bbb", "ccc" };
+		// 完整的字符串是fixstr，引用是FIXEXT1
+		int[] expectedSizes = { 4, 4, 3, 4, 3, 4, 4 };
+		int last = 0;
+		for (int i = 0; i < strings.length; i++) {
+			packer.packString(strings[i]);
+			int now = size(packer);
+			Check.equal(Integer.valueOf(expectedSizes[i]), Integer.valueOf(now - last), "size of #" + i + " " + strings[i]);
+			last = now;
+		}
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setStringDictionary(new StringDictionary(2));
+		for (String s : strings) {
+			Check.equal(s, unpacker.unpackString(), "evicted and redefined");
+		}
+		Check.equal(Integer.valueOf(2), Integer.valueOf(unpacker.getStringDictionary().size()), "decoder dictionary size");
+
+		// 循环次数多于容量是LRU的最坏情况，每次都淘汰，但仍然正确
+		List<Object> cycle = new ArrayList<Object>();
+		for (int i = 0; i < 1000; i++) {
+			cycle.add("key-" + (i % 7));
+		}
+		checkRoundTrip(cycle, 4);
+	}
+
+	/** 解码方用unpack、unpackString和skipValue混合读取，跳过的字符串也要进字典 */
+	private static void checkRoundTrip(List<Object> values, int capacity) throws IOException {
+		MPacker packer = MPack.newMPacker().setStringDictionary(new StringDictionary(capacity));
+		for (Object v : values) {
+			packer.pack(v);
+		}
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setStringDictionary(new StringDictionary(capacity));
+		for (int i = 0; i < values.size(); i++) {
+			switch (i % 3) {
+			case 0:
+				unpacker.skipValue();
+				break;
+			case 1:
+				Check.equal(values.get(i), unpacker.unpack(), "unpack #" + i);
+				break;
+			default:
+				if (values.get(i) instanceof String) {
+					Check.equal(values.get(i), unpacker.unpackString(), "unpackString #" + i);
+				} else {
+					Check.equal(values.get(i), unpacker.unpack(), "unpack #" + i);
+				}
+			}
+		}
+		Check.isTrue(!unpacker.hasNext(), "end");
+	}
+
+	private static void testRandomRoundTrip() throws IOException {
+		Random random = new Random(48);
+		List<Object> values = new ArrayList<Object>();
+		for (int i = 0; i < 20000; i++) {
+			int k = random.nextInt(10);
+			if (k < 6) {
+				// 偏斜的分布：小编号的字符串更常见
+				values.add("host-" + (int) Math.abs(random.nextGaussian() * 30) + ".example.com");
+			} else if (k < 8) {
+				values.add(new Object[] { "path", "/api/v1/items/" + random.nextInt(300), Long.valueOf(i) });
+			} else if (k < 9) {
+				values.add("中文-" + random.nextInt(50));
+			} else {
+				values.add("req-" + i);
+			}
+		}
+		checkRoundTrip(values, 16);
+		checkRoundTrip(values, 256);
+
+		MPacker plain = MPack.newMPacker();
+		MPacker dictionary = MPack.newMPacker().setStringDictionary(new StringDictionary(256));
+		for (Object v : values) {
+			plain.pack(v);
+			dictionary.pack(v);
+		}
+		Check.isTrue(size(dictionary) * 2 < size(plain), "dictionary encoding is smaller");
+	}
+
+	/** 太短或太长的字符串不进字典 */
+	private static void testLengthRange() throws IOException {
+		StringDictionary dictionary = new StringDictionary(8).setMaxLength(5);
+		MPacker packer = MPack.newMPacker().setStringDictionary(dictionary);
+		packer.packString("ab").packString("ab").packString("abcdef").packString("abcdef");
+		Check.equal(Integer.valueOf(0), Integer.valueOf(dictionary.size()), "nothing defined");
+		Check.equal(Integer.valueOf(3 + 3 + 7 + 7), Integer.valueOf(size(packer)), "all strings packed in full");
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setStringDictionary(new StringDictionary(8).setMaxLength(5));
+		Check.equal(Arrays.asList("ab", "ab", "abcdef", "abcdef"),
+				Arrays.asList(unpacker.unpackString(), unpacker.unpackString(), unpacker.unpackString(), unpacker.unpackString()),
+				"short and long strings");
+	}
+
+	private static void testResetInterval() throws IOException {
+		MPacker packer = MPack.newMPacker().setStringDictionary(new StringDictionary(64).setResetInterval(3));
+		List<String> strings = new ArrayList<String>();
+		List<Integer> offsets = new ArrayList<Integer>();
+		for (int i = 0; i < 30; i++) {
+			String s = "s-" + (i % 5) + "-" + (i / 10);
+			offsets.add(Integer.valueOf(size(packer)));
+			packer.packString(s);
+			strings.add(s);
+		}
+		byte[] encoded = Check.bytes(packer);
+		MUnpacker unpacker = MPack.newMUnpacker(encoded).setStringDictionary(new StringDictionary(64));
+		for (String s : strings) {
+			Check.equal(s, unpacker.unpackString(), "with resets");
+		}
+
+		// 每个重置处都可以用新的字典开始读；别的位置开始读时，遇到引用发现不同步
+		int resets = 0;
+		for (int i = 1; i < strings.size(); i++) {
+			int offset = offsets.get(i).intValue();
+			boolean reset = isExtension(encoded, offset) && StringDictionary.DEFAULT_RESET_TYPE == resetTypeAt(encoded, offset);
+			MUnpacker joined = MPack.newMUnpacker(Arrays.copyOfRange(encoded, offset, encoded.length)).setStringDictionary(
+					new StringDictionary(64));
+			if (reset) {
+				resets++;
+				for (int j = i; j < strings.size(); j++) {
+					Check.equal(strings.get(j), joined.unpackString(), "joined at reset #" + i);
+				}
+			} else if (isReference(encoded, offset)) {
+				expectDesync(joined);
+			}
+		}
+		Check.isTrue(resets >= 3, "resets found: " + resets);
+	}
+
+	private static boolean isExtension(byte[] encoded, int offset) {
+		int b = encoded[offset] & 0xff;
+		return 0xc7 == b || (b >= 0xd4 && b <= 0xd8);
+	}
+
+	private static byte resetTypeAt(byte[] encoded, int offset) {
+		// FIXEXT的类型在第2字节，EXT8在第3字节
+		return (encoded[offset] & 0xff) == 0xc7 ? encoded[offset + 2] : encoded[offset + 1];
+	}
+
+	private static boolean isReference(byte[] encoded, int offset) {
+		int b = encoded[offset] & 0xff;
+		return (0xd4 == b || 0xd5 == b) && StringDictionary.DEFAULT_REF_TYPE == encoded[offset + 1];
+	}
+
+	private static void expectDesync(final MUnpacker unpacker) {
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				while (unpacker.hasNext()) {
+					unpacker.skipValue();
+				}
+			}
+		});
+	}
+
+	/** 重置发生在下一个新字符串处，之前已定义的字符串照常引用 */
+	private static void testExplicitReset() throws IOException {
+		StringDictionary dictionary = new StringDictionary(8);
+		MPacker packer = MPack.newMPacker().setStringDictionary(dictionary);
+		packer.packString("abc").packString("abc");
+		dictionary.reset();
+		int offset = size(packer);
+		packer.packString("abc");
+		Check.isTrue(isReference(Check.bytes(packer), offset), "reference before the next new string");
+		offset = size(packer);
+		packer.packString("def");
+		Check.equal(Byte.valueOf(StringDictionary.DEFAULT_RESET_TYPE), Byte.valueOf(resetTypeAt(Check.bytes(packer), offset)),
+				"new string after reset");
+		Check.equal(Integer.valueOf(1), Integer.valueOf(dictionary.size()), "dictionary cleared");
+		offset = size(packer);
+		packer.packString("abc");
+		Check.isTrue(!isReference(Check.bytes(packer), offset), "redefined after reset");
+		packer.packString("def");
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setStringDictionary(new StringDictionary(8));
+		for (String s : new String[] { "abc", "abc", "abc", "def", "abc", "def" }) {
+			Check.equal(s, unpacker.unpackString(), "explicit reset");
+		}
+	}
+
+	private static void testCustomTypes() throws IOException {
+		MPacker packer = MPack.newMPacker().setStringDictionary(new StringDictionary(4, (byte) 1, (byte) 2).setResetInterval(2));
+		String[] strings = { "abc", "abc", "def", "ghi", "ghi" };
+		for (String s : strings) {
+			packer.packString(s);
+		}
+		byte[] encoded = Check.bytes(packer);
+		// "abc"是4字节的fixstr，之后是引用
+		Check.equal(Byte.valueOf((byte) 1), Byte.valueOf(encoded[5]), "custom reference type");
+		MUnpacker unpacker = MPack.newMUnpacker(encoded).setStringDictionary(new StringDictionary(4, (byte) 1, (byte) 2));
+		for (String s : strings) {
+			Check.equal(s, unpacker.unpackString(), "custom types");
+		}
+
+		// 默认类型的解码方不认识这些扩展类型
+		final MUnpacker wrong = MPack.newMUnpacker(encoded).setStringDictionary(new StringDictionary(4));
+		wrong.unpackString();
+		Check.fails(RuntimeException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				wrong.unpackString();
+			}
+		});
+
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() {
+				new StringDictionary(4, (byte) 3, (byte) 3);
+			}
+		});
+	}
+
+	private static void testCollisions() throws IOException {
+		final ExtensionRegistry registry = new ExtensionRegistry().register(new UuidCodec(StringDictionary.DEFAULT_REF_TYPE));
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				MPack.newMPacker().setExtensionRegistry(registry).setStringDictionary(new StringDictionary(8));
+			}
+		});
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				MPack.newMPacker().setStringDictionary(new StringDictionary(8)).setExtensionRegistry(registry);
+			}
+		});
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				MPack.newMUnpacker(new byte[0]).setStringDictionary(new StringDictionary(8)).setExtensionRegistry(registry);
+			}
+		});
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				MPack.newMUnpacker(new byte[0]).setStringDictionary(new StringDictionary(8)).setTypedArrayType(
+						StringDictionary.DEFAULT_RESET_TYPE);
+			}
+		});
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				MPack.newMPacker().setTypedArrayType(StringDictionary.DEFAULT_REF_TYPE).setStringDictionary(new StringDictionary(8));
+			}
+		});
+
+		// 换成别的类型就没有冲突
+		MPacker packer = MPack.newMPacker().setExtensionRegistry(registry)
+				.setStringDictionary(new StringDictionary(8, (byte) 3, (byte) 4));
+		packer.packString("moved").packString("moved");
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setExtensionRegistry(registry)
+				.setStringDictionary(new StringDictionary(8, (byte) 3, (byte) 4));
+		Check.equal("moved", unpacker.unpackString(), "moved definition");
+		Check.equal("moved", unpacker.unpackString(), "moved reference");
+	}
+
+	private static void testSequentialOnly() throws IOException {
+		final MPacker packer = MPack.newMPacker().setStringDictionary(new StringDictionary(4));
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				packer.fork(new ByteArrayOutputStream());
+			}
+		});
+		List<Object> values = new ArrayList<Object>();
+		for (int i = 0; i < 20000; i++) {
+			values.add("key-" + (i % 7));
+		}
+		// 并行编解码退化为顺序的，结果仍然正确
+		MPackParallel.packArray(packer, values, ForkJoinPool.commonPool());
+		for (Object v : values) {
+			packer.pack(v);
+		}
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setStringDictionary(new StringDictionary(4));
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				unpacker.fork(null);
+			}
+		});
+		Check.equal(values.toArray(), MPackParallel.unpackArray(unpacker, ForkJoinPool.commonPool()), "parallel decode");
+		Spliterator<Object> spliterator = MPackSpliterator.values(unpacker);
+		Check.isTrue(null == spliterator.trySplit(), "no split with a dictionary");
+		final List<Object> rest = new ArrayList<Object>();
+		spliterator.forEachRemaining(new Consumer<Object>() {
+			@Override
+			public void accept(Object t) {
+				rest.add(t);
+			}
+		});
+		Check.equal(values, rest, "spliterator");
+	}
+}
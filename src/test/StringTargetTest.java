@@ -0,0 +1,102 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * 从CharSequence、char[]打包与从String打包的字节相同；解码到可重用的StringBuilder和CharBuffer与解码为String的结果相同，包括不合法的UTF-8
+ */
+public class StringTargetTest {
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(1);
+		for (int i = 0; i < 300; i++) {
+			testRoundTrip(randomString(random, i < 100 ? 20 : 10000, i % 7 == 0));
+		}
+		testMalformed();
+		System.out.println("StringTargetTest OK");
+	}
+
+	/** ASCII、2字节、3字节和代理对混合，可以带一个孤立的代理 */
+	private static String randomString(Random random, int maxLength, boolean loneSurrogate) {
+		StringBuilder sb = new StringBuilder();
+		int length = random.nextInt(maxLength);
+		for (int i = 0; i < length; i++) {
+			int k = random.nextInt(10);
+			if (k < 5) {
+				sb.append((char) ('a' + random.nextInt(26)));
+			} else if (k < 7) {
+				sb.append((char) (0x80 + random.nextInt(0x780)));
+			} else if (k < 9) {
+				sb.append((char) (0x800 + random.nextInt(0xd000 - 0x800)));
+			} else {
+				sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+			}
+		}
+		if (loneSurrogate) {
+			sb.append('\ud800');
+		}
+		return sb.toString();
+	}
+
+	private static void testRoundTrip(String s) throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packString(s);
+		byte[] expected = Check.bytes(packer);
+
+		MPacker other = MPack.newMPacker();
+		other.packString(new StringBuilder(s));
+		other.packString(s.toCharArray(), 0, s.length());
+		other.pack(new StringBuilder(s));
+		byte[] actual = Check.bytes(other);
+		for (int k = 0; k < 3; k++) {
+			Check.equal(expected, Arrays.copyOfRange(actual, k * expected.length, (k + 1) * expected.length),
+					"encoding " + k + " of a string of length " + s.length());
+		}
+
+		String decoded = MPack.newMUnpacker(expected).unpackString();
+		StringBuilder builder = new StringBuilder("stale");
+		builder.setLength(0);
+		MPack.newMUnpacker(expected).unpackString(builder);
+		Check.equal(decoded, builder.toString(), "StringBuilder target");
+
+		// 很小的缓冲，多字节序列跨越读取的边界
+		builder.setLength(0);
+		new MUnpacker(new BufferedInputStream(new ByteArrayInputStream(expected), 7)).unpackString(builder);
+		Check.equal(decoded, builder.toString(), "StringBuilder target from a stream");
+
+		CharBuffer chars = CharBuffer.allocate(s.length() + 1);
+		ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+		direct.put(expected).flip();
+		MPack.newMUnpacker(direct).unpackString(chars);
+		chars.flip();
+		Check.equal(decoded, chars.toString(), "CharBuffer target");
+	}
+
+	/** 不合法的字节替换为U+FFFD，个数可能与new String(bytes, UTF-8)不同，见Utf8 */
+	private static void testMalformed() throws IOException {
+		byte[][] cases = { { 3, (byte) 0xe4, (byte) 0xb8, 'x' }, { (byte) 0xe4, (byte) 0xb8 }, { (byte) 0xc0, (byte) 0x80 },
+				{ (byte) 0xed, (byte) 0xa0, (byte) 0x80 }, { (byte) 0xf0, (byte) 0x9f, (byte) 0x98 }, { (byte) 0xff, 'a' } };
+		for (byte[] utf8 : cases) {
+			byte[] bytes = new byte[utf8.length + 1];
+			bytes[0] = (byte) (0xa0 | utf8.length);
+			System.arraycopy(utf8, 0, bytes, 1, utf8.length);
+			StringBuilder builder = new StringBuilder();
+			MPack.newMUnpacker(bytes).unpackString(builder);
+			Check.equal(collapse(new String(utf8, "UTF-8")), collapse(builder), "malformed " + Arrays.toString(utf8));
+		}
+	}
+
+	private static String collapse(CharSequence s) {
+		return s.toString().replaceAll("\ufffd+", "\ufffd");
+	}
+}
@@ -0,0 +1,277 @@
+package test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.msgpack.MPack;
+import org.msgpack.MPackFormatException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.ReflectiveStructCodec;
+import org.msgpack.Schema;
+
+/**
+ * 结构编码为按位置的数组：各种字段类型往返不变，省略末尾为null的可选字段，新旧结构描述互相兼容，byte、short和char字段超出范围时拒绝
+ */
+public class StructTest {
+
+	static class Row {
+		int id;
+		long ts;
+		double value;
+		float ratio;
+		boolean flag;
+		String name;
+		byte[] blob;
+		Integer extra;
+		Object any;
+	}
+
+	static class Small {
+		byte b;
+		short s;
+		char c;
+		Byte boxedByte;
+		Short boxedShort;
+		Character boxedChar;
+	}
+
+	public static void main(String[] args) throws Exception {
+		testDerivedSchema();
+		testRoundTrip();
+		testTrailingNulls();
+		testReuse();
+		testSchemaEvolution();
+		testSmallFields();
+		testInvalidSchema();
+		System.out.println("StructTest OK");
+	}
+
+	private static void testDerivedSchema() {
+		Schema schema = ReflectiveStructCodec.of(Row.class).getSchema();
+		Check.equal(Integer.valueOf(9), Integer.valueOf(schema.size()), "field count");
+		Check.equal(Integer.valueOf(5), Integer.valueOf(schema.getRequiredCount()), "required primitive fields");
+		Check.equal(Schema.Type.FLOAT, schema.getField(3).getType(), "float field");
+		Check.equal(Schema.Type.ANY, schema.getField(8).getType(), "object field");
+		Schema small = ReflectiveStructCodec.of(Small.class).getSchema();
+		for (int i = 0; i < small.size(); i++) {
+			Check.equal(Schema.Type.INT, small.getField(i).getType(), "type of " + small.getField(i).getName());
+		}
+	}
+
+	private static Row row(int id, double value, String name) {
+		Row row = new Row();
+		row.id = id;
+		row.ts = 1700000000000L + id;
+		row.value = value;
+		row.ratio = -0.0f;
+		row.flag = 0 == (id & 1);
+		row.name = name;
+		return row;
+	}
+
+	private static void checkRow(Row expected, Row actual, String what) {
+		Check.equal(Integer.valueOf(expected.id), Integer.valueOf(actual.id), what + " id");
+		Check.equal(Long.valueOf(expected.ts), Long.valueOf(actual.ts), what + " ts");
+		Check.equal(Double.valueOf(expected.value), Double.valueOf(actual.value), what + " value");
+		Check.equal(Float.valueOf(expected.ratio), Float.valueOf(actual.ratio), what + " ratio");
+		Check.equal(Boolean.valueOf(expected.flag), Boolean.valueOf(actual.flag), what + " flag");
+		Check.equal(expected.name, actual.name, what + " name");
+		Check.equal(expected.blob, actual.blob, what + " blob");
+		Check.equal(expected.extra, actual.extra, what + " extra");
+		Check.equal(expected.any, actual.any, what + " any");
+	}
+
+	private static void testRoundTrip() throws IOException {
+		ReflectiveStructCodec<Row> codec = ReflectiveStructCodec.of(Row.class);
+		Row full = row(Integer.MIN_VALUE, Double.NaN, "");
+		full.ts = Long.MIN_VALUE;
+		full.ratio = Float.POSITIVE_INFINITY;
+		full.blob = new byte[] { 0, -1 };
+		full.extra = Integer.valueOf(Integer.MAX_VALUE);
+		full.any = new Object[] { Long.valueOf(1), "x", null };
+		Row minimal = row(0, -0.0, null);
+		Row[] rows = { full, minimal, row(7, 1.5, "abc") };
+
+		MPacker packer = MPack.newMPacker();
+		for (Row row : rows) {
+			packer.packStruct(codec, row);
+		}
+		packer.packStruct(codec, null);
+		packer.packInt(42);
+		byte[] encoded = Check.bytes(packer);
+		MUnpacker unpacker = MPack.newMUnpacker(encoded);
+		for (Row row : rows) {
+			checkRow(row, unpacker.unpackStruct(codec), "row " + row.id);
+		}
+		Check.equal(null, unpacker.unpackStruct(codec), "null struct");
+		Check.equal(Long.valueOf(42), Long.valueOf(unpacker.unpackInt()), "value after structs");
+
+		// 同样的内容按Map打包还要带上键名
+		Row row = rows[2];
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("id", Integer.valueOf(row.id));
+		map.put("ts", Long.valueOf(row.ts));
+		map.put("value", Double.valueOf(row.value));
+		map.put("ratio", Float.valueOf(row.ratio));
+		map.put("flag", Boolean.valueOf(row.flag));
+		map.put("name", row.name);
+		MPacker asMap = MPack.newMPacker();
+		asMap.pack(map);
+		MPacker asStruct = MPack.newMPacker();
+		asStruct.packStruct(codec, row);
+		Check.isTrue(Check.bytes(asStruct).length + 28 == Check.bytes(asMap).length, "struct is smaller than map");
+	}
+
+	private static void testTrailingNulls() throws IOException {
+		ReflectiveStructCodec<Row> codec = ReflectiveStructCodec.of(Row.class);
+		Row row = row(1, 2.0, "n");
+		MPacker packer = MPack.newMPacker();
+		packer.packStruct(codec, row);
+		row.name = null;
+		packer.packStruct(codec, row);
+		row.any = "last";
+		packer.packStruct(codec, row);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		Check.equal(Integer.valueOf(6), Integer.valueOf(unpacker.unpackArrayHeader()), "trailing nulls omitted");
+		unpacker.skipValue(6);
+		Check.equal(Integer.valueOf(5), Integer.valueOf(unpacker.unpackArrayHeader()), "only required fields");
+		unpacker.skipValue(5);
+		Check.equal(Integer.valueOf(9), Integer.valueOf(unpacker.unpackArrayHeader()), "nulls before a value kept");
+	}
+
+	/** 读入已有对象时，没有编码的字段恢复为默认值 */
+	private static void testReuse() throws IOException {
+		ReflectiveStructCodec<Row> codec = ReflectiveStructCodec.of(Row.class);
+		MPacker packer = MPack.newMPacker();
+		packer.packStruct(codec, row(3, 4.0, null));
+		Row reuse = row(9, 9.0, "old");
+		reuse.extra = Integer.valueOf(5);
+		reuse.blob = new byte[1];
+		Row read = MPack.newMUnpacker(Check.bytes(packer)).unpackStruct(codec, reuse);
+		Check.isTrue(read == reuse, "same instance");
+		checkRow(row(3, 4.0, null), read, "reused");
+	}
+
+	private static void testSchemaEvolution() throws IOException {
+		ReflectiveStructCodec<Row> current = ReflectiveStructCodec.of(Row.class);
+		Row row = row(5, 6.0, "new");
+		row.extra = Integer.valueOf(8);
+		MPacker packer = MPack.newMPacker();
+		packer.packStruct(current, row);
+		packer.packString("next");
+
+		// 旧的读取方只知道前两个字段，多出的字段被跳过
+		Schema old = new Schema("Row").add("id", Schema.Type.INT).add("ts", Schema.Type.LONG);
+		ReflectiveStructCodec<Row> oldCodec = new ReflectiveStructCodec<Row>(Row.class, old);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		Row read = unpacker.unpackStruct(oldCodec);
+		Check.equal(Integer.valueOf(5), Integer.valueOf(read.id), "old reader id");
+		Check.equal(null, read.name, "old reader ignores name");
+		Check.equal("next", unpacker.unpackString(), "value after skipped fields");
+
+		// 上一版本的写入方没有后面的可选字段，读出为null
+		Schema previous = new Schema("Row").add("id", Schema.Type.INT).add("ts", Schema.Type.LONG)
+				.add("value", Schema.Type.DOUBLE).add("ratio", Schema.Type.FLOAT).add("flag", Schema.Type.BOOLEAN)
+				.addOptional("name", Schema.Type.STRING);
+		packer = MPack.newMPacker();
+		packer.packStruct(new ReflectiveStructCodec<Row>(Row.class, previous), row);
+		read = MPack.newMUnpacker(Check.bytes(packer)).unpackStruct(current);
+		Check.equal("new", read.name, "new reader name");
+		Check.equal(null, read.extra, "new reader extra");
+
+		// 必需字段不够
+		final MPacker shortPacker = MPack.newMPacker();
+		shortPacker.packArrayHeader(1);
+		shortPacker.packInt(1);
+		final MUnpacker shortUnpacker = MPack.newMUnpacker(Check.bytes(shortPacker));
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				shortUnpacker.unpackStruct(ReflectiveStructCodec.of(Row.class));
+			}
+		});
+	}
+
+	private static void testSmallFields() throws IOException {
+		final ReflectiveStructCodec<Small> codec = ReflectiveStructCodec.of(Small.class);
+		Small small = new Small();
+		small.b = Byte.MIN_VALUE;
+		small.s = Short.MAX_VALUE;
+		small.c = '￿';
+		small.boxedByte = Byte.valueOf(Byte.MAX_VALUE);
+		small.boxedShort = Short.valueOf(Short.MIN_VALUE);
+		small.boxedChar = Character.valueOf('中');
+		MPacker packer = MPack.newMPacker();
+		packer.packStruct(codec, small);
+		byte[] encoded = Check.bytes(packer);
+		Small read = MPack.newMUnpacker(encoded).unpackStruct(codec);
+		Check.equal(Byte.valueOf(small.b), Byte.valueOf(read.b), "byte");
+		Check.equal(Short.valueOf(small.s), Short.valueOf(read.s), "short");
+		Check.equal(Character.valueOf(small.c), Character.valueOf(read.c), "char");
+		Check.equal(small.boxedByte, read.boxedByte, "Byte");
+		Check.equal(small.boxedShort, read.boxedShort, "Short");
+		Check.equal(small.boxedChar, read.boxedChar, "Character");
+		// char按码元编码为整数
+		MUnpacker raw = MPack.newMUnpacker(encoded);
+		raw.unpackArrayHeader();
+		raw.skipValue(2);
+		Check.equal(Long.valueOf(0xffff), Long.valueOf(raw.unpackInt()), "char as code unit");
+
+		// 只有必需字段时包装类字段为null
+		read = MPack.newMUnpacker(new byte[] { (byte) 0x93, 1, 2, 3 }).unpackStruct(codec, read);
+		Check.equal(Character.valueOf('\u0003'), Character.valueOf(read.c), "char from int");
+		Check.equal(null, read.boxedChar, "reset Character");
+
+		int[][] outOfRange = { { 128, 0, 0 }, { -129, 0, 0 }, { 0, 32768, 0 }, { 0, 0, -1 }, { 0, 0, 65536 } };
+		for (int[] fields : outOfRange) {
+			expectOutOfRange(codec, fields, null);
+		}
+		expectOutOfRange(codec, new int[] { 0, 0, 0 }, new int[] { 200 });
+		expectOutOfRange(codec, new int[] { 0, 0, 0 }, new int[] { 0, 40000 });
+		expectOutOfRange(codec, new int[] { 0, 0, 0 }, new int[] { 0, 0, -1 });
+	}
+
+	private static void expectOutOfRange(final ReflectiveStructCodec<Small> codec, int[] required, int[] optional)
+			throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packArrayHeader(required.length + (null == optional ? 0 : optional.length));
+		for (int v : required) {
+			packer.packInt(v);
+		}
+		if (null != optional) {
+			for (int v : optional) {
+				packer.packInt(v);
+			}
+		}
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		Check.fails(MPackFormatException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unpacker.unpackStruct(codec);
+			}
+		});
+	}
+
+	private static void testInvalidSchema() {
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() {
+				new ReflectiveStructCodec<Row>(Row.class, new Schema("Row").add("id", Schema.Type.STRING));
+			}
+		});
+		Check.fails(IllegalArgumentException.class, new Check.Block() {
+			@Override
+			public void run() {
+				new ReflectiveStructCodec<Row>(Row.class, new Schema("Row").add("missing", Schema.Type.INT));
+			}
+		});
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() {
+				new Schema("Row").addOptional("a", Schema.Type.INT).add("b", Schema.Type.INT);
+			}
+		});
+	}
+}
@@ -0,0 +1,63 @@
+package test;
+
+import java.io.IOException;
+import java.time.Instant;
+
+import org.msgpack.ExtensionRegistry;
+import org.msgpack.MPack;
+import org.msgpack.MPackIntegerOverflowException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+
+/**
+ * 时间戳扩展（类型-1）的三种格式：边界值选用最短的格式，原始值、{@link Instant}和注册的编解码器解码结果一致
+ */
+public class TimestampTest {
+
+	public static void main(String[] args) throws Exception {
+		// 32位：秒在[0, 2^32)且没有纳秒；64位：秒在[0, 2^34)；其余96位
+		check(Instant.ofEpochSecond(0), 6);
+		check(Instant.ofEpochSecond(4294967295L), 6);
+		check(Instant.ofEpochSecond(4294967296L), 10);
+		check(Instant.ofEpochSecond(1, 5), 10);
+		check(Instant.ofEpochSecond((1L << 34) - 1, 999999999), 10);
+		check(Instant.ofEpochSecond(1L << 34), 15);
+		check(Instant.ofEpochSecond(-1, 123), 15);
+		check(Instant.MIN, 15);
+		check(Instant.MAX, 15);
+		testNanosOverflow();
+		System.out.println("TimestampTest OK");
+	}
+
+	private static void check(Instant instant, int encodedLength) throws IOException {
+		ExtensionRegistry registry = ExtensionRegistry.withBuiltins();
+		MPacker packer = MPack.newMPacker().setExtensionRegistry(registry);
+		packer.packTimestamp(instant);
+		byte[] single = Check.bytes(packer);
+		Check.equal(Integer.valueOf(encodedLength), Integer.valueOf(single.length), "encoded length of " + instant);
+
+		packer.pack(instant);
+		packer.packTimestamp(instant.getEpochSecond(), instant.getNano());
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer)).setExtensionRegistry(registry);
+		Check.equal(Long.valueOf(instant.getEpochSecond()), Long.valueOf(unpacker.unpackTimestampSeconds()), "seconds");
+		Check.equal(Integer.valueOf(instant.getNano()), Integer.valueOf(unpacker.getTimestampNanos()), "nanos");
+		Check.equal(instant, unpacker.unpack(), "registered codec");
+		Check.equal(instant, unpacker.unpackTimestamp(), "unpackTimestamp");
+		Check.isTrue(!unpacker.hasNext(), "end of " + instant);
+	}
+
+	/** 用long表示的纳秒数只能覆盖约292年 */
+	private static void testNanosOverflow() throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packTimestamp(Instant.ofEpochSecond(-1, 123));
+		packer.packTimestamp(Instant.MAX);
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		Check.equal(Long.valueOf(-999999877), Long.valueOf(unpacker.unpackTimestampEpochNanos()), "negative nanos");
+		Check.fails(MPackIntegerOverflowException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unpacker.unpackTimestampEpochNanos();
+			}
+		});
+	}
+}
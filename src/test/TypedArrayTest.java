@@ -0,0 +1,152 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.msgpack.ExtensionRegistry;
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.TypedArray;
+import org.msgpack.TypedArrayCodec;
+import org.msgpack.UuidCodec;
+
+/**
+ * 定长数值数组扩展：各种元素类型和长度（包括布尔位图不满一个字节的情况）往返不变；扩展类型可以配置，与注册的编解码器冲突时拒绝
+ */
+public class TypedArrayTest {
+	private static final int[] LENGTHS = { 0, 1, 7, 8, 9, 1000 };
+	private static final byte CUSTOM_TYPE = 0x20;
+
+	public static void main(String[] args) throws Exception {
+		Random random = new Random(43);
+		for (int length : LENGTHS) {
+			testRoundTrip(random, length);
+		}
+		testSpecialValues();
+		testCustomType();
+		testCollision();
+		System.out.println("TypedArrayTest OK");
+	}
+
+	private static void testRoundTrip(Random random, int length) throws IOException {
+		byte[] b = new byte[length];
+		short[] s = new short[length];
+		int[] i4 = new int[length];
+		long[] l = new long[length];
+		float[] f = new float[length];
+		double[] d = new double[length];
+		boolean[] z = new boolean[length];
+		random.nextBytes(b);
+		for (int i = 0; i < length; i++) {
+			s[i] = (short) random.nextInt();
+			i4[i] = random.nextInt();
+			l[i] = random.nextLong();
+			f[i] = random.nextFloat();
+			d[i] = random.nextGaussian();
+			z[i] = random.nextBoolean();
+		}
+		MPacker packer = MPack.newMPacker();
+		packer.packTypedArray(b).packTypedArray(s).packTypedArray(i4).packTypedArray(l).packTypedArray(f).packTypedArray(d)
+				.packTypedArray(z).packInt(42);
+		byte[] encoded = Check.bytes(packer);
+		String at = " of length " + length;
+		// 内存中的和流式的解包器
+		MUnpacker[] unpackers = { MPack.newMUnpacker(encoded), new MUnpacker(new ByteArrayInputStream(encoded)) };
+		for (MUnpacker unpacker : unpackers) {
+			Check.equal(b, unpacker.unpackTypedArray().toByteArray(), "int8" + at);
+			Check.equal(s, unpacker.unpackTypedArray().toShortArray(), "int16" + at);
+			Check.equal(i4, unpacker.unpackTypedArray().toIntArray(), "int32" + at);
+			Check.equal(l, unpacker.unpackTypedArray().toLongArray(), "int64" + at);
+			Check.equal(f, unpacker.unpackTypedArray().toFloatArray(), "float32" + at);
+			TypedArray doubles = unpacker.unpackTypedArray();
+			Check.equal(Byte.valueOf(TypedArray.FLOAT64), Byte.valueOf(doubles.getKind()), "kind");
+			Check.equal(Integer.valueOf(length), Integer.valueOf(doubles.length()), "length");
+			Check.equal(d, doubles.toDoubleArray(), "float64" + at);
+			TypedArray booleans = unpacker.unpackTypedArray();
+			Check.equal(Integer.valueOf(length), Integer.valueOf(booleans.length()), "boolean length");
+			Check.equal(z, booleans.toBooleanArray(), "boolean" + at);
+			for (int i = 0; i < length; i++) {
+				Check.isTrue(z[i] == booleans.getBoolean(i), "boolean " + i + at);
+			}
+			Check.equal(Long.valueOf(42), Long.valueOf(unpacker.unpackInt()), "value after arrays" + at);
+
+			// 解码得到的TypedArray再打包，由注册的编解码器解码
+			MPacker repacker = MPack.newMPacker();
+			repacker.pack(doubles);
+			repacker.pack(booleans);
+			MUnpacker registered = MPack.newMUnpacker(Check.bytes(repacker)).setExtensionRegistry(
+					new ExtensionRegistry().register(new TypedArrayCodec()));
+			Check.equal(d, ((TypedArray) registered.unpack()).toDoubleArray(), "repacked float64" + at);
+			Check.equal(z, ((TypedArray) registered.unpack()).toBooleanArray(), "repacked boolean" + at);
+		}
+	}
+
+	/** 浮点按位保存：-0.0、NaN和无穷 */
+	private static void testSpecialValues() throws IOException {
+		float[] f = { -0.0f, 0.0f, Float.NaN, Float.intBitsToFloat(0x7fc00001), Float.POSITIVE_INFINITY,
+				Float.NEGATIVE_INFINITY, Float.MIN_VALUE, Float.MAX_VALUE };
+		double[] d = { -0.0, 0.0, Double.NaN, Double.longBitsToDouble(0x7ff8000000000001L), Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE };
+		long[] l = { Long.MIN_VALUE, -1, 0, Long.MAX_VALUE };
+		MPacker packer = MPack.newMPacker();
+		packer.packTypedArray(f).packTypedArray(d).packTypedArray(l);
+		MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(packer));
+		float[] f2 = unpacker.unpackTypedArray().toFloatArray();
+		double[] d2 = unpacker.unpackTypedArray().toDoubleArray();
+		for (int i = 0; i < f.length; i++) {
+			Check.isTrue(Float.floatToRawIntBits(f[i]) == Float.floatToRawIntBits(f2[i]), "float bits " + f[i]);
+			Check.isTrue(Double.doubleToRawLongBits(d[i]) == Double.doubleToRawLongBits(d2[i]), "double bits " + d[i]);
+		}
+		Check.equal(l, unpacker.unpackTypedArray().toLongArray(), "long extremes");
+	}
+
+	private static void testCustomType() throws IOException {
+		MPacker packer = MPack.newMPacker().setTypedArrayType(CUSTOM_TYPE);
+		packer.packTypedArray(new double[] { 1, 2, -0.0 }).packTypedArray(new boolean[] { true, false, true });
+		byte[] encoded = Check.bytes(packer);
+		// FIXEXT后面是类型
+		Check.equal(Byte.valueOf(CUSTOM_TYPE), Byte.valueOf(encoded[encoded[0] == (byte) 0xc7 ? 2 : 1]), "custom ext type");
+
+		MUnpacker unpacker = MPack.newMUnpacker(encoded).setTypedArrayType(CUSTOM_TYPE);
+		Check.equal(new double[] { 1, 2, -0.0 }, unpacker.unpackTypedArray().toDoubleArray(), "custom type float64");
+		Check.equal(new boolean[] { true, false, true }, unpacker.unpackTypedArray().toBooleanArray(), "custom type boolean");
+
+		MUnpacker registered = MPack.newMUnpacker(encoded).setExtensionRegistry(
+				new ExtensionRegistry().register(new TypedArrayCodec(CUSTOM_TYPE)));
+		Check.equal(new double[] { 1, 2, -0.0 }, ((TypedArray) registered.unpack()).toDoubleArray(), "registered custom type");
+
+		// 默认类型的解包器不认识它
+		MUnpacker defaults = MPack.newMUnpacker(encoded);
+		Check.isTrue(!(defaults.unpack() instanceof TypedArray), "default type does not match");
+	}
+
+	/** 注册了别的编解码器的类型可以照常使用，只是不能再用于定长数组 */
+	private static void testCollision() throws IOException {
+		final ExtensionRegistry registry = new ExtensionRegistry().register(new UuidCodec(TypedArray.DEFAULT_EXT_TYPE));
+		final MPacker packer = MPack.newMPacker().setExtensionRegistry(registry);
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				packer.packTypedArray(new int[] { 1 });
+			}
+		});
+
+		MPacker plain = MPack.newMPacker();
+		plain.packTypedArray(new int[] { 1 });
+		final MUnpacker unpacker = MPack.newMUnpacker(Check.bytes(plain)).setExtensionRegistry(registry);
+		Check.fails(IllegalStateException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				unpacker.unpackTypedArray();
+			}
+		});
+
+		// 换掉类型就没有冲突
+		MPacker moved = MPack.newMPacker().setExtensionRegistry(registry).setTypedArrayType(CUSTOM_TYPE);
+		moved.packTypedArray(new int[] { 1 });
+		Check.equal(new int[] { 1 }, MPack.newMUnpacker(Check.bytes(moved)).setExtensionRegistry(registry)
+				.setTypedArrayType(CUSTOM_TYPE).unpackTypedArray().toIntArray(), "moved type");
+	}
+}
@@ -0,0 +1,74 @@
+package test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+
+import org.msgpack.MFeedUnpacker;
+import org.msgpack.MPack;
+import org.msgpack.MPackIntegerOverflowException;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.UnsignedLong;
+
+/**
+ * 无符号64位整数用long的位模式往返，不经过{@link BigInteger}
+ */
+public class UnsignedLongTest {
+	private static final long[] VALUES = { 0, 1, 127, 128, 255, 256, 65535, 65536, 0xffffffffL, 0x100000000L,
+			Long.MAX_VALUE, Long.MIN_VALUE, -2, -1 };
+
+	public static void main(String[] args) throws Exception {
+		testPrimitiveRoundTrip();
+		testBoxed();
+		testNegative();
+		System.out.println("UnsignedLongTest OK");
+	}
+
+	private static void testPrimitiveRoundTrip() throws IOException {
+		MPacker packer = MPack.newMPacker();
+		for (long v : VALUES) {
+			packer.packUnsignedLong(v);
+		}
+		byte[] bytes = Check.bytes(packer);
+		MUnpacker unpacker = MPack.newMUnpacker(bytes);
+		for (long v : VALUES) {
+			Check.equal(Long.toUnsignedString(v), Long.toUnsignedString(unpacker.unpackUnsignedLong()), "unsigned " + v);
+		}
+		// 与BigInteger的解码结果一致
+		unpacker = MPack.newMUnpacker(bytes);
+		for (long v : VALUES) {
+			Check.equal(Long.toUnsignedString(v), unpacker.unpack().toString(), "generic " + v);
+		}
+	}
+
+	private static void testBoxed() throws IOException {
+		UnsignedLong max = UnsignedLong.valueOf("18446744073709551615");
+		Check.equal(Long.valueOf(-1), Long.valueOf(max.longValue()), "bits of 2^64-1");
+		Check.equal(new BigInteger("18446744073709551615"), max.bigIntegerValue(), "BigInteger value");
+		Check.isTrue(max.compareTo(UnsignedLong.valueOf(Long.MAX_VALUE)) > 0, "unsigned comparison");
+
+		MPacker packer = MPack.newMPacker();
+		packer.pack(max);
+		packer.pack(UnsignedLong.valueOf(5));
+		byte[] bytes = Check.bytes(packer);
+		MUnpacker unpacker = MPack.newMUnpacker(bytes).setOptions(MUnpacker.OPT_UINT64_AS_UNSIGNED_LONG);
+		Check.equal(max, unpacker.unpack(), "boxed 2^64-1");
+		Check.equal(Long.valueOf(5), unpacker.unpack(), "values within long stay Long");
+
+		MFeedUnpacker feeder = new MFeedUnpacker().setOptions(MUnpacker.OPT_UINT64_AS_UNSIGNED_LONG);
+		feeder.feed(bytes, 0, bytes.length);
+		Check.equal(max, feeder.poll(), "fed 2^64-1");
+	}
+
+	private static void testNegative() throws IOException {
+		MPacker packer = MPack.newMPacker();
+		packer.packInt(-3);
+		final byte[] bytes = Check.bytes(packer);
+		Check.fails(MPackIntegerOverflowException.class, new Check.Block() {
+			@Override
+			public void run() throws IOException {
+				MPack.newMUnpacker(bytes).unpackUnsignedLong();
+			}
+		});
+	}
+}
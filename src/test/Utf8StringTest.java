@@ -0,0 +1,69 @@
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.msgpack.MFeedUnpacker;
+import org.msgpack.MPack;
+import org.msgpack.MPacker;
+import org.msgpack.MUnpacker;
+import org.msgpack.Utf8String;
+
+/**
+ * {@link MUnpacker#OPT_READ_STR_AS_UTF8}：按需解码的{@link Utf8String}与String的内容一致，重新打包后字节不变
+ */
+public class Utf8StringTest {
+	private static final String[] STRINGS = { "hello", "héllo 中文 😀", "", "\u0000\u007f\u0080߿ࠀ￿" };
+
+	public static void main(String[] args) throws Exception {
+		MPacker packer = MPack.newMPacker();
+		packer.packArrayHeader(STRINGS.length);
+		for (String s : STRINGS) {
+			packer.packString(s);
+		}
+		byte[] bytes = Check.bytes(packer);
+		testLazy(MPack.newMUnpacker(bytes), bytes);
+		testLazy(new MUnpacker(new ByteArrayInputStream(bytes)), bytes);
+		testFeed(bytes);
+		testPrimitive(bytes);
+		System.out.println("Utf8StringTest OK");
+	}
+
+	private static void testLazy(MUnpacker unpacker, byte[] bytes) throws IOException {
+		Object[] values = (Object[]) unpacker.setOptions(MUnpacker.OPT_READ_STR_AS_UTF8).unpack();
+		for (int i = 0; i < STRINGS.length; i++) {
+			String s = STRINGS[i];
+			Utf8String u = (Utf8String) values[i];
+			Check.equal(Integer.valueOf(s.length()), Integer.valueOf(u.length()), "length of " + s);
+			for (int k = 0; k < s.length(); k++) {
+				Check.equal(Character.valueOf(s.charAt(k)), Character.valueOf(u.charAt(k)), "char " + k + " of " + s);
+			}
+			if (s.length() >= 3) {
+				Check.equal(s.substring(1, 3), u.subSequence(1, 3).toString(), "subSequence of " + s);
+			}
+			Check.equal(s, u.toString(), "toString");
+			Check.isTrue(u.contentEquals(s) && u.contentEquals(new StringBuilder(s)), "contentEquals " + s);
+			Check.equal(Utf8String.valueOf(s), u, "equals");
+			Check.equal(Integer.valueOf(Utf8String.valueOf(s).hashCode()), Integer.valueOf(u.hashCode()), "hashCode");
+			Check.equal(Boolean.valueOf(i == 0 || i == 2), Boolean.valueOf(u.isAscii()), "isAscii " + s);
+		}
+		MPacker packer = MPack.newMPacker();
+		packer.pack(Arrays.asList(values));
+		Check.equal(bytes, Check.bytes(packer), "re-packed bytes");
+	}
+
+	private static void testFeed(byte[] bytes) {
+		MFeedUnpacker feeder = new MFeedUnpacker().setOptions(MUnpacker.OPT_READ_STR_AS_UTF8);
+		feeder.feed(bytes, 0, bytes.length);
+		Object[] values = (Object[]) feeder.poll();
+		Check.equal(Utf8String.valueOf(STRINGS[1]), values[1], "fed string");
+	}
+
+	private static void testPrimitive(byte[] bytes) throws IOException {
+		MUnpacker unpacker = MPack.newMUnpacker(bytes);
+		unpacker.unpackArrayHeader();
+		Check.equal(Utf8String.valueOf(STRINGS[0]), unpacker.unpackUtf8String(), "unpackUtf8String");
+		Check.equal(STRINGS[1], unpacker.unpackString(), "unpackString after unpackUtf8String");
+	}
+}